@@ -0,0 +1,76 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+
+/** Benchmarks of the map/reduce hot paths
+ *
+ * 1. What is measured
+ *  - RecommenderBenchmark: MatrixGeneratorMapper, NormalizeReducer, MultiplicationReducer, SumReducer
+ *  - PageRankBenchmark:    TransitionMapper, UnitMultiplication.MultiplicationReducer, UnitSum.SumReducer
+ *  - ParsingBenchmark:     String split vs TextScanner parsing of the same records
+ *  - every task class runs in isolation: its real input is built once by running the upstream stages in memory
+ *    (Pipeline), and Mapper.run / Reducer.run are driven by a fake context (FakeContext) over it
+ *
+ * 2. Build and run
+ *  - benchmark/pom.xml builds a shaded benchmarks.jar against the jobs jar of the root build; jmh-generator-annprocess
+ *    runs as annotation processor and generates the benchmark.jmh_generated classes and META-INF/BenchmarkList:
+ *      mvn install
+ *      mvn -f benchmark/pom.xml package
+ *  - run from the repository root (PageRankBenchmark reads pagerank/transition.txt and pagerank/pr.txt):
+ *      java -jar benchmark/target/benchmarks.jar [jmh options]
+ *  - jmh options as usual, e.g. a regexp to select benchmarks and -p to change inputs:
+ *      benchmarks.jar Recommender -p ratings=/data/ratings.txt
+ *      benchmarks.jar Parsing -f 1 -wi 2 -i 3
+ *
+ * 3. Report
+ *  - JMH's own table: ops/s (one op = one task input) and the records/s counter, plus the gc profiler's allocation
+ *    figures (always on)
+ *  - then one line per benchmark: records/s and bytes allocated per input record (gc.alloc.rate.norm / records per op)
+ * */
+
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.println(String.format("%-55s %15s %15s", "Benchmark", "records/s", "B/record"));
+        for (RunResult result : results) {
+            // jmh declares the results raw: only their scores are read
+            double opsPerSecond = result.getPrimaryResult().getScore();
+            double records = -1;
+            double allocation = -1;
+            Map<String, ?> secondary = result.getSecondaryResults();
+            for (Map.Entry<String, ?> entry : secondary.entrySet()) {
+                double score = ((Result<?>) entry.getValue()).getScore();
+                if (entry.getKey().equals("records")) {
+                    records = score;
+                } else if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+                    allocation = score;
+                }
+            }
+            if (records < 0 || opsPerSecond <= 0) {
+                continue;
+            }
+            double recordsPerOp = records / opsPerSecond;
+            String label = result.getParams().getBenchmark();
+            System.out.println(String.format("%-55s %15.0f %15s", label.substring(label.lastIndexOf('.', label.lastIndexOf('.') - 1) + 1),
+                    records,
+                    allocation < 0 ? "-" : String.format("%.1f", allocation / recordsPerOp)));
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+
+import java.io.IOException;
+
+/** Mapper/Reducer contexts over in-memory records, to drive one task class without a job
+ *
+ *  - map: the lines are handed out like LineRecordReader does (byte offset key, one reused Text value), so
+ *    Mapper.run(context) goes through setup, map per line and cleanup exactly as in a task
+ *  - reduce: the records come from a sorted Shuffle and are deserialized by Hadoop's own ReduceContextImpl, so the
+ *    reducer sees the same reused key/value objects and grouping as in a task
+ *  - output goes to any RecordWriter: a Sink (benchmarks) or a Shuffle / TextLines (building the next stage's input)
+ * */
+
+final class FakeContext {
+
+    // ValuesPerKey only counts in reduce tasks
+    private static final TaskAttemptID MAP_TASK = new TaskAttemptID("benchmark", 0, TaskType.MAP, 0, 0);
+    private static final TaskAttemptID REDUCE_TASK = new TaskAttemptID("benchmark", 0, TaskType.REDUCE, 0, 0);
+
+    private FakeContext() {
+    }
+
+    // a reusable map context for mapper: call lines.rewind() before every mapper.run(context)
+    @SuppressWarnings("unchecked")
+    static <K, KO, VO> Mapper<K, Text, KO, VO>.Context map(Configuration conf, Mapper<K, Text, KO, VO> mapper,
+                                                          Lines<K> lines, RecordWriter<? super KO, ? super VO> output) {
+        MapContextImpl<K, Text, KO, VO> context = new MapContextImpl<K, Text, KO, VO>(
+                conf, MAP_TASK, lines, (RecordWriter<KO, VO>) output, null, new CountingReporter(), null);
+        return new WrappedMapper<K, Text, KO, VO>().getMapContext(context);
+    }
+
+    // a one-shot reduce context for reducer over the sorted shuffle (ReduceContextImpl cannot be rewound)
+    @SuppressWarnings("unchecked")
+    static <KI extends Writable, VI extends Writable, KO, VO> Reducer<KI, VI, KO, VO>.Context reduce(
+            Configuration conf, Reducer<KI, VI, KO, VO> reducer, Shuffle<KI, VI> input,
+            RecordWriter<? super KO, ? super VO> output) throws IOException, InterruptedException {
+        Counters counters = new Counters();
+        ReduceContextImpl<KI, VI, KO, VO> context = new ReduceContextImpl<KI, VI, KO, VO>(
+                conf, REDUCE_TASK, input.replay(),
+                counters.findCounter("benchmark", "keys"), counters.findCounter("benchmark", "values"),
+                (RecordWriter<KO, VO>) output, null, new CountingReporter(),
+                input.comparator(), input.keyClass(), input.valueClass());
+        return new WrappedReducer<KI, VI, KO, VO>().getReducerContext(context);
+    }
+
+    // the task classes publish counters from setup/map/reduce: DummyReporter would hand them null
+    private static final class CountingReporter extends StatusReporter {
+
+        private final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+
+    // map input: LongWritable offsets as keys (the mappers declare LongWritable or Object), reused Text values
+    static final class Lines<K> extends RecordReader<K, Text> {
+
+        private final Text[] lines;
+        private final LongWritable offset = new LongWritable();
+        private final Text value = new Text();
+        private int next;
+        private long bytes;
+
+        Lines(Text[] lines) {
+            this.lines = lines;
+        }
+
+        void rewind() {
+            next = 0;
+            bytes = 0;
+        }
+
+        int size() {
+            return lines.length;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) {
+        }
+
+        @Override
+        public boolean nextKeyValue() {
+            if (next == lines.length) {
+                return false;
+            }
+            offset.set(bytes);
+            value.set(lines[next]);
+            bytes += value.getLength() + 1;
+            next++;
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K getCurrentKey() {
+            return (K) offset;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() {
+            return lines.length == 0 ? 1 : (float) next / lines.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pagerank.UnitMultiplication;
+import pagerank.UnitSum;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Task classes of one PageRank iteration, one task input per op
+ *
+ *  - transitionMapper:       transition.txt -> from\tto=prob
+ *  - multiplicationReducer:  transition cells + pr of every fromPage -> subPR cells
+ *  - sumReducer:             subPR cells per toPage -> pr, rounded
+ *  - the inputs are transition.txt and pr.txt of -p dir=<dir> (default: the sample graph in pagerank/)
+ * */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PageRankBenchmark {
+
+    @Param("pagerank")
+    public String dir;
+
+    private Configuration conf;
+    private final Sink<Object, Object> sink = new Sink<Object, Object>();
+
+    private FakeContext.Lines<Object> transitions;
+    private final UnitMultiplication.TransitionMapper transitionMapper = new UnitMultiplication.TransitionMapper();
+    private Mapper<Object, Text, Text, Text>.Context transitionContext;
+
+    private Shuffle<Text, Text> multiplicationInput;
+    private Shuffle<Text, DoubleWritable> sumInput;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException, InterruptedException {
+        conf = new Configuration();
+        Text[] transition = Pipeline.readLines(new File(dir, "transition.txt").getPath());
+        Text[] pr = Pipeline.readLines(new File(dir, "pr.txt").getPath());
+
+        transitions = new FakeContext.Lines<Object>(transition);
+        transitionContext = FakeContext.map(conf, transitionMapper, transitions, sink);
+
+        // UnitMultiplication -> UnitSum
+        multiplicationInput = new Shuffle<Text, Text>(Text.class, Text.class);
+        Pipeline.map(conf, new UnitMultiplication.TransitionMapper(), transition, multiplicationInput);
+        Pipeline.map(conf, new UnitMultiplication.PRMapper(), pr, multiplicationInput);
+        multiplicationInput.sort();
+        Text[] subPR = Pipeline.reduce(conf, new UnitMultiplication.MultiplicationReducer(), multiplicationInput);
+
+        sumInput = Pipeline.map(conf, new UnitSum.PassMapper(), subPR,
+                new Shuffle<Text, DoubleWritable>(Text.class, DoubleWritable.class)).sort();
+    }
+
+    @Benchmark
+    public void transitionMapper(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        transitions.rewind();
+        transitionMapper.run(transitionContext);
+        records.records += transitions.size();
+    }
+
+    @Benchmark
+    public void multiplicationReducer(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        UnitMultiplication.MultiplicationReducer reducer = new UnitMultiplication.MultiplicationReducer();
+        reducer.run(FakeContext.reduce(conf, reducer, multiplicationInput, sink));
+        records.records += multiplicationInput.size();
+    }
+
+    @Benchmark
+    public void sumReducer(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        UnitSum.SumReducer reducer = new UnitSum.SumReducer();
+        reducer.run(FakeContext.reduce(conf, reducer, sumInput, sink));
+        records.records += sumInput.size();
+    }
+
+}
@@ -0,0 +1,146 @@
+package benchmark;
+
+import common.TextScanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import recommender.CoOccurrenceMatrixGenerator;
+import recommender.DataDividerByUser;
+import recommender.Normalizer;
+
+import java.io.IOException;
+
+/** Record parsing before and after TextScanner, on the same lines
+ *
+ *  - *Split:   value.toString().trim().split(...) + Integer/Double.parseDouble, as the mappers parsed before
+ *  - *Scanner: TextScanner over the Text bytes, as they parse now
+ *  - ratings:      user,movie,rating                    (DataDividerMapper, RatingMapper)
+ *  - userVectors:  user\tmovie:rating,movie:rating,...  (MatrixGeneratorMapper, UserScoreMapper)
+ *  - relations:    movie2\tmovie1=relation              (CoOccurrenceMapper); the relations are Double.toString
+ *                  output with 16-17 digits, so the scanner takes its Double.parseDouble fallback here
+ * */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParsingBenchmark {
+
+    @Param("")
+    public String ratings;
+
+    private Text[] ratingLines;
+    private Text[] userVectorLines;
+    private Text[] relationLines;
+
+    private final TextScanner scanner = new TextScanner();
+    private final Text movie = new Text();
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException, InterruptedException {
+        Configuration conf = new Configuration();
+        ratingLines = ratings.isEmpty() ? Pipeline.syntheticRatings(1000, 500, 15, 1.0, 0.5, 42) : Pipeline.readLines(ratings);
+        userVectorLines = Pipeline.reduce(conf, new DataDividerByUser.DataDividerReducer(), Pipeline.map(
+                conf, new DataDividerByUser.DataDividerMapper(), ratingLines,
+                new Shuffle<IntWritable, Text>(IntWritable.class, Text.class)).sort());
+        Text[] coOccurrence = Pipeline.reduce(conf, new CoOccurrenceMatrixGenerator.MatrixGeneratorReducer(), Pipeline.map(
+                conf, new CoOccurrenceMatrixGenerator.MatrixGeneratorMapper(), userVectorLines,
+                new Shuffle<Text, IntWritable>(Text.class, IntWritable.class)).sort());
+        relationLines = Pipeline.reduce(conf, new Normalizer.NormalizeReducer(), Pipeline.map(
+                conf, new Normalizer.NormalizeMapper(), coOccurrence,
+                new Shuffle<Text, Text>(Text.class, Text.class)).sort());
+    }
+
+    @Benchmark
+    public void ratingsSplit(Records records, Blackhole blackhole) {
+        for (Text line : ratingLines) {
+            String[] userMovieRating = line.toString().trim().split(",");
+            blackhole.consume(Integer.parseInt(userMovieRating[0]));
+            blackhole.consume(userMovieRating[1]);
+            blackhole.consume(Double.parseDouble(userMovieRating[2]));
+        }
+        records.records += ratingLines.length;
+    }
+
+    @Benchmark
+    public void ratingsScanner(Records records, Blackhole blackhole) {
+        for (Text line : ratingLines) {
+            scanner.reset(line).next(',');
+            blackhole.consume(scanner.parseInt());
+            scanner.next(',');
+            scanner.copyTo(movie);
+            blackhole.consume(movie);
+            scanner.next(',');
+            blackhole.consume(scanner.parseDouble());
+        }
+        records.records += ratingLines.length;
+    }
+
+    @Benchmark
+    public void userVectorsSplit(Records records, Blackhole blackhole) {
+        for (Text line : userVectorLines) {
+            String[] movieRatings = line.toString().trim().split("\t")[1].split(",");
+            for (String movieRating : movieRatings) {
+                String[] movieAndRating = movieRating.split(":");
+                blackhole.consume(movieAndRating[0]);
+                blackhole.consume(Double.parseDouble(movieAndRating[1]));
+            }
+        }
+        records.records += userVectorLines.length;
+    }
+
+    @Benchmark
+    public void userVectorsScanner(Records records, Blackhole blackhole) {
+        for (Text line : userVectorLines) {
+            scanner.reset(line).next('\t');
+            while (scanner.next(':')) {
+                scanner.copyTo(movie);
+                blackhole.consume(movie);
+                scanner.next(',');
+                blackhole.consume(scanner.parseDouble());
+            }
+        }
+        records.records += userVectorLines.length;
+    }
+
+    @Benchmark
+    public void relationsSplit(Records records, Blackhole blackhole) {
+        for (Text line : relationLines) {
+            String[] movieRelation = line.toString().trim().split("\t");
+            String[] movieAndRelation = movieRelation[1].split("=");
+            blackhole.consume(movieRelation[0]);
+            blackhole.consume(movieAndRelation[0]);
+            blackhole.consume(Double.parseDouble(movieAndRelation[1]));
+        }
+        records.records += relationLines.length;
+    }
+
+    @Benchmark
+    public void relationsScanner(Records records, Blackhole blackhole) {
+        for (Text line : relationLines) {
+            scanner.reset(line).next('\t');
+            scanner.copyTo(movie);
+            blackhole.consume(movie);
+            scanner.next('=');
+            scanner.copyTo(movie);
+            blackhole.consume(movie);
+            scanner.next('=');
+            blackhole.consume(scanner.parseDouble());
+        }
+        records.records += relationLines.length;
+    }
+
+}
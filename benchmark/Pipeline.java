@@ -0,0 +1,86 @@
+package benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds the input of every benchmarked stage by running the real upstream stages in memory
+ *
+ *  - a benchmark of NormalizeReducer needs what MatrixGeneratorReducer writes, which needs what DataDividerReducer
+ *    writes, ...: map() and reduce() chain the job classes through FakeContext, a Shuffle between map and reduce and
+ *    TextLines (key\tvalue, like TextOutputFormat) between jobs
+ *  - only used while setting up a benchmark, so nothing here is tuned
+ * */
+
+final class Pipeline {
+
+    private Pipeline() {
+    }
+
+    static Text[] readLines(String file) throws IOException {
+        List<Text> lines = new ArrayList<Text>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                lines.add(new Text(line));
+            }
+        }
+        return lines.toArray(new Text[lines.size()]);
+    }
+
+    // user,movie,rating lines from RatingsGenerator
+    static Text[] syntheticRatings(int users, int movies, int ratingsPerUser, double movieSkew, double userSkew, long seed)
+            throws IOException {
+        StringWriter out = new StringWriter();
+        new RatingsGenerator(users, movies, ratingsPerUser, movieSkew, userSkew, seed).write(out);
+        List<Text> lines = new ArrayList<Text>();
+        for (String line : out.toString().split("\n")) {
+            lines.add(new Text(line));
+        }
+        return lines.toArray(new Text[lines.size()]);
+    }
+
+    // runs mapper over lines and collects its output into a shuffle (call sort() once all mappers ran)
+    static <K, KO extends Writable, VO extends Writable> Shuffle<KO, VO> map(
+            Configuration conf, Mapper<K, Text, KO, VO> mapper, Text[] lines, Shuffle<KO, VO> output)
+            throws IOException, InterruptedException {
+        FakeContext.Lines<K> input = new FakeContext.Lines<K>(lines);
+        mapper.run(FakeContext.map(conf, mapper, input, output));
+        return output;
+    }
+
+    // runs reducer over a sorted shuffle, the output as text lines
+    static <KI extends Writable, VI extends Writable, KO, VO> Text[] reduce(
+            Configuration conf, Reducer<KI, VI, KO, VO> reducer, Shuffle<KI, VI> input)
+            throws IOException, InterruptedException {
+        TextLines<KO, VO> output = new TextLines<KO, VO>();
+        reducer.run(FakeContext.reduce(conf, reducer, input, output));
+        return output.lines.toArray(new Text[output.lines.size()]);
+    }
+
+    private static final class TextLines<K, V> extends RecordWriter<K, V> {
+
+        private final List<Text> lines = new ArrayList<Text>();
+
+        @Override
+        public void write(K key, V value) {
+            lines.add(new Text(key + "\t" + value));
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Synthetic ratings with power-law movie popularity and user activity
+ *
+ * 1. Model
+ *  - movie of popularity rank r (1 = most popular) is picked with probability ~ 1 / r^movieSkew
+ *  - user of activity rank r rates ~ 1 / r^userSkew movies, scaled so that the mean history is ratingsPerUser;
+ *    every user rates at least one movie and at most half of the catalog
+ *  - a user's movies are distinct: a pick that is already in the history is drawn again; after 64 misses in a row
+ *    (long histories under strong skew) the next unrated movie after a uniform pick is taken instead
+ *  - ratings are half stars 1.0 .. 5.0, uniform
+ *  - skew 0 is uniform; real catalogs are around movieSkew 0.8 - 1.2
+ *
+ * 2. Output
+ *  - user,movie,rating lines (the Driver's rawInputFile), grouped by user, users 1..users in id order
+ *  - movie ids are 10001 .. 10000 + movies; ranks are shuffled over user and movie ids, so popular movies and heavy
+ *    users are not contiguous ids
+ *  - the same arguments (seed included) always give the same file
+ *
+ * 3. Usage
+ *  - benchmark.RatingsGenerator users movies ratingsPerUser movieSkew userSkew seed output
+ *  - output is a Hadoop path (local or HDFS), overwritten
+ * */
+
+public class RatingsGenerator {
+
+    public static final int FIRST_MOVIE = 10001;
+    private static final int MAX_MISSES = 64;
+
+    private final int users;
+    private final int movies;
+    private final double ratingsPerUser;
+    private final double movieSkew;
+    private final double userSkew;
+    private final long seed;
+
+    public RatingsGenerator(int users, int movies, double ratingsPerUser, double movieSkew, double userSkew, long seed) {
+        if (users < 1 || movies < 1 || ratingsPerUser <= 0) {
+            throw new IllegalArgumentException("users, movies and ratingsPerUser must be positive");
+        }
+        this.users = users;
+        this.movies = movies;
+        this.ratingsPerUser = ratingsPerUser;
+        this.movieSkew = movieSkew;
+        this.userSkew = userSkew;
+        this.seed = seed;
+    }
+
+    // writes all ratings to out, returns the number of ratings
+    public long write(Writer out) throws IOException {
+        Random random = new Random(seed);
+        int[] movieIds = shuffledIds(movies, random); // popularity rank -> movie index
+        int[] userRanks = shuffledIds(users, random);  // user index -> activity rank
+        double[] popularity = cumulative(movies, movieSkew);
+        int[] history = historyLengths(random);
+
+        int[] ratedBy = new int[movies]; // movie index -> 1 + last user index that rated it
+        long ratings = 0;
+        StringBuilder line = new StringBuilder();
+        for (int user = 0; user < users; user++) {
+            int length = history[userRanks[user]];
+            for (int i = 0; i < length; i++) {
+                int movie = pick(popularity, movieIds, random, ratedBy, user + 1);
+                ratedBy[movie] = user + 1;
+
+                line.setLength(0);
+                line.append(user + 1).append(',').append(FIRST_MOVIE + movie).append(',')
+                        .append(1 + random.nextInt(9) * 0.5).append('\n');
+                out.append(line);
+            }
+            ratings += length;
+        }
+        return ratings;
+    }
+
+    private int pick(double[] popularity, int[] movieIds, Random random, int[] ratedBy, int stamp) {
+        for (int miss = 0; miss < MAX_MISSES; miss++) {
+            int rank = Arrays.binarySearch(popularity, random.nextDouble() * popularity[movies - 1]);
+            int movie = movieIds[rank < 0 ? Math.min(-rank - 1, movies - 1) : rank];
+            if (ratedBy[movie] != stamp) {
+                return movie;
+            }
+        }
+        int movie = random.nextInt(movies);
+        while (ratedBy[movie] == stamp) { // at most half of the catalog is rated: terminates
+            movie = (movie + 1) % movies;
+        }
+        return movie;
+    }
+
+    // activity rank -> number of ratings: ~ 1 / rank^userSkew, mean ratingsPerUser, in [1, movies / 2]
+    private int[] historyLengths(Random random) {
+        double[] weights = new double[users];
+        double total = 0;
+        for (int rank = 0; rank < users; rank++) {
+            weights[rank] = Math.pow(rank + 1, -userSkew);
+            total += weights[rank];
+        }
+        int cap = Math.max(1, movies / 2);
+        int[] lengths = new int[users];
+        for (int rank = 0; rank < users; rank++) {
+            double expected = ratingsPerUser * users * weights[rank] / total;
+            int length = (int) expected;
+            if (random.nextDouble() < expected - length) { // keeps the mean for fractional lengths
+                length++;
+            }
+            lengths[rank] = Math.min(cap, Math.max(1, length));
+        }
+        return lengths;
+    }
+
+    // running sum of 1 / rank^skew over ranks 1..n
+    private static double[] cumulative(int n, double skew) {
+        double[] sums = new double[n];
+        double sum = 0;
+        for (int rank = 0; rank < n; rank++) {
+            sum += Math.pow(rank + 1, -skew);
+            sums[rank] = sum;
+        }
+        return sums;
+    }
+
+    private static int[] shuffledIds(int n, Random random) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+        return ids;
+    }
+
+    // writes the ratings to a Hadoop path, returns the number of ratings
+    public long write(Configuration conf, Path output) throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        Writer out = new BufferedWriter(new OutputStreamWriter(fs.create(output, true), StandardCharsets.UTF_8));
+        try {
+            return write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        RatingsGenerator generator = new RatingsGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Double.parseDouble(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Long.parseLong(args[5]));
+        long ratings = generator.write(new Configuration(), new Path(args[6]));
+        System.out.println(ratings + " ratings written to " + args[6]);
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import recommender.Aggregator;
+import recommender.CoOccurrenceMatrixGenerator;
+import recommender.DataDividerByUser;
+import recommender.Multiplier;
+import recommender.Normalizer;
+
+import java.io.IOException;
+
+/** Hot task classes of the recommender pipeline, one task input per op
+ *
+ *  - matrixGeneratorMapper:  user vectors (DataDividerByUser output) -> movie1:movie2 pairs
+ *  - normalizeReducer:       co-occurrence rows -> normalized, transposed cells
+ *  - multiplicationReducer:  normalized columns + raw ratings per movie -> user:movie partial scores
+ *  - sumReducer:             partial scores per user:movie -> score
+ *  - the inputs come from running the upstream stages in memory (see Pipeline) over the ratings file given by
+ *    -p ratings=<file>, or over RatingsGenerator ratings (-p users, movies, ratingsPerUser, movieSkew, userSkew) when
+ *    it is empty
+ * */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RecommenderBenchmark {
+
+    @Param("")
+    public String ratings;
+
+    @Param("1000")
+    public int users;
+
+    @Param("500")
+    public int movies;
+
+    @Param("15")
+    public int ratingsPerUser;
+
+    @Param("1.0")
+    public double movieSkew;
+
+    @Param("0.5")
+    public double userSkew;
+
+    private Configuration conf;
+    private final Sink<Object, Object> sink = new Sink<Object, Object>();
+
+    private FakeContext.Lines<LongWritable> userVectors;
+    private Mapper<LongWritable, Text, Text, IntWritable>.Context matrixGeneratorContext;
+    private final CoOccurrenceMatrixGenerator.MatrixGeneratorMapper matrixGeneratorMapper = new CoOccurrenceMatrixGenerator.MatrixGeneratorMapper();
+
+    private Shuffle<Text, Text> normalizeInput;
+    private Shuffle<Text, Text> multiplicationInput;
+    private Shuffle<Text, DoubleWritable> sumInput;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException, InterruptedException {
+        conf = new Configuration();
+        Text[] rawInput = ratings.isEmpty()
+                ? Pipeline.syntheticRatings(users, movies, ratingsPerUser, movieSkew, userSkew, 42)
+                : Pipeline.readLines(ratings);
+
+        // DataDividerByUser -> CoOccurrenceMatrixGenerator -> Normalizer -> Multiplier -> Aggregator
+        Text[] vectors = Pipeline.reduce(conf, new DataDividerByUser.DataDividerReducer(), Pipeline.map(
+                conf, new DataDividerByUser.DataDividerMapper(), rawInput,
+                new Shuffle<IntWritable, Text>(IntWritable.class, Text.class)).sort());
+        userVectors = new FakeContext.Lines<LongWritable>(vectors);
+        matrixGeneratorContext = FakeContext.map(conf, matrixGeneratorMapper, userVectors, sink);
+
+        Text[] coOccurrence = Pipeline.reduce(conf, new CoOccurrenceMatrixGenerator.MatrixGeneratorReducer(), Pipeline.map(
+                conf, new CoOccurrenceMatrixGenerator.MatrixGeneratorMapper(), vectors,
+                new Shuffle<Text, IntWritable>(Text.class, IntWritable.class)).sort());
+
+        normalizeInput = Pipeline.map(conf, new Normalizer.NormalizeMapper(), coOccurrence,
+                new Shuffle<Text, Text>(Text.class, Text.class)).sort();
+        Text[] normalized = Pipeline.reduce(conf, new Normalizer.NormalizeReducer(), normalizeInput);
+
+        multiplicationInput = new Shuffle<Text, Text>(Text.class, Text.class);
+        Pipeline.map(conf, new Multiplier.CoOccurrenceMapper(), normalized, multiplicationInput);
+        Pipeline.map(conf, new Multiplier.RatingMapper(), rawInput, multiplicationInput);
+        multiplicationInput.sort();
+        Text[] products = Pipeline.reduce(conf, new Multiplier.MultiplicationReducer(), multiplicationInput);
+
+        sumInput = Pipeline.map(conf, new Aggregator.SumMapper(), products,
+                new Shuffle<Text, DoubleWritable>(Text.class, DoubleWritable.class)).sort();
+    }
+
+    @Benchmark
+    public void matrixGeneratorMapper(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        userVectors.rewind();
+        matrixGeneratorMapper.run(matrixGeneratorContext);
+        records.records += userVectors.size();
+    }
+
+    @Benchmark
+    public void normalizeReducer(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        Normalizer.NormalizeReducer reducer = new Normalizer.NormalizeReducer();
+        reducer.run(FakeContext.reduce(conf, reducer, normalizeInput, sink));
+        records.records += normalizeInput.size();
+    }
+
+    @Benchmark
+    public void multiplicationReducer(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        Multiplier.MultiplicationReducer reducer = new Multiplier.MultiplicationReducer();
+        reducer.run(FakeContext.reduce(conf, reducer, multiplicationInput, sink));
+        records.records += multiplicationInput.size();
+    }
+
+    @Benchmark
+    public void sumReducer(Records records, Blackhole blackhole) throws IOException, InterruptedException {
+        sink.blackhole = blackhole;
+        Aggregator.SumReducer reducer = new Aggregator.SumReducer();
+        reducer.run(FakeContext.reduce(conf, reducer, sumInput, sink));
+        records.records += sumInput.size();
+    }
+
+}
@@ -0,0 +1,26 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Input records processed, reported by JMH next to ops/s as a records/s rate
+ *
+ *  - one benchmark op replays a whole task input (all lines of a mapper, all values of a reducer); records/s is the
+ *    number to compare between stages, and Benchmarks divides the allocation per op by records per op
+ * */
+
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Records {
+
+    public long records;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        records = 0;
+    }
+
+}
@@ -0,0 +1,100 @@
+package benchmark;
+
+import common.RunReport;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+import recommender.Driver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** End-to-end scaling runs of recommender.Driver on generated ratings
+ *
+ * 1. What it does
+ *  - for every scale usersxmoviesxratingsPerUser: generate ratings with RatingsGenerator into workDir/<scale>, run
+ *    the whole pipeline on them (Driver.run, so every -D option of the Driver applies) and collect every job
+ *  - per stage: wall time, map input records, shuffled records and bytes, output records and bytes (see
+ *    common.RunReport)
+ *  - between consecutive scales: the scaling exponent of every stage, log(time ratio) / log(ratings ratio);
+ *    about 1 is linear, clearly above 1 is superlinear (co-occurrence pairs grow with the square of the history)
+ *
+ * 2. Usage
+ *  - benchmark.ScalingBenchmark [-Dkey=value ...] workDir scale1 scale2 ...
+ *      e.g. benchmark.ScalingBenchmark -Drecommender.cooccurrence.mode=stripes /tmp/scaling 1000x500x20 4000x2000x20
+ *  - both mains are in the benchmarks jar (see Benchmarks): java -cp benchmark/target/benchmarks.jar benchmark.ScalingBenchmark ...
+ *  - -Dbenchmark.movie.skew=1.0 -Dbenchmark.user.skew=0.5 -Dbenchmark.seed=42: generator settings (these defaults)
+ *  - without a cluster configuration the jobs run on the local job runner; workDir/<scale> must not exist yet
+ *  - with -Drecommender.engine=local there are no jobs and only the total time is reported
+ *  - -Drecommender.engine=parallel runs the same jobs in this JVM (common.ParallelJobRunner), reported the same way
+ * */
+
+public class ScalingBenchmark {
+
+    public static final String MOVIE_SKEW = "benchmark.movie.skew";
+    public static final String USER_SKEW = "benchmark.user.skew";
+    public static final String SEED = "benchmark.seed";
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        Path workDir = new Path(args[0]);
+
+        long previousRatings = 0;
+        Map<String, RunReport.Stage> previousStages = null;
+        double previousTotal = 0;
+        for (int i = 1; i < args.length; i++) {
+            String[] scale = args[i].split("x");
+            Path dir = new Path(workDir, args[i]);
+            Path ratingsFile = new Path(dir, "ratings.txt");
+
+            long ratings = new RatingsGenerator(Integer.parseInt(scale[0]), Integer.parseInt(scale[1]),
+                    Double.parseDouble(scale[2]), conf.getDouble(MOVIE_SKEW, 1.0), conf.getDouble(USER_SKEW, 0.5),
+                    conf.getLong(SEED, 42)).write(conf, ratingsFile);
+
+            String[] pipeline = {ratingsFile.toString(), dir + "/user", dir + "/cooccurrence", dir + "/normalized",
+                    dir + "/multiplied", dir + "/aggregated"};
+            RunReport report = new RunReport("recommender", pipeline);
+            Driver.run(new Configuration(conf), pipeline, report);
+            report.finish(true);
+
+            Map<String, RunReport.Stage> stages = new LinkedHashMap<String, RunReport.Stage>();
+            for (RunReport.Stage stage : report.stages()) {
+                stages.put(stage.name, stage);
+            }
+            report(args[i], ratings, stages, report.seconds(), previousRatings, previousStages, previousTotal);
+
+            previousRatings = ratings;
+            previousStages = stages;
+            previousTotal = report.seconds();
+        }
+
+    }
+
+    private static void report(String scale, long ratings, Map<String, RunReport.Stage> stages, double total,
+                               long previousRatings, Map<String, RunReport.Stage> previousStages, double previousTotal) {
+        System.out.println();
+        System.out.println("scale " + scale + ": " + ratings + " ratings");
+        System.out.println(String.format("%-52s %10s %12s %12s %14s %12s %14s %9s",
+                "stage", "seconds", "in records", "shuffled", "shuffled B", "out records", "out B", "exponent"));
+        for (RunReport.Stage stage : stages.values()) {
+            RunReport.Stage previous = previousStages == null ? null : previousStages.get(stage.name);
+            System.out.println(String.format("%-52s %10.2f %12d %12d %14d %12d %14d %9s",
+                    stage.name, stage.seconds, stage.recordsIn, stage.shuffledRecords, stage.shuffledBytes,
+                    stage.recordsOut, stage.outputBytes,
+                    previous == null ? "" : exponent(previous.seconds, stage.seconds, previousRatings, ratings)));
+        }
+        System.out.println(String.format("%-52s %10.2f %12s %12s %14s %12s %14s %9s", "total", total, "", "", "", "", "",
+                previousStages == null ? "" : exponent(previousTotal, total, previousRatings, ratings)));
+    }
+
+    // t ~ ratings^exponent between two scales
+    private static String exponent(double previousSeconds, double seconds, long previousRatings, long ratings) {
+        if (previousSeconds <= 0 || seconds <= 0 || previousRatings == ratings) {
+            return "-";
+        }
+        return String.format("%.2f", Math.log(seconds / previousSeconds) / Math.log((double) ratings / previousRatings));
+    }
+
+}
@@ -0,0 +1,146 @@
+package benchmark;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.Progress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/** In-memory shuffle: map output records, serialized and sorted by key like the real shuffle sorts them
+ *
+ *  - as a RecordWriter it collects the output of one or more mappers (Multiplier reads two inputs)
+ *  - sort() orders the records with the raw comparator of the key class; values of one key keep the map order
+ *  - replay() hands the sorted records to a ReduceContextImpl, any number of times
+ * */
+
+final class Shuffle<K extends Writable, V extends Writable> extends RecordWriter<K, V> {
+
+    private final Class<K> keyClass;
+    private final Class<V> valueClass;
+    private final RawComparator<K> comparator;
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private int[] starts = new int[1024]; // record i: key [starts[i], splits[i]), value [splits[i], ends[i])
+    private int[] splits = new int[1024];
+    private int[] ends = new int[1024];
+    private int size;
+    private int[] order;
+    private final Replay replay = new Replay();
+
+    @SuppressWarnings("unchecked")
+    Shuffle(Class<K> keyClass, Class<V> valueClass) {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.comparator = (RawComparator<K>) WritableComparator.get(keyClass.asSubclass(WritableComparable.class));
+    }
+
+    @Override
+    public void write(K key, V value) throws IOException {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            splits = Arrays.copyOf(splits, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = buffer.getLength();
+        key.write(buffer);
+        splits[size] = buffer.getLength();
+        value.write(buffer);
+        ends[size] = buffer.getLength();
+        size++;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+
+    Shuffle<K, V> sort() {
+        final byte[] bytes = buffer.getData();
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() { // stable: equal keys keep the map order
+            @Override
+            public int compare(Integer a, Integer b) {
+                return comparator.compare(bytes, starts[a], splits[a] - starts[a], bytes, starts[b], splits[b] - starts[b]);
+            }
+        });
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = sorted[i];
+        }
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Class<K> keyClass() {
+        return keyClass;
+    }
+
+    Class<V> valueClass() {
+        return valueClass;
+    }
+
+    RawComparator<K> comparator() {
+        return comparator;
+    }
+
+    RawKeyValueIterator replay() {
+        if (order == null) {
+            throw new IllegalStateException("shuffle is not sorted");
+        }
+        replay.next = 0;
+        return replay;
+    }
+
+    private final class Replay implements RawKeyValueIterator {
+
+        private final DataInputBuffer key = new DataInputBuffer();
+        private final DataInputBuffer value = new DataInputBuffer();
+        private final Progress progress = new Progress();
+        private int next;
+
+        @Override
+        public boolean next() {
+            if (next == size) {
+                return false;
+            }
+            int i = order[next++];
+            byte[] bytes = buffer.getData();
+            key.reset(bytes, starts[i], splits[i] - starts[i]);
+            value.reset(bytes, splits[i], ends[i] - splits[i]);
+            return true;
+        }
+
+        @Override
+        public DataInputBuffer getKey() {
+            return key;
+        }
+
+        @Override
+        public DataInputBuffer getValue() {
+            return value;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Progress getProgress() {
+            return progress;
+        }
+    }
+
+}
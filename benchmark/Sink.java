@@ -0,0 +1,22 @@
+package benchmark;
+
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.openjdk.jmh.infra.Blackhole;
+
+// benchmark output: every record goes to the blackhole, so the JIT cannot drop the work that produced it
+final class Sink<K, V> extends RecordWriter<K, V> {
+
+    Blackhole blackhole;
+
+    @Override
+    public void write(K key, V value) {
+        blackhole.consume(key);
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+
+}
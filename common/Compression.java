@@ -0,0 +1,123 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Compression of map output and job output, shared by every job of both pipelines
+ *
+ * 1. Settings
+ *  - codecs: none (default), deflate, gzip, bzip2; Hadoop has a pure-Java implementation of each, so they work
+ *    without the native library
+ *  - compression.map.output:   map output (spills and shuffle)
+ *  - compression.intermediate: output of jobs that a later job reads
+ *  - compression.final:        output of the job that writes the pipeline's result
+ *  - SequenceFile outputs (binary mode) are block-compressed with the same codec
+ *  - Hadoop's pure-Java gzip only writes plain streams: for map output and SequenceFiles gzip needs the native zlib
+ *    (checkBinaryCodec), deflate is the same algorithm without the gzip header
+ *  - none leaves Hadoop's own mapreduce.* compression properties as they are
+ *
+ * 2. Use
+ *  - every createJob calls configure(job) right after Job.getInstance; the drivers hand finalOutput(conf) to the
+ *    job that writes the result (the last pagerank iteration, the last recommender job)
+ *  - code that reads job output files itself (side-loaded matrix, dictionary, delta, _raters/) goes through
+ *    open(conf, file): the codec follows from the file extension, so compressed and plain outputs both read
+ *  - compressed text files can't be split: a map task reads a whole part file
+ *  - ParallelJobRunner keeps map output in memory and does not compress it; output compression applies
+ *  - RunReport lists the shuffle and output compression ratios of every stage
+ * */
+
+public final class Compression {
+
+    public static final String MAP_OUTPUT = "compression.map.output";
+    public static final String INTERMEDIATE = "compression.intermediate";
+    public static final String FINAL = "compression.final";
+    // set by finalOutput(): the job's output is the pipeline's result
+    static final String FINAL_OUTPUT = "compression.final.output";
+
+    private static final Map<String, Class<? extends CompressionCodec>> CODECS =
+            new LinkedHashMap<String, Class<? extends CompressionCodec>>();
+
+    static {
+        CODECS.put("none", null);
+        CODECS.put("deflate", DefaultCodec.class);
+        CODECS.put("gzip", GzipCodec.class);
+        CODECS.put("bzip2", BZip2Codec.class);
+    }
+
+    private Compression() {
+    }
+
+    public static void configure(Job job) {
+        Configuration conf = job.getConfiguration();
+        CompressionCodec mapCodec = checkBinaryCodec(conf, MAP_OUTPUT);
+        if (mapCodec != null) {
+            conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+            conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, mapCodec.getClass(), CompressionCodec.class);
+        }
+        CompressionCodec outputCodec = codec(conf, conf.getBoolean(FINAL_OUTPUT, false) ? FINAL : INTERMEDIATE);
+        if (outputCodec != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, outputCodec.getClass());
+            SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        }
+    }
+
+    // a copy of conf for the job that writes the pipeline's result
+    public static Configuration finalOutput(Configuration conf) {
+        Configuration finalConf = new Configuration(conf);
+        finalConf.setBoolean(FINAL_OUTPUT, true);
+        return finalConf;
+    }
+
+    // the codec named by key, null for none
+    public static CompressionCodec codec(Configuration conf, String key) {
+        String name = conf.getTrimmed(key, "none");
+        if (!CODECS.containsKey(name)) {
+            throw new IllegalArgumentException(key + "=" + name + ": codec must be one of " + CODECS.keySet());
+        }
+        Class<? extends CompressionCodec> codecClass = CODECS.get(name);
+        return codecClass == null ? null : ReflectionUtils.newInstance(codecClass, conf);
+    }
+
+    // the codec named by key, for spill files or SequenceFiles: fails early where Hadoop would fail in a task
+    public static CompressionCodec checkBinaryCodec(Configuration conf, String key) {
+        CompressionCodec codec = codec(conf, key);
+        if (codec instanceof GzipCodec && !ZlibFactory.isNativeZlibLoaded(conf)) {
+            throw new IllegalArgumentException(key + "=gzip needs the native zlib library, use deflate");
+        }
+        return codec;
+    }
+
+    // opens a file for reading, decompressed when its extension names a codec
+    public static InputStream open(Configuration conf, Path file) throws IOException {
+        InputStream in = file.getFileSystem(conf).open(file);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+        if (codec == null) {
+            return in;
+        }
+        try {
+            return codec.createInputStream(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+}
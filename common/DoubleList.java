@@ -0,0 +1,32 @@
+package common;
+
+import java.util.Arrays;
+
+/** Growable list of primitive doubles, the companion of IntList for relations and ratings
+ * */
+
+public final class DoubleList {
+
+    private double[] values = new double[16];
+    private int size;
+
+    public void add(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,60 @@
+package common;
+
+import org.apache.hadoop.io.Text;
+
+import java.util.Arrays;
+
+/** Reusable list of byte fields, for reducers that must keep values past the iterator
+ *
+ *  - Hadoop reuses the value object while iterating, so a reducer that joins two groups of values has to copy
+ *    one group out; copying into one growing byte[] (plus offsets) instead of one String per value keeps the
+ *    allocations at zero once the buffer has grown to the largest group
+ *  - clear() keeps the capacity for the next reduce() call
+ * */
+
+public final class FieldBuffer {
+
+    private byte[] bytes = new byte[256];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int used;
+    private int size;
+
+    public void clear() {
+        used = 0;
+        size = 0;
+    }
+
+    public void add(byte[] source, int start, int length) {
+        if (used + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + length));
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        System.arraycopy(source, start, bytes, used, length);
+        starts[size] = used;
+        lengths[size] = length;
+        used += length;
+        size++;
+    }
+
+    // the current field of a scanner
+    public void add(TextScanner scanner) {
+        add(scanner.bytes(), scanner.start(), scanner.length());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void copyTo(int i, Text target) {
+        target.set(bytes, starts[i], lengths[i]);
+    }
+
+    public void appendTo(int i, Text target) {
+        target.append(bytes, starts[i], lengths[i]);
+    }
+
+}
@@ -0,0 +1,45 @@
+package common;
+
+import java.util.Arrays;
+
+/** Growable list of primitive ints
+ *
+ *  - used where a task or the local engines collect ids per key: no Integer boxing, and clear() keeps the capacity
+ *    for the next key
+ * */
+
+public final class IntList {
+
+    private int[] values = new int[16];
+    private int size;
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    public void set(int i, int value) {
+        values[i] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toSortedArray() {
+        int[] copy = Arrays.copyOf(values, size);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+}
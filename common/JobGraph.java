@@ -0,0 +1,287 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Resumable pipeline: stages with declared input and output paths, run in dependency order
+ *
+ * 1. Graph
+ *  - add(name, conf, inputs, outputs, step): a stage depends on every stage that writes one of its inputs, so the
+ *    order follows from the paths; inputs no stage writes are external (raw ratings, previous runs, ...)
+ *  - stages whose dependencies are complete run concurrently, up to the configured number of threads
+ *  - a stage that fails (step returns false or throws) stops the pipeline: no new stage starts, running ones finish
+ *    and run() throws
+ *
+ * 2. Checkpoints
+ *  - after a stage succeeds, a marker _<first output name>.checkpoint is written next to its first output (hidden
+ *    from input formats) holding the stage's fingerprint:
+ *      stage name, output paths, the conf properties under the graph's key prefix (minus the ignored keys) and
+ *      path, length and modification time of every file under every input
+ *  - with resume on, a stage whose marker matches its fingerprint and whose outputs all exist is skipped; the
+ *    fingerprint is taken once its dependencies are done, so a stage that ran again invalidates everything
+ *    downstream of it (its outputs are new files)
+ *  - a stage that runs first marks its marker as running and deletes its outputs: a failed or interrupted attempt
+ *    never looks complete and jobs never hit an existing output dir
+ *  - only outputs under a marker of this graph are deleted: an existing output without a marker (a typo, another
+ *    pipeline's data) fails the stage with FileAlreadyExistsException, as it fails a plain job
+ *  - with resume off, nothing is skipped or deleted (outputs must not exist, as for a plain job); markers are still
+ *    written, so the next run can resume
+ *
+ * 3. Report
+ *  - the jobs of every stage go through the RunReport, skipped stages are listed in it by name
+ * */
+
+public class JobGraph {
+
+    // runs one stage, false when it failed; the jobs it runs go through report
+    public interface Step {
+        boolean run(RunReport report) throws Exception;
+    }
+
+    private static final class Stage {
+        final String name;
+        final Configuration conf;
+        final Path[] inputs;
+        final Path[] outputs;
+        final Step step;
+        final List<Stage> dependencies = new ArrayList<Stage>();
+
+        Stage(String name, Configuration conf, Path[] inputs, Path[] outputs, Step step) {
+            this.name = name;
+            this.conf = conf;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.step = step;
+        }
+
+        Path marker() {
+            return new Path(outputs[0].getParent(), "_" + outputs[0].getName() + ".checkpoint");
+        }
+    }
+
+    // marker content while a stage runs (fingerprints are hex md5s)
+    private static final String RUNNING = "running";
+
+    private final Configuration conf;
+    private final RunReport report;
+    private final String keyPrefix;
+    private final Set<String> ignoredKeys;
+    private final int threads;
+    private final boolean resume;
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private final Map<Path, Stage> writers = new HashMap<Path, Stage>();
+
+    // keyPrefix: conf properties that shape the outputs (e.g. "recommender."), ignoredKeys: those under it that don't
+    public JobGraph(Configuration conf, RunReport report, String keyPrefix, int threads, boolean resume,
+                    String... ignoredKeys) {
+        this.conf = conf;
+        this.report = report;
+        this.keyPrefix = keyPrefix;
+        this.ignoredKeys = new HashSet<String>(Arrays.asList(ignoredKeys));
+        this.threads = Math.max(1, threads);
+        this.resume = resume;
+    }
+
+    public void add(String name, Configuration stageConf, String[] inputs, String[] outputs, Step step) throws IOException {
+        if (outputs.length == 0) {
+            throw new IllegalArgumentException("stage " + name + " has no output");
+        }
+        Stage stage = new Stage(name, stageConf, qualify(inputs), qualify(outputs), step);
+        for (Path input : stage.inputs) {
+            Stage writer = writers.get(input);
+            if (writer != null && !stage.dependencies.contains(writer)) {
+                stage.dependencies.add(writer);
+            }
+        }
+        for (Path output : stage.outputs) {
+            if (writers.put(output, stage) != null) {
+                throw new IllegalArgumentException("two stages write " + output);
+            }
+        }
+        stages.add(stage); // dependencies are added first: stages is in a valid order
+    }
+
+    public void run() throws Exception {
+        Set<Stage> done = new HashSet<Stage>();
+        Set<Stage> started = new HashSet<Stage>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(pool);
+        Map<Future<Boolean>, Stage> running = new HashMap<Future<Boolean>, Stage>();
+        String failed = null;
+        Exception error = null;
+        try {
+            while (true) {
+                if (failed == null) {
+                    for (final Stage stage : stages) {
+                        if (!started.contains(stage) && done.containsAll(stage.dependencies)) {
+                            started.add(stage);
+                            running.put(completion.submit(new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() throws Exception {
+                                    return runStage(stage);
+                                }
+                            }), stage);
+                        }
+                    }
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                Future<Boolean> future = completion.take();
+                Stage stage = running.remove(future);
+                try {
+                    if (future.get()) {
+                        done.add(stage);
+                    } else if (failed == null) {
+                        failed = stage.name;
+                    }
+                } catch (ExecutionException e) {
+                    if (failed == null) {
+                        failed = stage.name;
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (failed != null) {
+            throw new IOException("stage failed: " + failed);
+        }
+    }
+
+    private boolean runStage(Stage stage) throws Exception {
+        String fingerprint = fingerprint(stage);
+        FileSystem fs = stage.marker().getFileSystem(conf);
+        if (resume && complete(stage, fingerprint)) {
+            report.skip(stage.name);
+            return true;
+        }
+        if (resume) {
+            boolean owned = fs.exists(stage.marker());
+            for (Path output : stage.outputs) {
+                if (!owned && output.getFileSystem(conf).exists(output)) {
+                    // not written by this graph (no marker): a plain job would fail on it, so does the stage
+                    throw new FileAlreadyExistsException("Output directory " + output
+                            + " already exists and has no checkpoint marker " + stage.marker());
+                }
+            }
+            // the marker stays while the stage runs, with a fingerprint that never matches: outputs of an interrupted
+            // attempt are still known as this graph's
+            Writer out = new OutputStreamWriter(fs.create(stage.marker(), true), StandardCharsets.UTF_8);
+            try {
+                out.write(RUNNING);
+                out.write('\n');
+            } finally {
+                out.close();
+            }
+            for (Path output : stage.outputs) {
+                output.getFileSystem(conf).delete(output, true);
+            }
+        }
+        if (!stage.step.run(report)) {
+            return false;
+        }
+        Writer out = new OutputStreamWriter(fs.create(stage.marker(), true), StandardCharsets.UTF_8);
+        try {
+            out.write(fingerprint);
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    private boolean complete(Stage stage, String fingerprint) throws IOException {
+        FileSystem fs = stage.marker().getFileSystem(conf);
+        if (!fs.exists(stage.marker())) {
+            return false;
+        }
+        for (Path output : stage.outputs) {
+            if (!output.getFileSystem(conf).exists(output)) {
+                return false;
+            }
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(stage.marker()), StandardCharsets.UTF_8));
+        try {
+            return fingerprint.equals(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String fingerprint(Stage stage) throws IOException {
+        StringBuilder description = new StringBuilder(stage.name).append('\n');
+        for (Path output : stage.outputs) {
+            description.append("output ").append(output).append('\n');
+        }
+        Map<String, String> properties = new TreeMap<String, String>();
+        for (Map.Entry<String, String> property : stage.conf) {
+            if (property.getKey().startsWith(keyPrefix) && !ignoredKeys.contains(property.getKey())) {
+                properties.put(property.getKey(), property.getValue());
+            }
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            description.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+        }
+        for (Path input : stage.inputs) {
+            description.append("input ").append(input).append('\n');
+            FileSystem fs = input.getFileSystem(conf);
+            if (!fs.exists(input)) {
+                continue;
+            }
+            List<String> files = new ArrayList<String>(); // listing order is up to the file system
+            RemoteIterator<LocatedFileStatus> listing = fs.listFiles(input, true);
+            while (listing.hasNext()) {
+                LocatedFileStatus file = listing.next();
+                files.add(file.getPath() + " " + file.getLen() + " " + file.getModificationTime());
+            }
+            Collections.sort(files);
+            for (String file : files) {
+                description.append(file).append('\n');
+            }
+        }
+        return MD5Hash.digest(description.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private Path[] qualify(String[] paths) throws IOException {
+        Path[] qualified = new Path[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            Path path = new Path(paths[i]);
+            qualified[i] = path.getFileSystem(conf).makeQualified(path);
+        }
+        return qualified;
+    }
+
+}
@@ -0,0 +1,86 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/** Helpers shared by the in-memory engines (recommender.LocalEngine, pagerank.LocalEngine) and by the code that reads
+ *  job output files itself
+ *
+ *  - listInputFiles: the data files of a job output dir, or the file itself
+ *  - indexOf: dense int ids in first-seen order
+ *  - balancedRanges + invokeAll: split a CSR over the worker threads and wait for them
+ * */
+
+public final class LocalTasks {
+
+    private LocalTasks() {
+    }
+
+    // a path can be a single file or a job output dir; skip _SUCCESS, _logs, .crc and friends
+    public static List<Path> listInputFiles(Path input, Configuration conf) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        List<Path> files = new ArrayList<Path>();
+        for (FileStatus status : fs.listStatus(input)) {
+            String name = status.getPath().getName();
+            if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(status.getPath());
+            }
+        }
+        return files;
+    }
+
+    // index of id, the next free index when it is new
+    public static int indexOf(Map<String, Integer> index, String id) {
+        Integer i = index.get(id);
+        if (i == null) {
+            i = index.size();
+            index.put(id, i);
+        }
+        return i;
+    }
+
+    // split rows [0, rows) into at most parts contiguous ranges with about the same number of entries each;
+    // the entries of row r are [start[r], start[r + 1]) (CSR offsets), range p is [ranges[p], ranges[p + 1])
+    public static int[] balancedRanges(int[] start, int rows, int parts) {
+        parts = Math.max(1, Math.min(parts, rows));
+        int[] ranges = new int[parts + 1];
+        long total = start[rows];
+        int row = 0;
+        for (int p = 1; p < parts; p++) {
+            long target = total * p / parts;
+            while (row < rows && start[row] < target) {
+                row++;
+            }
+            ranges[p] = row;
+        }
+        ranges[parts] = rows;
+        return ranges;
+    }
+
+    // runs the tasks and waits for all of them; the first failure is rethrown as an IOException
+    public static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks)
+            throws IOException, InterruptedException {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,613 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs a configured Job in this JVM on a thread pool, with an in-memory shuffle instead of submitting it
+ *
+ * 1. What runs
+ *  - the job's own input format, mapper, partitioner, sort/grouping comparators, combiner, reducer, output format
+ *    and output committer: any job built by a createJob(conf, args) runs unchanged (MultipleInputs,
+ *    MultipleOutputs, cache files and secondary sort included)
+ *  - LocalJobRunner runs the reduce side in one task and spills every map output to disk; here map tasks and reduce
+ *    partitions run side by side and nothing leaves the heap, so this is for inputs that fit in memory (developer
+ *    and CI runs)
+ *
+ * 2. Map
+ *  - one map task per input split; splits are at most SPLIT_BYTES unless the job sets a max split size, so a single
+ *    large file still feeds every thread
+ *  - map output is serialized into one run per reduce partition (the job's partitioner); when the task ends every
+ *    run is sorted with the job's sort comparator (stable merge sort over record indexes) and combined when the job
+ *    has a combiner
+ *  - map-only jobs write straight to the output format, as part-m-NNNNN
+ *
+ * 3. Shuffle and reduce
+ *  - one reduce task per partition: the sorted runs of all map tasks are merged (k-way, ties in map task order) and
+ *    grouped with the job's grouping comparator by Hadoop's ReduceContextImpl, so reducers see the same reused
+ *    key/value objects and groups as in a cluster
+ *  - partitions: one per thread, unless the job sets its number of reduce tasks itself (IdDictionary numbers ids in
+ *    one reducer) or it is passed as -Dmapreduce.job.reduces
+ *
+ * 4. Output and counters
+ *  - the committer is driven like in a cluster: setupJob, setupTask/commitTask per task, commitJob (_SUCCESS); a
+ *    failed task aborts the job and run() throws its exception
+ *  - counters: map input/output records and bytes, combine input/output records, reduce input groups/records and
+ *    output records (TaskCounter), plus every counter the tasks publish (StageCounter, ValuesPerKey)
+ * */
+
+public class ParallelJobRunner {
+
+    public static final long SPLIT_BYTES = 16L << 20;
+
+    private static final String ID_PREFIX = "parallel" + System.currentTimeMillis();
+    private static final AtomicInteger JOBS = new AtomicInteger();
+
+    private final int threads;
+
+    public ParallelJobRunner(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public static JobID newJobId() {
+        return new JobID(ID_PREFIX, JOBS.incrementAndGet());
+    }
+
+    // runs job to completion, adds its counters to counters; throws when a task failed
+    public void run(Job job, final JobID jobId, Counters counters) throws IOException, InterruptedException {
+        final JobConf conf = new JobConf(job.getConfiguration());
+        if (conf.get(FileInputFormat.SPLIT_MAXSIZE) == null) {
+            conf.setLong(FileInputFormat.SPLIT_MAXSIZE, SPLIT_BYTES);
+        }
+        final int partitions = conf.getNumReduceTasks() == 0 ? 0 : isDefault(conf, MRJobConfig.NUM_REDUCES) ? threads
+                : conf.getNumReduceTasks();
+        conf.setNumReduceTasks(partitions);
+
+        JobContext jobContext = new JobContextImpl(conf, jobId);
+        final InputFormat<?, ?> inputFormat;
+        final Class<? extends OutputFormat<?, ?>> outputFormatClass; // an instance per task: it caches its committer
+        try {
+            inputFormat = ReflectionUtils.newInstance(jobContext.getInputFormatClass(), conf);
+            outputFormatClass = jobContext.getOutputFormatClass();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        OutputFormat<?, ?> outputFormat = ReflectionUtils.newInstance(outputFormatClass, conf);
+        outputFormat.checkOutputSpecs(jobContext);
+        List<InputSplit> splits = inputFormat.getSplits(jobContext);
+
+        OutputCommitter committer = outputFormat.getOutputCommitter(
+                new TaskAttemptContextImpl(conf, attempt(jobId, TaskType.JOB_SETUP, 0)));
+        committer.setupJob(jobContext);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Run[]> mapRuns = new ArrayList<Run[]>();
+            List<Callable<Counters>> maps = new ArrayList<Callable<Counters>>();
+            for (int i = 0; i < splits.size(); i++) {
+                final int task = i;
+                final InputSplit split = splits.get(i);
+                final Run[] runs = new Run[partitions];
+                mapRuns.add(runs);
+                maps.add(new Callable<Counters>() {
+                    @Override
+                    public Counters call() throws Exception {
+                        return runMap(conf, attempt(jobId, TaskType.MAP, task), split, inputFormat, outputFormatClass, runs);
+                    }
+                });
+            }
+            invokeAll(pool, maps, counters);
+
+            List<Callable<Counters>> reduces = new ArrayList<Callable<Counters>>();
+            for (int p = 0; p < partitions; p++) {
+                final int partition = p;
+                reduces.add(new Callable<Counters>() {
+                    @Override
+                    public Counters call() throws Exception {
+                        List<Run> runs = new ArrayList<Run>();
+                        for (Run[] taskRuns : mapRuns) {
+                            runs.add(taskRuns[partition]);
+                            taskRuns[partition] = null; // the partition is only read once
+                        }
+                        return runReduce(conf, attempt(jobId, TaskType.REDUCE, partition), runs, outputFormatClass);
+                    }
+                });
+            }
+            invokeAll(pool, reduces, counters);
+
+            committer.commitJob(jobContext);
+        } catch (IOException e) {
+            committer.abortJob(jobContext, JobStatus.State.FAILED);
+            throw e;
+        } catch (InterruptedException e) {
+            committer.abortJob(jobContext, JobStatus.State.KILLED);
+            throw e;
+        } catch (RuntimeException e) {
+            committer.abortJob(jobContext, JobStatus.State.FAILED);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Counters runMap(JobConf jobConf, TaskAttemptID attempt, InputSplit split, InputFormat inputFormat,
+                                   Class<? extends OutputFormat> outputFormatClass, Run[] runs) throws Exception {
+        JobConf conf = new JobConf(jobConf); // tasks may write to their conf
+        TaskReporter reporter = new TaskReporter();
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, attempt, reporter);
+        OutputFormat outputFormat = ReflectionUtils.newInstance(outputFormatClass, conf);
+        OutputCommitter committer = outputFormat.getOutputCommitter(context);
+        committer.setupTask(context);
+        try {
+            RecordReader reader = new CountingReader(inputFormat.createRecordReader(split, context),
+                    reporter.getCounter(TaskCounter.MAP_INPUT_RECORDS));
+            reader.initialize(split, context);
+
+            Collector collector = null;
+            RecordWriter output;
+            if (runs.length == 0) {
+                output = new CountingWriter(outputFormat.getRecordWriter(context),
+                        reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS));
+            } else {
+                output = collector = new Collector(context, runs.length, reporter);
+            }
+
+            Mapper mapper = ReflectionUtils.newInstance(context.getMapperClass(), conf);
+            MapContextImpl mapContext = new MapContextImpl(conf, attempt, reader, output, committer, reporter, split);
+            mapper.run(new WrappedMapper().getMapContext(mapContext));
+            reader.close();
+            output.close(context);
+
+            if (collector != null) {
+                collector.finish(context, committer, reporter, runs);
+            }
+            if (committer.needsTaskCommit(context)) {
+                committer.commitTask(context);
+            }
+        } catch (Exception e) {
+            committer.abortTask(context);
+            throw e;
+        }
+        return reporter.counters;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Counters runReduce(JobConf jobConf, TaskAttemptID attempt, List<Run> runs,
+                                      Class<? extends OutputFormat> outputFormatClass) throws Exception {
+        JobConf conf = new JobConf(jobConf);
+        TaskReporter reporter = new TaskReporter();
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, attempt, reporter);
+        OutputFormat outputFormat = ReflectionUtils.newInstance(outputFormatClass, conf);
+        OutputCommitter committer = outputFormat.getOutputCommitter(context);
+        committer.setupTask(context);
+        try {
+            RecordWriter output = new CountingWriter(outputFormat.getRecordWriter(context),
+                    reporter.getCounter(TaskCounter.REDUCE_OUTPUT_RECORDS));
+            RawComparator sortComparator = context.getSortComparator();
+            Reducer reducer = ReflectionUtils.newInstance(context.getReducerClass(), conf);
+            ReduceContextImpl reduceContext = new ReduceContextImpl(conf, attempt, new Merge(runs, sortComparator),
+                    reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+                    reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS), output, committer, reporter,
+                    context.getGroupingComparator(), context.getMapOutputKeyClass(), context.getMapOutputValueClass());
+            reducer.run(new WrappedReducer().getReducerContext(reduceContext));
+            output.close(context);
+
+            if (committer.needsTaskCommit(context)) {
+                committer.commitTask(context);
+            }
+        } catch (Exception e) {
+            committer.abortTask(context);
+            throw e;
+        }
+        return reporter.counters;
+    }
+
+    // map output of one task: a run per partition, sorted (and combined) when the task ends
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final class Collector extends RecordWriter {
+
+        private final Partitioner partitioner;
+        private final Run[] runs;
+        private final Counter records;
+        private final Counter bytes;
+
+        Collector(TaskAttemptContext context, int partitions, TaskReporter reporter)
+                throws IOException, ClassNotFoundException {
+            this.partitioner = partitions == 1 ? null : ReflectionUtils.newInstance(context.getPartitionerClass(),
+                    context.getConfiguration());
+            this.runs = new Run[partitions];
+            for (int p = 0; p < partitions; p++) {
+                runs[p] = new Run(context.getConfiguration(), context.getMapOutputKeyClass(),
+                        context.getMapOutputValueClass());
+            }
+            this.records = reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS);
+            this.bytes = reporter.getCounter(TaskCounter.MAP_OUTPUT_BYTES);
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException {
+            int partition = partitioner == null ? 0 : partitioner.getPartition(key, value, runs.length);
+            if (partition < 0 || partition >= runs.length) {
+                throw new IOException("illegal partition for " + key + ": " + partition);
+            }
+            bytes.increment(runs[partition].add(key, value));
+            records.increment(1);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+
+        // sorts every run and runs the combiner over it; the results go to out
+        void finish(TaskAttemptContext context, OutputCommitter committer, TaskReporter reporter, Run[] out)
+                throws IOException, InterruptedException, ClassNotFoundException {
+            RawComparator sortComparator = context.getSortComparator();
+            Class<? extends Reducer> combinerClass = context.getCombinerClass();
+            for (int p = 0; p < runs.length; p++) {
+                Run run = runs[p].sort(sortComparator);
+                if (combinerClass != null && run.size > 0) {
+                    Configuration conf = context.getConfiguration();
+                    Run combined = new Run(conf, context.getMapOutputKeyClass(), context.getMapOutputValueClass());
+                    Reducer combiner = ReflectionUtils.newInstance(combinerClass, conf);
+                    ReduceContextImpl combineContext = new ReduceContextImpl(conf, context.getTaskAttemptID(),
+                            new Merge(Collections.singletonList(run), sortComparator),
+                            new Counters().findCounter("combine", "keys"), // no task counter for combine groups
+                            reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS),
+                            new CountingWriter(combined, reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS)),
+                            committer, reporter, context.getCombinerKeyGroupingComparator(),
+                            context.getMapOutputKeyClass(), context.getMapOutputValueClass());
+                    combiner.run(new WrappedReducer().getReducerContext(combineContext));
+                    run = combined.sort(sortComparator);
+                }
+                out[p] = run;
+                runs[p] = null;
+            }
+        }
+    }
+
+    // serialized records: record i is key [starts[i], splits[i]), value [splits[i], ends[i]) of buffer
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final class Run extends RecordWriter {
+
+        private final DataOutputBuffer buffer = new DataOutputBuffer();
+        private final Serializer keySerializer;
+        private final Serializer valueSerializer;
+        private int[] starts = new int[64];
+        private int[] splits = new int[64];
+        private int[] ends = new int[64];
+        private int size;
+        private int[] order;
+
+        Run(Configuration conf, Class<?> keyClass, Class<?> valueClass) throws IOException {
+            SerializationFactory serialization = new SerializationFactory(conf);
+            keySerializer = serialization.getSerializer(keyClass);
+            keySerializer.open(buffer);
+            valueSerializer = serialization.getSerializer(valueClass);
+            valueSerializer.open(buffer);
+        }
+
+        // returns the serialized size
+        int add(Object key, Object value) throws IOException {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                splits = Arrays.copyOf(splits, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = buffer.getLength();
+            keySerializer.serialize(key);
+            splits[size] = buffer.getLength();
+            valueSerializer.serialize(value);
+            ends[size] = buffer.getLength();
+            size++;
+            return ends[size - 1] - starts[size - 1];
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException {
+            add(key, value);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+
+        int compare(RawComparator comparator, int a, Run other, int b) {
+            return comparator.compare(buffer.getData(), starts[a], splits[a] - starts[a],
+                    other.buffer.getData(), other.starts[b], other.splits[b] - other.starts[b]);
+        }
+
+        // stable bottom-up merge sort of the record indexes
+        Run sort(RawComparator comparator) {
+            int[] sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = i;
+            }
+            int[] scratch = new int[size];
+            for (int width = 1; width < size; width *= 2) {
+                for (int from = 0; from < size; from += 2 * width) {
+                    int middle = Math.min(from + width, size);
+                    int to = Math.min(from + 2 * width, size);
+                    int left = from;
+                    int right = middle;
+                    int i = from;
+                    while (left < middle && right < to) {
+                        scratch[i++] = compare(comparator, sorted[right], this, sorted[left]) < 0
+                                ? sorted[right++] : sorted[left++];
+                    }
+                    while (left < middle) {
+                        scratch[i++] = sorted[left++];
+                    }
+                    while (right < to) {
+                        scratch[i++] = sorted[right++];
+                    }
+                }
+                int[] swap = sorted;
+                sorted = scratch;
+                scratch = swap;
+            }
+            order = sorted;
+            return this;
+        }
+    }
+
+    // k-way merge of sorted runs; equal keys come in run order
+    @SuppressWarnings("rawtypes")
+    private static final class Merge implements RawKeyValueIterator {
+
+        private static final class Cursor {
+            final Run run;
+            final int index;
+            int position;
+
+            Cursor(Run run, int index) {
+                this.run = run;
+                this.index = index;
+            }
+
+            int record() {
+                return run.order[position];
+            }
+        }
+
+        private final PriorityQueue<Cursor> heap;
+        private final DataInputBuffer key = new DataInputBuffer();
+        private final DataInputBuffer value = new DataInputBuffer();
+        private final Progress progress = new Progress();
+        private Cursor current;
+
+        Merge(List<Run> runs, final RawComparator comparator) {
+            heap = new PriorityQueue<Cursor>(Math.max(1, runs.size()), new Comparator<Cursor>() {
+                @Override
+                public int compare(Cursor a, Cursor b) {
+                    int c = a.run.compare(comparator, a.record(), b.run, b.record());
+                    return c != 0 ? c : a.index - b.index;
+                }
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                if (runs.get(i).size > 0) {
+                    heap.add(new Cursor(runs.get(i), i));
+                }
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (current != null && ++current.position < current.run.size) {
+                heap.add(current);
+            }
+            current = heap.poll();
+            if (current == null) {
+                return false;
+            }
+            Run run = current.run;
+            int i = current.record();
+            key.reset(run.buffer.getData(), run.starts[i], run.splits[i] - run.starts[i]);
+            value.reset(run.buffer.getData(), run.splits[i], run.ends[i] - run.splits[i]);
+            return true;
+        }
+
+        @Override
+        public DataInputBuffer getKey() {
+            return key;
+        }
+
+        @Override
+        public DataInputBuffer getValue() {
+            return value;
+        }
+
+        @Override
+        public Progress getProgress() {
+            return progress;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final class CountingReader extends RecordReader {
+
+        private final RecordReader reader;
+        private final Counter records;
+
+        CountingReader(RecordReader reader, Counter records) {
+            this.reader = reader;
+            this.records = records;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            reader.initialize(split, context);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            if (!reader.nextKeyValue()) {
+                return false;
+            }
+            records.increment(1);
+            return true;
+        }
+
+        @Override
+        public Object getCurrentKey() throws IOException, InterruptedException {
+            return reader.getCurrentKey();
+        }
+
+        @Override
+        public Object getCurrentValue() throws IOException, InterruptedException {
+            return reader.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final class CountingWriter extends RecordWriter {
+
+        private final RecordWriter writer;
+        private final Counter records;
+
+        CountingWriter(RecordWriter writer, Counter records) {
+            this.writer = writer;
+            this.records = records;
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException, InterruptedException {
+            writer.write(key, value);
+            records.increment(1);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+            writer.close(context);
+        }
+    }
+
+    // counters of one task, added to the job's when the task is done
+    private static final class TaskReporter extends StatusReporter {
+
+        final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+
+    private static TaskAttemptID attempt(JobID jobId, TaskType type, int task) {
+        return new TaskAttemptID(new TaskID(jobId, type, task), 0);
+    }
+
+    // true when key only has its value from the *-default.xml files
+    private static boolean isDefault(Configuration conf, String key) {
+        String[] sources = conf.getPropertySources(key);
+        if (sources == null) {
+            return true;
+        }
+        for (String source : sources) {
+            if (!source.endsWith("-default.xml")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Counters>> tasks, Counters counters)
+            throws IOException, InterruptedException {
+        for (Future<Counters> future : pool.invokeAll(tasks)) {
+            try {
+                counters.incrAllCounters(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+}
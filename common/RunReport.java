@@ -0,0 +1,310 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/** Run report of a driver: every job it ran, with wall time and counters, as one JSON document
+ *
+ * 1. Collecting
+ *  - the driver runs each job through run(job) instead of job.waitForCompletion(true); run() times the job and keeps
+ *    its counters, finish() records the total time and whether the pipeline got through
+ *  - runIn(runner): run() executes the jobs in this JVM with a ParallelJobRunner; a job that fails there throws
+ *
+ * 2. Per stage
+ *  - name:             Enclosing.ReducerClass (Enclosing.MapperClass for map-only jobs)
+ *  - seconds:          wall time of waitForCompletion, submission included
+ *  - recordsIn:        map input records;  recordsOut: reduce output records (map output for map-only jobs)
+ *  - shuffledRecords, shuffledBytes: map output records and bytes, before the combiner (0 for map-only jobs)
+ *  - outputBytes:      size of the output dir
+ *  - shuffleCompression: map output bytes / bytes materialized for the shuffle, 1 without map output compression
+ *    (or on ParallelJobRunner, which keeps map output in memory)
+ *  - outputCompression: uncompressed / stored bytes of the output's text files, 1 without output compression;
+ *    estimated from the first 8 MB (uncompressed) of the output, read back through its codec, so a large output
+ *    costs no more than a small one; block-compressed SequenceFiles count as stored
+ *  - malformedLines, pairsEmitted, deadEnds: see StageCounter
+ *  - maxValuesPerKey:  upper bound of the largest reduce group, from the ValuesPerKey histogram (0 if not published)
+ *  - counters:         every counter of the job, {group: {counter: value}}
+ *
+ * 3. Writing
+ *  - skipped: names of the pipeline stages that were up to date and did not run (see JobGraph)
+ *  - write(conf, file): the JSON document to a Hadoop path; the drivers do it when -Drecommender.report=file or
+ *    -Dpagerank.report=file is set, also after a failed job
+ * */
+
+public class RunReport {
+
+    // outputCompression reads back at most this much uncompressed output per stage
+    static final long OUTPUT_SAMPLE_BYTES = 8L << 20;
+
+    public static class Stage {
+        public final String name;
+        public final String jobId;
+        public final boolean succeeded;
+        public final double seconds;
+        public final long recordsIn;
+        public final long recordsOut;
+        public final long shuffledRecords;
+        public final long shuffledBytes;
+        public final long outputBytes;
+        public final long maxValuesPerKey;
+        public final double shuffleCompression;
+        public final double outputCompression;
+        public final Counters counters;
+
+        Stage(Job job, String jobId, boolean succeeded, double seconds, Counters jobCounters)
+                throws IOException, ClassNotFoundException {
+            Class<?> taskClass = Reducer.class.equals(job.getReducerClass()) ? job.getMapperClass() : job.getReducerClass();
+            this.name = taskClass.getName().substring(taskClass.getName().lastIndexOf('.') + 1).replace('$', '.');
+            this.jobId = jobId;
+            this.succeeded = succeeded;
+            this.seconds = seconds;
+            this.counters = jobCounters == null ? new Counters() : jobCounters; // none for a failed or retired job
+            this.recordsIn = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+            boolean mapOnly = job.getNumReduceTasks() == 0;
+            long mapOutputRecords = counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+            this.shuffledRecords = mapOnly ? 0 : mapOutputRecords;
+            this.shuffledBytes = mapOnly ? 0 : counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+            long materializedBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+            this.shuffleCompression = !mapOnly && materializedBytes > 0
+                    && job.getConfiguration().getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false)
+                    ? (double) shuffledBytes / materializedBytes : 1;
+            this.recordsOut = mapOnly ? mapOutputRecords
+                    : counters.findCounter(TaskCounter.REDUCE_OUTPUT_RECORDS).getValue();
+
+            long max = 0;
+            for (Counter bucket : counters.getGroup(ValuesPerKey.GROUP)) {
+                if (bucket.getValue() > 0) {
+                    max = Math.max(max, ValuesPerKey.upperBound(bucket.getName()));
+                }
+            }
+            this.maxValuesPerKey = max;
+
+            Path output = FileOutputFormat.getOutputPath(job);
+            long bytes = 0;
+            if (output != null) {
+                FileSystem fs = output.getFileSystem(job.getConfiguration());
+                bytes = fs.exists(output) ? fs.getContentSummary(output).getLength() : 0;
+            }
+            this.outputBytes = bytes;
+            this.outputCompression = output != null && FileOutputFormat.getCompressOutput(job)
+                    ? outputCompression(job.getConfiguration(), output) : 1;
+        }
+
+        // uncompressed / stored bytes of the first OUTPUT_SAMPLE_BYTES (uncompressed) of the output
+        private static double outputCompression(Configuration conf, Path output) throws IOException {
+            FileSystem fs = output.getFileSystem(conf);
+            if (!fs.exists(output)) {
+                return 1;
+            }
+            CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+            long stored = 0;
+            long uncompressed = 0;
+            byte[] buffer = new byte[1 << 16];
+            RemoteIterator<LocatedFileStatus> files = fs.listFiles(output, true);
+            while (files.hasNext() && uncompressed < OUTPUT_SAMPLE_BYTES) {
+                LocatedFileStatus file = files.next();
+                CompressionCodec codec = codecs.getCodec(file.getPath());
+                if (codec == null) { // plain or block-compressed SequenceFile: counts as stored
+                    stored += file.getLen();
+                    uncompressed += file.getLen();
+                    continue;
+                }
+                FSDataInputStream raw = fs.open(file.getPath());
+                InputStream in = codec.createInputStream(raw);
+                try {
+                    int n;
+                    while (uncompressed < OUTPUT_SAMPLE_BYTES && (n = in.read(buffer)) > 0) {
+                        uncompressed += n;
+                    }
+                    stored += raw.getPos(); // compressed bytes consumed, the whole file once it is read to the end
+                } finally {
+                    in.close();
+                }
+            }
+            return stored == 0 ? 1 : (double) uncompressed / stored;
+        }
+
+        public long counter(Enum<?> key) {
+            return counters.findCounter(key).getValue();
+        }
+    }
+
+    private final String pipeline;
+    private final String[] args;
+    private final long startMillis = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private final List<String> skipped = new ArrayList<String>();
+    private double seconds;
+    private boolean succeeded;
+    private ParallelJobRunner runner;
+
+    public RunReport(String pipeline, String[] args) {
+        this.pipeline = pipeline;
+        this.args = args;
+    }
+
+    // run() executes the jobs with runner in this JVM instead of submitting them
+    public RunReport runIn(ParallelJobRunner runner) {
+        this.runner = runner;
+        return this;
+    }
+
+    // waits for job and records it; false when the job failed. Jobs may run concurrently (see JobGraph)
+    public boolean run(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+        long jobStart = System.nanoTime();
+        if (runner == null) {
+            boolean jobSucceeded = job.waitForCompletion(true);
+            add(new Stage(job, String.valueOf(job.getJobID()), jobSucceeded, (System.nanoTime() - jobStart) / 1e9,
+                    job.getCounters()));
+            return jobSucceeded;
+        }
+
+        JobID jobId = ParallelJobRunner.newJobId();
+        Counters counters = new Counters();
+        boolean jobSucceeded = false;
+        try {
+            runner.run(job, jobId, counters);
+            jobSucceeded = true;
+        } finally { // a failed task throws: recorded, then passed on
+            add(new Stage(job, String.valueOf(jobId), jobSucceeded, (System.nanoTime() - jobStart) / 1e9, counters));
+        }
+        return true;
+    }
+
+    private void add(Stage stage) {
+        synchronized (stages) {
+            stages.add(stage);
+        }
+    }
+
+    // a pipeline stage that was not run because its outputs were up to date
+    public void skip(String stage) {
+        synchronized (skipped) {
+            skipped.add(stage);
+        }
+    }
+
+    public void finish(boolean pipelineSucceeded) {
+        seconds = (System.nanoTime() - start) / 1e9;
+        succeeded = pipelineSucceeded;
+    }
+
+    public List<Stage> stages() {
+        return stages;
+    }
+
+    public List<String> skipped() {
+        return skipped;
+    }
+
+    public double seconds() {
+        return seconds;
+    }
+
+    public void write(Configuration conf, Path file) throws IOException {
+        Writer out = new OutputStreamWriter(file.getFileSystem(conf).create(file, true), StandardCharsets.UTF_8);
+        try {
+            out.write(toJson());
+        } finally {
+            out.close();
+        }
+    }
+
+    public String toJson() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"pipeline\": ").append(quote(pipeline));
+        json.append(",\n  \"args\": [");
+        for (int i = 0; i < args.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(args[i]));
+        }
+        json.append("],\n  \"started\": ").append(quote(iso.format(new Date(startMillis))));
+        json.append(",\n  \"seconds\": ").append(seconds);
+        json.append(",\n  \"succeeded\": ").append(succeeded);
+        json.append(",\n  \"skipped\": [");
+        for (int i = 0; i < skipped.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(skipped.get(i)));
+        }
+        json.append("]");
+        json.append(",\n  \"stages\": [");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quote(stage.name));
+            json.append(", \"jobId\": ").append(quote(stage.jobId));
+            json.append(", \"succeeded\": ").append(stage.succeeded);
+            json.append(", \"seconds\": ").append(stage.seconds);
+            json.append(",\n     \"recordsIn\": ").append(stage.recordsIn);
+            json.append(", \"recordsOut\": ").append(stage.recordsOut);
+            json.append(", \"shuffledRecords\": ").append(stage.shuffledRecords);
+            json.append(", \"shuffledBytes\": ").append(stage.shuffledBytes);
+            json.append(", \"outputBytes\": ").append(stage.outputBytes);
+            json.append(", \"shuffleCompression\": ").append(stage.shuffleCompression);
+            json.append(", \"outputCompression\": ").append(stage.outputCompression);
+            json.append(",\n     \"malformedLines\": ").append(stage.counter(StageCounter.MALFORMED_LINES));
+            json.append(", \"pairsEmitted\": ").append(stage.counter(StageCounter.PAIRS_EMITTED));
+            json.append(", \"deadEnds\": ").append(stage.counter(StageCounter.DEAD_ENDS));
+            json.append(", \"maxValuesPerKey\": ").append(stage.maxValuesPerKey);
+            json.append(",\n     \"counters\": {");
+            boolean firstGroup = true;
+            for (CounterGroup group : stage.counters) {
+                json.append(firstGroup ? "\n" : ",\n").append("       ").append(quote(group.getName())).append(": {");
+                boolean firstCounter = true;
+                for (Counter counter : group) {
+                    json.append(firstCounter ? "" : ", ").append(quote(counter.getName())).append(": ").append(counter.getValue());
+                    firstCounter = false;
+                }
+                json.append("}");
+                firstGroup = false;
+            }
+            json.append(firstGroup ? "}}" : "\n     }}");
+        }
+        json.append(stages.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
@@ -0,0 +1,16 @@
+package common;
+
+/** Custom counters published by the recommender and pagerank jobs (group: common.StageCounter)
+ *
+ *  - MALFORMED_LINES: input lines a mapper skipped because they do not have the expected fields
+ *  - PAIRS_EMITTED:   movie1:movie2 co-occurrence pairs generated by the co-occurrence mappers, before the combiner;
+ *                     grows with the square of the user history length
+ *  - DEAD_ENDS:       pages without outgoing links in the transition matrix
+ *  - records in/out and shuffled bytes are Hadoop's own task counters; RunReport puts them next to these
+ * */
+
+public enum StageCounter {
+    MALFORMED_LINES,
+    PAIRS_EMITTED,
+    DEAD_ENDS
+}
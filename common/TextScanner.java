@@ -0,0 +1,230 @@
+package common;
+
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+
+/** Field scanner over the bytes of a Text, shared by the recommender and pagerank jobs
+ *
+ *  - value.toString().trim().split(",") decodes the line into a String, then allocates one String per field and
+ *    an array, for every record; this scanner walks Text.getBytes() in place and keeps only two ints per field
+ *  - one instance per mapper/reducer, reset() for every record:
+ *        scanner.reset(value);
+ *        scanner.next(',');  int user = scanner.parseInt();
+ *        scanner.next(',');  scanner.copyTo(movie);
+ *        scanner.next(',');  double rating = scanner.parseDouble();
+ *  - reset() and next() trim spaces and tabs around the line and around every field, like trim() + split()
+ *  - parseDouble(): plain decimals of up to 15 significant digits (ratings, counts, rounded page ranks) are parsed
+ *    exactly without allocating; longer ones (e.g. Double.toString of a relation) and exponents go through
+ *    Double.parseDouble on a String, so the result is always the correctly rounded double
+ *  - append(), appendInt(): delimiters and counts go into a reused output Text without a String
+ *  - the delimiters must be ASCII, so that they never match a byte inside a multi-byte UTF-8 character
+ * */
+
+public final class TextScanner {
+
+    private static final double[] POW10 = new double[23]; // 10^0 .. 10^22 are exact doubles
+    private static final byte[][] ASCII = new byte[128][];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+        for (int c = 0; c < ASCII.length; c++) {
+            ASCII[c] = new byte[] {(byte) c};
+        }
+    }
+
+    private byte[] bytes;
+    private int pos; // next unread byte; end + 1 once the last field was read
+    private int end;
+    private int start; // current field: [start, start + length)
+    private int length;
+
+    public TextScanner reset(Text text) {
+        return reset(text.getBytes(), 0, text.getLength());
+    }
+
+    public TextScanner reset(byte[] bytes, int from, int to) {
+        while (from < to && isBlank(bytes[from])) {
+            from++;
+        }
+        while (to > from && isBlank(bytes[to - 1])) {
+            to--;
+        }
+        this.bytes = bytes;
+        this.pos = from;
+        this.end = to;
+        this.start = from;
+        this.length = 0;
+        return this;
+    }
+
+    // moves to the next field ending at delimiter (or at the end of the line); false when the line is used up
+    public boolean next(char delimiter) {
+        if (pos > end) {
+            return false;
+        }
+        int i = pos;
+        while (i < end && bytes[i] != delimiter) {
+            i++;
+        }
+        int from = pos;
+        int to = i;
+        pos = i + 1;
+        while (from < to && isBlank(bytes[from])) {
+            from++;
+        }
+        while (to > from && isBlank(bytes[to - 1])) {
+            to--;
+        }
+        start = from;
+        length = to - from;
+        return true;
+    }
+
+    // number of fields left, as split(delimiter) would count them (without consuming them)
+    public int remaining(char delimiter) {
+        if (pos > end) {
+            return 0;
+        }
+        int fields = 1;
+        for (int i = pos; i < end; i++) {
+            if (bytes[i] == delimiter) {
+                fields++;
+            }
+        }
+        return fields;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    // position of c in bytes(), inside the current field, or -1
+    public int indexOf(char c) {
+        for (int i = start; i < start + length; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void copyTo(Text target) {
+        target.set(bytes, start, length);
+    }
+
+    public void appendTo(Text target) {
+        target.append(bytes, start, length);
+    }
+
+    // allocates: only for fields that end up as map keys
+    public String string() {
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    public int parseInt() {
+        int i = start;
+        int to = start + length;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative || (i < to && bytes[i] == '+')) {
+            i++;
+        }
+        if (i == to || to - i > 9) { // empty, or might overflow
+            return Integer.parseInt(string());
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(string()); // throws NumberFormatException
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    public double parseDouble() {
+        int i = start;
+        int to = start + length;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative || (i < to && bytes[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int digits = 0;
+        int fraction = 0;
+        boolean dot = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (mantissa != 0 || b != '0') {
+                    significant++;
+                }
+                if (significant > 15) {
+                    return Double.parseDouble(string());
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) {
+                    fraction++;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else { // exponent, NaN, Infinity or garbage
+                return Double.parseDouble(string());
+            }
+        }
+        if (digits == 0 || fraction >= POW10.length) {
+            return Double.parseDouble(string());
+        }
+        // mantissa < 2^53 and 10^fraction are exact, so one division is correctly rounded
+        double value = fraction == 0 ? mantissa : mantissa / POW10[fraction];
+        return negative ? -value : value;
+    }
+
+    // appends one ASCII char (a delimiter) to a Text
+    public static void append(Text target, char c) {
+        target.append(ASCII[c], 0, 1);
+    }
+
+    // appends the decimal digits of an int to a Text, without a String
+    public static void appendInt(Text target, int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                byte[] digits = Integer.toString(value).getBytes(StandardCharsets.UTF_8);
+                target.append(digits, 0, digits.length);
+                return;
+            }
+            append(target, '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            append(target, (char) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+}
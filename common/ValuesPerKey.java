@@ -0,0 +1,46 @@
+package common;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.TaskType;
+
+/** Histogram of the number of values per reduce key, published as counters
+ *
+ *  - group "ValuesPerKey", counter "<=N" (N a power of 2): number of keys with N/2 < values <= N
+ *  - counters are summed over reduce tasks, so a per-task maximum would be meaningless in the job totals; the
+ *    histogram adds up correctly and its highest bucket bounds the hottest key within a factor of 2 (see RunReport)
+ *  - combiners run the same reducer classes inside map tasks: only reduce tasks count
+ *  - one instance per reducer, created in setup(); add() once per reduce() call
+ * */
+
+public final class ValuesPerKey {
+
+    public static final String GROUP = "ValuesPerKey";
+    private static final String PREFIX = "<=";
+
+    private final TaskInputOutputContext<?, ?, ?, ?> context;
+    private final boolean counting;
+    private final Counter[] buckets = new Counter[64];
+
+    public ValuesPerKey(TaskInputOutputContext<?, ?, ?, ?> context) {
+        this.context = context;
+        this.counting = context.getTaskAttemptID().getTaskType() == TaskType.REDUCE;
+    }
+
+    public void add(long values) {
+        if (!counting || values <= 0) {
+            return;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(values - 1); // smallest k with values <= 2^k
+        if (buckets[bucket] == null) {
+            buckets[bucket] = context.getCounter(GROUP, PREFIX + (1L << bucket));
+        }
+        buckets[bucket].increment(1);
+    }
+
+    // counter name -> upper bound of its bucket, -1 for other names
+    public static long upperBound(String counterName) {
+        return counterName.startsWith(PREFIX) ? Long.parseLong(counterName.substring(PREFIX.length())) : -1;
+    }
+
+}
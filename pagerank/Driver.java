@@ -1,14 +1,45 @@
 package pagerank;
 
+import common.Compression;
+import common.RunReport;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+
 public class Driver {
 
     // Driver 进行 Transition Matrix * PR Matrix 的迭代
     // mapreduce 会把结果写到硬盘上
+    // -Dpagerank.report=file: write a JSON run report of every job (see common.RunReport), also when a job fails
+    // -Dcompression.map.output / intermediate / final=codec: compress the shuffle, subPR and pr1..prN-1, prN
+    // -Dpagerank.engine=local: run the iterations in this JVM (see LocalEngine), only prN is written
+
+    public static final String REPORT = "pagerank.report";
+    public static final String ENGINE = "pagerank.engine";
 
     public static void main(String[] args) throws Exception {
 
-        UnitMultiplication multiplication = new UnitMultiplication();
-        UnitSum sum = new UnitSum();
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        RunReport report = new RunReport("pagerank", args);
+        boolean succeeded = false;
+        try {
+            run(conf, args, report);
+            succeeded = true;
+        } finally {
+            report.finish(succeeded);
+            if (conf.get(REPORT) != null) {
+                report.write(conf, new Path(conf.get(REPORT)));
+            }
+        }
+
+    }
+
+    public static void run(Configuration conf, String[] args, RunReport report) throws Exception {
 
         String transitionMatrix = args[0]; // dir where transition.txt resides
         String prMatrix = args[1];         // dir of pr (also where the 2nd mapreduce job's output resides)
@@ -16,21 +47,35 @@ public class Driver {
 
         int count = Integer.parseInt(args[3]); // iteration count
 
+        if ("local".equals(conf.get(ENGINE, "mapreduce"))) {
+            // transition matrix loaded once, pr0 -> prN in memory
+            new LocalEngine(conf).run(transitionMatrix, prMatrix + 0, count, prMatrix + count);
+            return;
+        }
+
         for (int i = 0; i < count; i++) {  // i start from 0
             // pass transitionMatrix dir to 1st mapreduce job (transitionMatrix is fixed in our case)
             // pass prMatrix to 1st mapreduce job (prMatrix is varying)
             // pass subPR to 1st mapreduce job
             String[] args1 = { transitionMatrix, prMatrix + i, subPageRank + i };
-            multiplication.main(args1);
+            require(UnitMultiplication.createJob(conf, args1), report);
 
             // pass subPR to 2nd mapreduce job as input dir (subPR is the output of the 1st mapreduce job)
             // pass (complete) pr to 2nd mapreduce job as output dir
             // make sure to increment output pr dir by 1 because mapreduce won't start if output dir already exists
             // final output is stored in hdfs /pagerankN/, where N is times of convergence
+            // the last iteration's pr is the result (see common.Compression)
             String[] args2 = { subPageRank + i,  prMatrix + (i + 1) };
-            sum.main(args2);
+            require(UnitSum.createJob(i == count - 1 ? Compression.finalOutput(conf) : conf, args2), report);
         }
 
     }
 
+    // the next iteration reads the output of job: stop when it failed
+    private static void require(Job job, RunReport report) throws Exception {
+        if (!report.run(job)) {
+            throw new IOException("job failed: " + job.getJobID());
+        }
+    }
+
 }
@@ -0,0 +1,290 @@
+package pagerank;
+
+import common.Compression;
+import common.LocalTasks;
+import common.TextScanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** In-process PageRank (single JVM, no mapreduce jobs)
+ *
+ * 1. load
+ *  - transition.txt (1\t2,8,9,24) is read once; pages get dense int indices in sorted id order
+ *  - edges are stored by toPage (CSR, pull): the edges into page t are [inStart[t], inStart[t + 1]) of inFrom
+ *    (fromPage) and inWeight (1 / number of toPages of the line, the same double as TransitionMapper's prob)
+ *  - a toPage listed twice gets two edges, dead ends get none, like the transition cells of the 1st job
+ *  - pr0 (1\t0.00016) gives the starting ranks; pages without a pr line start at 0
+ *
+ * 2. power iteration (UnitMultiplication + UnitSum)
+ *  - rank'(t) = round5(sum over the edges into t of inWeight * rank(fromPage))
+ *  - two rank vectors: every thread reads rank and writes its own contiguous range of rank' (balanced by edges),
+ *    then the vectors are swapped; no locks, no shuffle, no text between the iterations
+ *  - round5 is UnitSum's Double.valueOf(new DecimalFormat("#.00000").format(total)), computed without formatting
+ *    unless the sum is close to a tie, where DecimalFormat itself decides (see round5)
+ *  - pages without edges into them get 0 after the first iteration, as when they are missing from UnitSum's output
+ *  - the edges into a page are added in fromPage order, as UnitSum adds them when subPR is one file; with several
+ *    subPR files the jobs' order varies, and a sum right at a rounding boundary can differ in the 5th decimal
+ *
+ * 3. output
+ *  - one part-r-00000 file of page\trank (printed as UnitSum's DoubleWritable), pages with at least one edge into them
+ *  - compression.final: codec of the part file (see common.Compression), the inputs may be compressed too
+ *  - only the last iteration's ranks are written: no subPR dirs and no pr1 .. prN-1
+ *
+ * 4. Configuration
+ *  - Driver runs it instead of the jobs with -Dpagerank.engine=local
+ *  - pagerank.local.threads: worker threads (default: available processors)
+ * */
+
+public class LocalEngine {
+
+    public static final String THREADS = "pagerank.local.threads";
+
+    private final Configuration conf;
+    private final int threads;
+
+    // index -> page id
+    private String[] pages;
+
+    // edges into page t (CSR): [inStart[t], inStart[t + 1])
+    private int[] inStart;
+    private int[] inFrom;
+    private double[] inWeight;
+
+    private double[] rank;
+
+    public LocalEngine(Configuration conf) {
+        this.conf = conf;
+        this.threads = Math.max(1, conf.getInt(THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // iterations of transitionMatrix * pr, starting from the ranks in prInput; writes the last ranks to outputDir
+    public void run(String transitionMatrix, String prInput, int iterations, String outputDir)
+            throws IOException, InterruptedException {
+        Path output = new Path(outputDir);
+        FileSystem outFs = output.getFileSystem(conf);
+        if (outFs.exists(output)) { // same contract as FileOutputFormat
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Integer> index = load(new Path(transitionMatrix));
+            loadRanks(new Path(prInput), index);
+            iterate(pool, iterations);
+        } finally {
+            pool.shutdownNow();
+        }
+        write(outFs, output);
+        outFs.create(new Path(output, "_SUCCESS")).close();
+    }
+
+    private Map<String, Integer> load(Path input) throws IOException {
+        // edges in file order
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        int[] edgeFrom = new int[1024];
+        int[] edgeTo = new int[1024];
+        double[] edgeWeight = new double[1024];
+        int edges = 0;
+
+        TextScanner scanner = new TextScanner();
+        Text line = new Text();
+        for (Path file : LocalTasks.listInputFiles(input, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    // input line: 1\t2,8,9,24
+                    line.set(text);
+                    if (scanner.reset(line).remaining('\t') < 2) { // dead end
+                        continue;
+                    }
+                    scanner.next('\t');
+                    String fromPage = scanner.string();
+                    scanner.next('\t');
+                    if (scanner.isEmpty()) { // dead end
+                        continue;
+                    }
+                    int from = LocalTasks.indexOf(index, fromPage);
+                    scanner.reset(scanner.bytes(), scanner.start(), scanner.start() + scanner.length());
+                    double weight = (double) 1 / scanner.remaining(',');
+                    while (scanner.next(',')) {
+                        if (edges == edgeFrom.length) {
+                            edgeFrom = Arrays.copyOf(edgeFrom, edges * 2);
+                            edgeTo = Arrays.copyOf(edgeTo, edges * 2);
+                            edgeWeight = Arrays.copyOf(edgeWeight, edges * 2);
+                        }
+                        edgeFrom[edges] = from;
+                        edgeTo[edges] = LocalTasks.indexOf(index, scanner.string());
+                        edgeWeight[edges++] = weight;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // re-number so that index order is id order
+        pages = index.keySet().toArray(new String[0]);
+        Arrays.sort(pages);
+        int[] remap = new int[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            int old = index.put(pages[i], i);
+            remap[old] = i;
+        }
+
+        // edges by fromPage (counting sort), then by toPage keeping that order: the edges into a page are summed in
+        // fromPage order, the order in which UnitSum's reducer gets them from a single subPR file
+        int[] byFrom = bucketOrder(edgeFrom, remap, edges, null);
+        inStart = new int[pages.length + 1];
+        int[] byTo = bucketOrder(edgeTo, remap, edges, byFrom);
+        for (int e = 0; e < edges; e++) {
+            inStart[remap[edgeTo[e]] + 1]++;
+        }
+        for (int t = 0; t < pages.length; t++) {
+            inStart[t + 1] += inStart[t];
+        }
+        inFrom = new int[edges];
+        inWeight = new double[edges];
+        for (int i = 0; i < edges; i++) {
+            inFrom[i] = remap[edgeFrom[byTo[i]]];
+            inWeight[i] = edgeWeight[byTo[i]];
+        }
+        return index;
+    }
+
+    // edges ordered by remap[page[e]], stable: ties keep the order of previous (all edges in file order when null)
+    private int[] bucketOrder(int[] page, int[] remap, int edges, int[] previous) {
+        int[] start = new int[pages.length + 1];
+        for (int e = 0; e < edges; e++) {
+            start[remap[page[e]] + 1]++;
+        }
+        for (int p = 0; p < pages.length; p++) {
+            start[p + 1] += start[p];
+        }
+        int[] order = new int[edges];
+        for (int i = 0; i < edges; i++) {
+            int e = previous == null ? i : previous[i];
+            order[start[remap[page[e]]]++] = e;
+        }
+        return order;
+    }
+
+    private void loadRanks(Path input, Map<String, Integer> index) throws IOException {
+        rank = new double[pages.length];
+        TextScanner scanner = new TextScanner();
+        Text line = new Text();
+        for (Path file : LocalTasks.listInputFiles(input, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    // input line: 1\t0.00016
+                    line.set(text);
+                    scanner.reset(line).next('\t');
+                    Integer page = index.get(scanner.string());
+                    if (page != null && scanner.next('\t')) { // pages without edges are never read
+                        rank[page] = scanner.parseDouble();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private void iterate(ExecutorService pool, int iterations) throws IOException, InterruptedException {
+        final int[] ranges = LocalTasks.balancedRanges(inStart, pages.length, threads);
+        double[] next = new double[pages.length];
+        for (int i = 0; i < iterations; i++) {
+            final double[] current = rank;
+            final double[] updated = next;
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t = 0; t + 1 < ranges.length; t++) {
+                final int from = ranges[t];
+                final int to = ranges[t + 1];
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int page = from; page < to; page++) {
+                            double total = 0;
+                            for (int e = inStart[page]; e < inStart[page + 1]; e++) {
+                                total += inWeight[e] * current[inFrom[e]];
+                            }
+                            updated[page] = round5(total);
+                        }
+                        return null;
+                    }
+                });
+            }
+            LocalTasks.invokeAll(pool, tasks);
+            next = rank;
+            rank = updated;
+        }
+    }
+
+    private void write(FileSystem outFs, Path output) throws IOException {
+        CompressionCodec codec = Compression.codec(conf, Compression.FINAL);
+        OutputStream out = outFs.create(new Path(output, "part-r-00000" + (codec == null ? "" : codec.getDefaultExtension())));
+        if (codec != null) { // the output is the final one
+            out = codec.createOutputStream(out);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            for (int page = 0; page < pages.length; page++) {
+                if (inStart[page + 1] > inStart[page]) {
+                    // output: 2\trank
+                    writer.write(pages[page] + "\t" + rank[page] + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // UnitSum writes every sum as Double.valueOf(new DecimalFormat("#.00000").format(sum)), and the local ranks have
+    // to be those same doubles. Formatting every sum is slow, so round5 rounds scaled = x * 100000 itself and only
+    // hands DecimalFormat the sums where that could disagree:
+    //  - below SCALED_LIMIT the ulp of scaled is under 1.2e-7, so the product is within 1e-7 of the exact x * 100000
+    //    and its fraction is off by far less than TIE_MARGIN
+    //  - a fraction within TIE_MARGIN of .5 may be a tie, or close enough that DecimalFormat, which rounds the
+    //    decimal expansion half-even, rounds it the other way (5.0000000000000004E-6 -> .00000): ask it
+    //  - elsewhere floor or floor + 1 divided by 100000 is the correctly rounded double of the decimal string, which
+    //    is what Double.valueOf returns
+    private static final double SCALED_LIMIT = 1e9;
+    private static final double TIE_MARGIN = 1e-6;
+
+    static double round5(double x) {
+        double scaled = x * 100000;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(scaled) < SCALED_LIMIT && Math.abs(fraction - 0.5) > TIE_MARGIN) {
+            return (fraction < 0.5 ? floor : floor + 1) / 100000;
+        }
+        return Double.valueOf(new DecimalFormat("#.00000").format(x)); // not thread-safe: one per call, near ties only
+    }
+
+}
@@ -1,5 +1,10 @@
 package pagerank;
 
+import common.Compression;
+import common.FieldBuffer;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
@@ -10,10 +15,11 @@ import org.apache.hadoop.mapreduce.lib.chain.ChainMapper;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 
 /** PageRank
@@ -86,10 +92,12 @@ import java.util.List;
  *  - pass cmd line args from Driver's main to mapreduce classes' main:
  *      + pass dir of transition matrix, pr and subPR to 1st mapreduce job in every iteration:
  *          `String[] args1 = { transitionMatrix, prMatrix + i, subPageRank + i };`
- *          `multiplication.main(args1);`
+ *          `UnitMultiplication.createJob(conf, args1)`
  *      + pass dir of subPR, pr to 2nd mapreduce job in every iteration:
  *          `String[] args2 = { subPageRank + i,  prMatrix + (i + 1) };`
- *          `sum.main(args2);`
+ *          `UnitSum.createJob(conf, args2)`
+ *  - generic options (-Dkey=value) are handed to every job; a failed job stops the iterations
+ *  - -Dpagerank.report=file: JSON run report of every job (see common.RunReport), dead ends counted per iteration
  *  - make sure to increment output pr dir by 1 because mapreduce won't start if output dir already exists
  *  - final output is stored in hdfs /pagerankN/, where N is the times of convergence
  *
@@ -113,23 +121,37 @@ public class UnitMultiplication {
 
     public static class TransitionMapper extends Mapper<Object, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
         @Override
         protected void map(Object key, Text value, Context context) throws IOException, InterruptedException {
             // input:  1\t2,8,9,24
             // output:   key = 1
             //         value = to=probOfFromToTo
-            String line = value.toString().trim();
-            String[] fromTo = line.split("\t");
+            scanner.reset(value);
             // fromTo at least has 2 elements; but it's possible a page doesn't direct to any other page (dead ends)
-
-            if (fromTo.length < 2 || fromTo[1].trim().equals("")) {
+            if (scanner.remaining('\t') < 2) {
+                context.getCounter(StageCounter.DEAD_ENDS).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            scanner.copyTo(outputKey); // from
+            scanner.next('\t');
+            if (scanner.isEmpty()) {
+                context.getCounter(StageCounter.DEAD_ENDS).increment(1);
                 return;
             }
 
-            String from = fromTo[0];
-            String[] to = fromTo[1].split(",");
-            for (String cur : to) {
-                context.write(new Text(from), new Text(cur + "=" + (double) 1 / to.length));
+            // the same probability for every toPage of the line: format it once
+            scanner.reset(scanner.bytes(), scanner.start(), scanner.start() + scanner.length());
+            byte[] prob = String.valueOf((double) 1 / scanner.remaining(',')).getBytes(StandardCharsets.UTF_8);
+            while (scanner.next(',')) {
+                scanner.copyTo(outputValue);
+                TextScanner.append(outputValue, '=');
+                outputValue.append(prob, 0, prob.length);
+                context.write(outputKey, outputValue);
             }
         }
 
@@ -137,19 +159,38 @@ public class UnitMultiplication {
 
     public static class PRMapper extends  Mapper<Object, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
         @Override
         protected void map(Object key, Text value, Context context) throws IOException, InterruptedException {
             // input:  pr.txt -> 1\t1/6012
             // output:  key = 1
             //        value = 1/6012
-            String[] pr = value.toString().trim().split("\t"); // check validity?
-            context.write(new Text(pr[0]), new Text(pr[1]));
+            scanner.reset(value).next('\t'); // check validity?
+            scanner.copyTo(outputKey);
+            scanner.next('\t');
+            scanner.copyTo(outputValue);
+            context.write(outputKey, outputValue);
         }
 
     }
 
     public static class MultiplicationReducer extends Reducer<Text, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final FieldBuffer toPages = new FieldBuffer();
+        private double[] relations = new double[16];
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
         @Override
         protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
             // input:  key = 1 (fromPage)
@@ -165,36 +206,46 @@ public class UnitMultiplication {
             // output: key = 2
             //       value = sum
 
-            List<String> transitionCells = new ArrayList<String>();
+            toPages.clear();
             double prCell = .0;
+            int count = 0;
 
             // separate transition cells from pr cell
+            // value objects are reused by hadoop: copy the toPages into a reusable buffer
             for (Text value : values) {
-                if (value.toString().contains("=")) {
-                    transitionCells.add(value.toString().trim());
+                count++;
+                if (scanner.reset(value).remaining('=') == 2) {
+                    if (toPages.size() == relations.length) {
+                        relations = Arrays.copyOf(relations, relations.length * 2);
+                    }
+                    scanner.next('=');
+                    toPages.add(scanner);
+                    scanner.next('=');
+                    relations[toPages.size() - 1] = scanner.parseDouble();
                 } else {
-                    prCell = Double.parseDouble(value.toString().trim());
+                    scanner.next('=');
+                    prCell = scanner.parseDouble();
                 }
             }
+            valuesPerKey.add(count);
 
             // multiply and write to context
-            for (String cell : transitionCells) {
-                String outputKey = cell.split("=")[0];
-                double relation = Double.parseDouble(cell.split("=")[1]);
-                String outputValue = String.valueOf(relation * prCell);
-                context.write(new Text(outputKey), new Text(outputValue));
+            for (int i = 0; i < toPages.size(); i++) {
+                toPages.copyTo(i, outputKey);
+                outputValue.set(String.valueOf(relations[i] * prCell));
+                context.write(outputKey, outputValue);
             }
 
         }
 
     }
 
-    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        // create configuration and job
-        Configuration conf = new Configuration();
+        // create job
         Job job = Job.getInstance(conf);
         job.setJarByClass(UnitMultiplication.class);
+        Compression.configure(job);
 
 
         // set mapper class by chaining the two mappers
@@ -229,9 +280,16 @@ public class UnitMultiplication {
         // set output dir for the 1st mapreduce job
         FileOutputFormat.setOutputPath(job, new Path(args[2]));
 
+        return job;
+
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
 
         // tell job to wait for completion
-        job.waitForCompletion(true);
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
@@ -1,5 +1,8 @@
 package pagerank;
 
+import common.Compression;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
@@ -9,13 +12,18 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
 import java.text.DecimalFormat;
 
 public class UnitSum {
 
-    public class PassMapper extends Mapper<Object, Text, Text, DoubleWritable> {
+    public static class PassMapper extends Mapper<Object, Text, Text, DoubleWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
 
         @Override
         protected void map(Object key, Text value, Context context) throws IOException, InterruptedException {
@@ -23,14 +31,25 @@ public class UnitSum {
             //           2\t1/4*1/6012
             // output: key = 2
             //       value = 1/4*1/6012
-            String[] pageSubRank = value.toString().trim().split("\t"); // \t is the default delimiter when you write to hdfs
-            double subRank = Double.parseDouble(pageSubRank[1]);
-            context.write(new Text(pageSubRank[0]), new DoubleWritable(subRank));
+            scanner.reset(value).next('\t'); // \t is the default delimiter when you write to hdfs
+            scanner.copyTo(outputKey);
+            scanner.next('\t');
+            outputValue.set(scanner.parseDouble());
+            context.write(outputKey, outputValue);
         }
 
     }
 
-    public class SumReducer extends Reducer<Text, DoubleWritable, Text, DoubleWritable> {
+    public static class SumReducer extends Reducer<Text, DoubleWritable, Text, DoubleWritable> {
+
+        private final DecimalFormat df = new DecimalFormat("#.00000"); // max decimal points: 5
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
 
         @Override
         protected void reduce(Text key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
@@ -39,24 +58,27 @@ public class UnitSum {
             // output: key = 2
             //       value = sum
             double total = 0;
+            int count = 0;
             for (DoubleWritable value : values) {
                 total += value.get();
+                count++;
             }
+            valuesPerKey.add(count);
 
-            DecimalFormat df = new DecimalFormat("#.00000"); // max decimal points: 5
             total = Double.valueOf(df.format(total));
 
-            context.write(key, new DoubleWritable(total));
+            outputValue.set(total);
+            context.write(key, outputValue);
 
         }
     }
 
-    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        // create configuration and job
-        Configuration conf = new Configuration();
+        // create job
         Job job = Job.getInstance(conf);
         job.setJarByClass(UnitSum.class);
+        Compression.configure(job);
 
         // set mapper and reducer class
         job.setMapperClass(PassMapper.class);
@@ -72,8 +94,16 @@ public class UnitSum {
         FileInputFormat.addInputPath(job, new Path(args[0]));
         FileOutputFormat.setOutputPath(job, new Path(args[1]));
 
+        return job;
+
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
+
         // tell job to wait for completion
-        job.waitForCompletion(true);
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
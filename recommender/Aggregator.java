@@ -1,5 +1,8 @@
 package recommender;
 
+import common.Compression;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
@@ -8,8 +11,10 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
 
@@ -29,45 +34,190 @@ import java.io.IOException;
  *     output: key: user1:movie1
  *           value: DoubleWritable(rating1*relation1 + rating1*relation2 + rating1*relation3)
  *    Note: DoubleWritable objects cannot be added by themselves
+ *
+ * 3. binary mode (recommender.intermediate.format=binary, see IntermediateFormat)
+ *      input:  SequenceFile, key: IntPairWritable(user1, movie1), value: DoubleWritable(rating1*relation1)
+ *      mapper: identity
+ *      output: text, user1:movie1\tsum (the final output stays text)
+ *
+ *      partitioner: IntPairWritable.FirstPartitioner, all keys of user1 go to one reducer, sorted by movie
+ *                   (raw byte comparison of the serialized keys)
+ *      with recommender.topn.fused=true (set by Driver when a recommendation dir is given) the reducer keeps a
+ *      bounded heap for the current user and writes user1\tmovie3:4.2,movie7:3.9,... like RecommendationExtractor;
+ *      cells marked NaN by Multiplier are movies user1 already watched
+ *
+ * 4. text mode partitions by the user1 prefix of user1:movie1 (PrefixPartitioner)
+ *
+ * 5. when this is the last job and ids were encoded by IdDictionary, recommender.dictionary.decode points to the
+ *    dictionary and the reducer prints raw user/movie ids
  * */
 
 public class Aggregator {
 
     public static class SumMapper extends Mapper<LongWritable, Text, Text, DoubleWritable> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: user:movie/trating*relation
             //       output key: user:movie
             //            value: rating*relation
-            String[] line = value.toString().trim().split("\t");
-            context.write(new Text(line[0]), new DoubleWritable(Double.parseDouble(line[1])));
+            scanner.reset(value).next('\t');
+            scanner.copyTo(outputKey);
+            scanner.next('\t');
+            outputValue.set(scanner.parseDouble());
+            context.write(outputKey, outputValue);
         }
     }
 
     public static class SumReducer extends Reducer<Text, DoubleWritable, Text, DoubleWritable> {
 
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private IdDictionary decoder;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            decoder = IdDictionary.decoder(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
         @Override
         protected void reduce(Text key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
             // input:  key: user1:movie1
             //      values: <rating1*relation1,...> // DoubleWritable cannot be added by themselves
             // output: key: user1:movie1
             //       value: sum
-            int sum = 0;
+            double sum = 0;
+            int count = 0;
             for (DoubleWritable value : values) {
                 sum += value.get();
+                count++;
+            }
+            valuesPerKey.add(count);
+            if (decoder != null) { // final output: print raw ids
+                key = new Text(decoder.decodeUserMovie(key.toString()));
             }
-            context.write(key, new DoubleWritable(sum));
+            outputValue.set(sum);
+            context.write(key, outputValue);
         }
     }
 
-    public static void main(String[] args) throws Exception {
+    public static class BinarySumReducer extends Reducer<IntPairWritable, DoubleWritable, Text, DoubleWritable> {
+
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private IdDictionary decoder;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            decoder = IdDictionary.decoder(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(IntPairWritable key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: (user1, movie1)
+            //      values: <rating1*relation1,...>
+            // output: key: user1:movie1
+            //       value: sum
+            double sum = 0;
+            int count = 0;
+            for (DoubleWritable value : values) {
+                sum += value.get();
+                count++;
+            }
+            valuesPerKey.add(count);
+            outputKey.set(decoder == null ? key.toString() : decoder.decodeUserMovie(key.toString()));
+            outputValue.set(sum);
+            context.write(outputKey, outputValue);
+        }
+    }
+
+    public static class BinaryTopNReducer extends Reducer<IntPairWritable, DoubleWritable, Text, Text> {
+
+        private RecommendationExtractor.TopN top;
+        private int user = -1;
+        private IdDictionary decoder;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            top = new RecommendationExtractor.TopN(RecommendationExtractor.topN(context.getConfiguration()));
+            decoder = IdDictionary.decoder(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(IntPairWritable key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: (user1, movie1), keys of one user are consecutive in this reducer
+            //      values: <rating1*relation1,...> or a NaN if user1 already watched movie1
+            // output: key: user1 (once all of user1's keys are read)
+            //       value: movie3:sum3,movie1:sum1,... (top N, best first)
+            if (key.getFirst() != user) {
+                flush(context);
+                user = key.getFirst();
+            }
+            double sum = 0;
+            int count = 0;
+            for (DoubleWritable value : values) {
+                sum += value.get();
+                count++;
+            }
+            valuesPerKey.add(count);
+            if (!Double.isNaN(sum)) {
+                top.offer(String.valueOf(key.getSecond()), sum);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            if (top.isEmpty()) {
+                return;
+            }
+            String userId = String.valueOf(user);
+            context.write(new Text(decoder == null ? userId : decoder.user(userId)), new Text(top.drain(decoder)));
+        }
+    }
+
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        Configuration conf = new Configuration();
         Job job = Job.getInstance(conf);
         job.setJarByClass(Aggregator.class);
+        Compression.configure(job);
+
+        if (IntermediateFormat.isBinary(conf)) {
+            boolean topN = conf.getBoolean(RecommendationExtractor.FUSED, false);
+            if (topN) {
+                RecommendationExtractor.topN(conf);
+            }
+            job.setMapperClass(Mapper.class); // identity, the SequenceFile is already keyed by (user, movie)
+            job.setPartitionerClass(IntPairWritable.FirstPartitioner.class);
+            job.setReducerClass(topN ? BinaryTopNReducer.class : BinarySumReducer.class);
+
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+
+            job.setMapOutputKeyClass(IntPairWritable.class);
+            job.setMapOutputValueClass(DoubleWritable.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(topN ? Text.class : DoubleWritable.class);
+
+            SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+            TextOutputFormat.setOutputPath(job, new Path(args[1]));
+            return job;
+        }
 
         job.setMapperClass(SumMapper.class);
+        job.setPartitionerClass(PrefixPartitioner.class);
         job.setReducerClass(SumReducer.class);
 
         job.setInputFormatClass(TextInputFormat.class);
@@ -79,7 +229,16 @@ public class Aggregator {
         TextInputFormat.setInputPaths(job, new Path(args[0]));
         TextOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.waitForCompletion(true);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
@@ -1,17 +1,35 @@
 package recommender;
 
+import common.Compression;
+import common.IntList;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /** 2nd mapreduce job
  * 0. Task: create movie co-occurrence matrix **regardless of users and ratings**; each row represents a cell in co-matrix
@@ -37,15 +55,82 @@ import java.io.IOException;
  *           value: 4
  *    Note: IntWritable object is serializable
  *          IntWritable(1) cannot be merged to IntWritable(4) or 4 !!!
+ *          the reducer is also the combiner: sum is associative and its input/output types are the same
+ *
+ * 3. stripes mode (recommender.cooccurrence.mode=stripes)
+ *      - pairs mode emits n^2 records per user; stripes mode emits one record per movie
+ *      - mapper: in-mapper combining; keep a stripe (movie2 -> count) per movie1 across map() calls
+ *                output: key: movie1
+ *                      value: {movie1: 1, movie2: 1, movie3: 1, ...} (summed over all users seen so far)
+ *                flush all stripes when recommender.cooccurrence.stripes.flush cells (default 100000) are buffered
+ *                and in cleanup(); the stripes are kept by a per-mapper int index of movie1, and a movie id only
+ *                becomes a String once per flush, not once per record
+ *      - combiner: merge the stripes of movie1 element-wise, output another stripe
+ *      - reducer:  merge the stripes of movie1 element-wise, output movie1:movie2\tcount (same as pairs mode)
+ *    Note: shuffle size now scales with the distinct (movie1, movie2) cells of each mapper, not with every
+ *          pair occurrence of every user
+ *
+ * 4. fused normalize mode (recommender.cooccurrence.normalize=true, implies stripes mode)
+ *      - the stripes reducer holds the whole row of movie1, so it can normalize and transpose right away
+ *      - reducer output: key: movie2
+ *                      value: movie1=2/8 (same as Normalizer output, Normalizer job is skipped by Driver)
+ *      - also writes the _raters/ side output for the skew-handling Multiplier (see Normalizer)
+ *    Note: the co-occurrence matrix is materialized once instead of twice, and one mapreduce round is saved
+ *
+ * 5. binary mode (recommender.intermediate.format=binary, pairs mode only, see IntermediateFormat)
+ *      input:  SequenceFile, key: IntWritable(userid), value: RatingVectorWritable
+ *      output: SequenceFile, key: IntPairWritable(movie1, movie2), value: IntWritable(count)
+ *
+ * 6. partitioning: keys are routed by movie1 only (PrefixPartitioner / IntPairWritable.FirstPartitioner), so each
+ *    output file holds whole rows of the matrix
+ *
+ * 7. upper triangle mode (recommender.cooccurrence.triangle=true, pairs and stripes mode, text and binary)
+ *      - the matrix is symmetric: count(movie1, movie2) == count(movie2, movie1)
+ *      - mappers emit only the cells with movie1 <= movie2 (diagonal included), about half the shuffled records
+ *      - output: the upper triangle only; Normalizer mirrors every off-diagonal cell back before summing the rows
+ *    Note: the fused normalize reducer needs whole rows, so both modes cannot be combined
+ *
+ * 8. bounded histories (recommender.cooccurrence.max.history=N, pairs and stripes mode, text and binary)
+ *      - a user with more than N movies only adds the pairs of a deterministic sample of N of them (hash or
+ *        highest-rated, see HistorySampling): at most N^2 pairs per user, instead of unbounded
+ *      - recommender.cooccurrence.activity.weight=W: a pair counts max(1, round(W / n)) for a user with n kept movies,
+ *        so heavy users do not dominate the counts
+ *
+ * 9. minhash mode (recommender.cooccurrence.mode=minhash, text mode only)
+ *      - estimated counts of the strongly related pairs from MinHash signatures, in two jobs of their own: Driver runs
+ *        MinHashCoOccurrence instead of this job, same output format
  * */
 
 public class CoOccurrenceMatrixGenerator { // 2nd mapreduce job
 
+    public static final String MODE = "recommender.cooccurrence.mode";
+    public static final String STRIPES_FLUSH = "recommender.cooccurrence.stripes.flush";
+    public static final String NORMALIZE = "recommender.cooccurrence.normalize";
+    public static final String TRIANGLE = "recommender.cooccurrence.triangle";
+
+
     // Co-Occurrence Matrix has nothing to do with users/ratings
     // It represents the relationship between movies
 
     public static class MatrixGeneratorMapper extends Mapper<LongWritable, Text, Text, IntWritable> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final IntWritable weight = new IntWritable(1);
+        // movie ids of the current line: bytes [movieStart[i], movieStart[i] + movieLength[i]) of the value
+        private int[] movieStart = new int[16];
+        private int[] movieLength = new int[16];
+        private boolean triangle;
+        private HistorySampling sampling;
+        private Counter pairs;
+
+        @Override
+        protected void setup(Context context) {
+            triangle = isTriangle(context.getConfiguration());
+            sampling = new HistorySampling(context.getConfiguration());
+            pairs = context.getCounter(StageCounter.PAIRS_EMITTED);
+        }
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: userid\tmovie1:rating1,movie2:rating2,... (default write delimiter (between key & value) is \t)
@@ -54,27 +139,76 @@ public class CoOccurrenceMatrixGenerator { // 2nd mapreduce job
             // eg. [1,2,3]: 1:1,2:2,3:3,1:2,2:1,1:3,3:1,2:3,3:2
             //              1:1,1:2,1:3,2:1,2:2,2:3,3:1,3:2,3:3
 
-            String line = value.toString().trim();
-            String[] user_movieRatings = line.split("\t");
-            if (user_movieRatings.length != 2) { // bad input
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
                 return;
             }
+            scanner.next('\t'); // userid
+            byte[] bytes = value.getBytes();
+            boolean capped = sampling.isCapped(scanner.remaining(','));
+            if (capped) {
+                sampling.begin(HistorySampling.hash(bytes, scanner.start(), scanner.length()));
+            }
 
-            String[] movie_ratings = user_movieRatings[1].split(",");
-            for (int i = 0; i < movie_ratings.length; i++) {
+            // find every movie id once, instead of splitting movie_ratings[j] again in the inner loop
+            int movies = 0;
+            while (scanner.next(',')) {
                 // movie_rating: movie1:rating1
-                String movie1 = movie_ratings[i].trim().split(":")[0];
-                for (int j = 0; j < movie_ratings.length; j++) {
-                    String movie2 = movie_ratings[j].trim().split(":")[0];
-                    context.write(new Text(movie1 + ":" + movie2), new IntWritable(1));
+                if (movies == movieStart.length) {
+                    movieStart = Arrays.copyOf(movieStart, movies * 2);
+                    movieLength = Arrays.copyOf(movieLength, movies * 2);
+                }
+                int colon = scanner.indexOf(':');
+                movieStart[movies] = scanner.start();
+                movieLength[movies] = (colon < 0 ? scanner.start() + scanner.length() : colon) - scanner.start();
+                if (capped) {
+                    sampling.add(HistorySampling.hash(bytes, movieStart[movies], movieLength[movies]),
+                            sampling.rating(bytes, colon, scanner.start() + scanner.length()));
                 }
+                movies++;
             }
+            if (capped) { // keep the sampled movies only (see HistorySampling)
+                sampling.select();
+                int kept = 0;
+                for (int i = 0; i < movies; i++) {
+                    if (sampling.keeps(i)) {
+                        movieStart[kept] = movieStart[i];
+                        movieLength[kept++] = movieLength[i];
+                    }
+                }
+                movies = kept;
+            }
+            weight.set(sampling.weight(movies));
+
+            long emitted = 0;
+            for (int i = 0; i < movies; i++) {
+                for (int j = 0; j < movies; j++) {
+                    if (triangle && WritableComparator.compareBytes(bytes, movieStart[i], movieLength[i],
+                            bytes, movieStart[j], movieLength[j]) > 0) { // lower triangle: mirrored by Normalizer
+                        continue;
+                    }
+                    outputKey.set(bytes, movieStart[i], movieLength[i]);
+                    TextScanner.append(outputKey, ':');
+                    outputKey.append(bytes, movieStart[j], movieLength[j]);
+                    context.write(outputKey, weight);
+                    emitted++;
+                }
+            }
+            pairs.increment(emitted);
         }
 
     }
 
     public static class MatrixGeneratorReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
 
+        private final IntWritable outputValue = new IntWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context); // also the combiner: counts in reduce tasks only
+        }
+
         @Override
         protected void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
             // input:  key: movie2:movie2
@@ -84,32 +218,418 @@ public class CoOccurrenceMatrixGenerator { // 2nd mapreduce job
             // output: key: movie2:movie2
             //       value: 4
             int sum = 0;
+            int count = 0;
             for (IntWritable value : values) {
                 sum += value.get();
+                count++;
             }
-            context.write(key, new IntWritable(sum));
+            valuesPerKey.add(count);
+            outputValue.set(sum);
+            context.write(key, outputValue);
         }
     }
 
-    public static void main(String[] args) throws Exception {
+    public static class StripesMapper extends Mapper<LongWritable, Text, Text, StripeWritable> {
+
+        // buffered stripes by a local index of movie1, all dropped at every flush: ids, keys, names and stripes only
+        // hold the movies seen since the last one
+        private final Map<Text, Integer> ids = new HashMap<Text, Integer>();
+        private final List<Text> keys = new ArrayList<Text>();
+        private final List<String> names = new ArrayList<String>();
+        private final List<StripeWritable> stripes = new ArrayList<StripeWritable>();
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie = new Text();
+        private final IntList movies = new IntList();
+        private final IntList kept = new IntList();
+        private int bufferedCells;
+        private int flushCells;
+        private boolean triangle;
+        private HistorySampling sampling;
+        private Counter pairs;
+
+        @Override
+        protected void setup(Context context) {
+            flushCells = stripesFlush(context.getConfiguration());
+            triangle = isTriangle(context.getConfiguration());
+            sampling = new HistorySampling(context.getConfiguration());
+            pairs = context.getCounter(StageCounter.PAIRS_EMITTED);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: userid\tmovie1:rating1,movie2:rating2,...
+            //      buffered: movie1 -> {movie1: +1, movie2: +1, ...}
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t'); // userid
+            boolean capped = sampling.isCapped(scanner.remaining(','));
+            if (capped) {
+                sampling.begin(HistorySampling.hash(scanner.bytes(), scanner.start(), scanner.length()));
+            }
+
+            // a movie id is looked up through the reused Text; its Text and String are only created the first time
+            // it is seen after a flush
+            movies.clear();
+            while (scanner.next(',')) {
+                int colon = scanner.indexOf(':');
+                int movieLength = (colon < 0 ? scanner.start() + scanner.length() : colon) - scanner.start();
+                if (capped) {
+                    sampling.add(HistorySampling.hash(scanner.bytes(), scanner.start(), movieLength),
+                            sampling.rating(scanner.bytes(), colon, scanner.start() + scanner.length()));
+                }
+                movie.set(scanner.bytes(), scanner.start(), movieLength);
+                movies.add(indexOf(movie));
+            }
+            IntList userMovies = movies;
+            if (capped) { // keep the sampled movies only (see HistorySampling)
+                sampling.select();
+                kept.clear();
+                for (int i = 0; i < movies.size(); i++) {
+                    if (sampling.keeps(i)) {
+                        kept.add(movies.get(i));
+                    }
+                }
+                userMovies = kept;
+            }
+            int weight = sampling.weight(userMovies.size());
+
+            long emitted = 0;
+            for (int i = 0; i < userMovies.size(); i++) {
+                int movie1 = userMovies.get(i);
+                StripeWritable stripe = stripes.get(movie1);
+                for (int j = 0; j < userMovies.size(); j++) {
+                    int movie2 = userMovies.get(j);
+                    if (triangle && names.get(movie1).compareTo(names.get(movie2)) > 0) {
+                        continue;
+                    }
+                    if (stripe.increment(names.get(movie2), weight)) {
+                        bufferedCells++;
+                    }
+                    emitted++;
+                }
+            }
+            pairs.increment(emitted);
+
+            if (bufferedCells >= flushCells) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        // local index of the movie in movie, a new stripe when it is new
+        private int indexOf(Text movie) {
+            Integer id = ids.get(movie);
+            if (id == null) {
+                id = keys.size();
+                Text copy = new Text(movie);
+                ids.put(copy, id);
+                keys.add(copy);
+                names.add(copy.toString());
+                stripes.add(new StripeWritable());
+            }
+            return id;
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            // output: key: movie1
+            //       value: {movie1: count, movie2: count, ...}
+            for (int i = 0; i < keys.size(); i++) {
+                context.write(keys.get(i), stripes.get(i));
+            }
+            ids.clear();
+            keys.clear();
+            names.clear();
+            stripes.clear();
+            bufferedCells = 0;
+        }
+    }
+
+    public static class StripesCombiner extends Reducer<Text, StripeWritable, Text, StripeWritable> {
+
+        @Override
+        protected void reduce(Text key, Iterable<StripeWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <{movie1: 2, movie2: 1}, {movie1: 1, movie3: 1}>
+            // output: key: movie1
+            //       value: {movie1: 3, movie2: 1, movie3: 1}
+            StripeWritable merged = new StripeWritable();
+            for (StripeWritable value : values) { // value object is reused by hadoop, copy its cells out
+                merged.merge(value);
+            }
+            context.write(key, merged);
+        }
+    }
+
+    public static class StripesReducer extends Reducer<Text, StripeWritable, Text, IntWritable> {
+
+        private final StripeWritable merged = new StripeWritable();
+        private final Text outputKey = new Text();
+        private final IntWritable outputValue = new IntWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<StripeWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <{movie1: 2, movie2: 1}, {movie1: 1, movie3: 1}>
+            // output: key: movie1:movie1
+            //       value: 3
+            //         key: movie1:movie2
+            //       value: 1
+            //              ...
+            merged.clear();
+            int count = 0;
+            for (StripeWritable value : values) {
+                merged.merge(value);
+                count++;
+            }
+            valuesPerKey.add(count);
+
+            for (Map.Entry<String, Integer> entry : new TreeMap<String, Integer>(merged.getCounts()).entrySet()) {
+                outputKey.set(key);
+                TextScanner.append(outputKey, ':');
+                byte[] movie2 = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                outputKey.append(movie2, 0, movie2.length);
+                outputValue.set(entry.getValue());
+                context.write(outputKey, outputValue);
+            }
+        }
+    }
+
+    public static class NormalizingStripesReducer extends Reducer<Text, StripeWritable, Text, Text> {
+
+        private MultipleOutputs<Text, Text> raters;
+        private NeighborPruning pruning;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            raters = Normalizer.ratersOutput(context);
+            pruning = new NeighborPruning(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (raters != null) {
+                raters.close();
+            }
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<StripeWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <{movie1: 1, movie2: 3}, {movie1: 1, movie3: 2}, {movie1: 2, movie2: 1}>
+            // output: key: movie2
+            //       value: movie1=4/8
+            //         key: movie3
+            //       value: movie1=2/8
+            //         key: movie1
+            //       value: movie1=2/8
+            StripeWritable merged = new StripeWritable();
+            int stripes = 0;
+            for (StripeWritable value : values) {
+                merged.merge(value);
+                stripes++;
+            }
+            valuesPerKey.add(stripes);
+
+            long sum = 0;
+            for (int count : merged.getCounts().values()) {
+                sum += count;
+            }
+            Normalizer.writeNormalizedColumns(key.toString(), merged.getCounts(), sum, pruning, context);
+            Normalizer.writeRaters(raters, key.toString(), merged.getCounts());
+        }
+    }
+
+    public static class BinaryMatrixGeneratorMapper extends Mapper<IntWritable, RatingVectorWritable, IntPairWritable, IntWritable> {
+
+        private final IntPairWritable outputKey = new IntPairWritable();
+        private final IntWritable weight = new IntWritable(1);
+        // positions of the kept movies in the rating vector
+        private int[] movies = new int[16];
+        private boolean triangle;
+        private HistorySampling sampling;
+        private Counter pairs;
+
+        @Override
+        protected void setup(Context context) {
+            triangle = isTriangle(context.getConfiguration());
+            sampling = new HistorySampling(context.getConfiguration());
+            pairs = context.getCounter(StageCounter.PAIRS_EMITTED);
+        }
+
+        @Override
+        protected void map(IntWritable key, RatingVectorWritable value, Context context) throws IOException, InterruptedException {
+            // input:  key: userid
+            //       value: [movie1:rating1, movie2:rating2, ...]
+            // output: key: (movie1, movie2)
+            //       value: 1
+            boolean capped = sampling.isCapped(value.size());
+            if (capped) {
+                sampling.begin(HistorySampling.hash(key.get()));
+                for (int i = 0; i < value.size(); i++) {
+                    sampling.add(HistorySampling.hash(value.movieAt(i)), value.ratingAt(i));
+                }
+                sampling.select();
+            }
+            if (movies.length < value.size()) {
+                movies = new int[Math.max(value.size(), movies.length * 2)];
+            }
+            int size = 0;
+            for (int i = 0; i < value.size(); i++) {
+                if (!capped || sampling.keeps(i)) { // keep the sampled movies only (see HistorySampling)
+                    movies[size++] = value.movieAt(i);
+                }
+            }
+            weight.set(sampling.weight(size));
+
+            long emitted = 0;
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    if (triangle && movies[i] > movies[j]) {
+                        continue;
+                    }
+                    outputKey.set(movies[i], movies[j]);
+                    context.write(outputKey, weight);
+                    emitted++;
+                }
+            }
+            pairs.increment(emitted);
+        }
+    }
+
+    public static class BinaryMatrixGeneratorReducer extends Reducer<IntPairWritable, IntWritable, IntPairWritable, IntWritable> {
+
+        private final IntWritable outputValue = new IntWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context); // also the combiner: counts in reduce tasks only
+        }
+
+        @Override
+        protected void reduce(IntPairWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: (movie2, movie2)
+            //      values: <1, 1, 1, 1>
+            // output: key: (movie2, movie2)
+            //       value: 4
+            int sum = 0;
+            int count = 0;
+            for (IntWritable value : values) {
+                sum += value.get();
+                count++;
+            }
+            valuesPerKey.add(count);
+            outputValue.set(sum);
+            context.write(key, outputValue);
+        }
+    }
+
+    public static boolean isNormalizing(Configuration conf) {
+        return conf.getBoolean(NORMALIZE, false);
+    }
+
+    public static boolean isTriangle(Configuration conf) {
+        return conf.getBoolean(TRIANGLE, false);
+    }
+
+    // cells a StripesMapper buffers before it flushes
+    static int stripesFlush(Configuration conf) {
+        int cells = conf.getInt(STRIPES_FLUSH, 100000);
+        if (cells <= 0) {
+            throw new IllegalArgumentException(STRIPES_FLUSH + "=" + cells + ": must be > 0");
+        }
+        return cells;
+    }
+
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
+
+        if (isTriangle(conf) && isNormalizing(conf)) {
+            throw new IllegalArgumentException("fused normalize needs whole rows, not the upper triangle");
+        }
+        if (MinHashCoOccurrence.isMinHash(conf)) {
+            throw new IllegalArgumentException("minhash mode runs the jobs of MinHashCoOccurrence");
+        }
+        new HistorySampling(conf); // checks the sampling mode before any task does
+        stripesFlush(conf);
 
-        Configuration conf = new Configuration();
         Job job = Job.getInstance(conf);
         job.setJarByClass(CoOccurrenceMatrixGenerator.class);
+        Compression.configure(job);
+
+        if (IntermediateFormat.isBinary(conf)) {
+            job.setMapperClass(BinaryMatrixGeneratorMapper.class);
+            job.setPartitionerClass(IntPairWritable.FirstPartitioner.class);
+            job.setCombinerClass(BinaryMatrixGeneratorReducer.class);
+            job.setReducerClass(BinaryMatrixGeneratorReducer.class);
+
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+            job.setOutputKeyClass(IntPairWritable.class);
+            job.setOutputValueClass(IntWritable.class);
+
+            SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+            SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+            return job;
+        }
+
+        if (isNormalizing(conf)) {
+            job.setMapperClass(StripesMapper.class);
+            job.setCombinerClass(StripesCombiner.class);
+            job.setReducerClass(NormalizingStripesReducer.class);
+            Normalizer.addRatersOutput(job);
 
-        job.setMapperClass(MatrixGeneratorMapper.class);
-        job.setReducerClass(MatrixGeneratorReducer.class);
+            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputValueClass(StripeWritable.class);
+            job.setOutputValueClass(Text.class);
+        } else if ("stripes".equals(conf.get(MODE, "pairs"))) {
+            job.setMapperClass(StripesMapper.class);
+            job.setCombinerClass(StripesCombiner.class);
+            job.setReducerClass(StripesReducer.class);
+
+            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputValueClass(StripeWritable.class);
+            job.setOutputValueClass(IntWritable.class);
+        } else {
+            job.setMapperClass(MatrixGeneratorMapper.class);
+            job.setPartitionerClass(PrefixPartitioner.class);
+            job.setCombinerClass(MatrixGeneratorReducer.class);
+            job.setReducerClass(MatrixGeneratorReducer.class);
+            job.setOutputValueClass(IntWritable.class);
+        }
 
         job.setInputFormatClass(TextInputFormat.class);
         job.setOutputFormatClass(TextOutputFormat.class);
 
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(IntWritable.class);
 
         TextInputFormat.setInputPaths(job, new Path(args[0]));
         TextOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.waitForCompletion(true);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
@@ -1,5 +1,9 @@
 package recommender;
 
+import common.Compression;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
@@ -9,7 +13,9 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
 
@@ -27,6 +33,11 @@ import java.io.IOException;
  *          values: <movie1:rating1, movie2:rating2, movie3:rating3, ...>
  *     output: key: userid
  *           value: userid1:rating1,movie2:rating2,movie3:rating3,...
+ *
+ * 3. binary mode (recommender.intermediate.format=binary, see IntermediateFormat)
+ *      output: SequenceFile, key: IntWritable(userid)
+ *                          value: RatingVectorWritable([movie1, movie2, ...], [rating1, rating2, ...])
+ *    Note: concatenating vectors is associative, so the reducer is also the combiner
  * */
 
 public class DataDividerByUser { // 1st mapreduce job
@@ -38,64 +49,154 @@ public class DataDividerByUser { // 1st mapreduce job
 
     public static class DataDividerMapper extends Mapper<LongWritable, Text, IntWritable, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final IntWritable outputKey = new IntWritable();
+        private final Text outputValue = new Text();
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: user,movie,rating
             //           output: key: userid
             //                 value: movie1:rating1
-            String[] user_movie_rating = value.toString().trim().split(",");
-            int userID = Integer.parseInt(user_movie_rating[0]);
-            String movieId = user_movie_rating[1];
-            String rating = user_movie_rating[2];
-
-            context.write(new IntWritable(userID), new Text(movieId + ":" + rating));
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            outputKey.set(scanner.parseInt());
+            scanner.next(',');
+            scanner.copyTo(outputValue);
+            TextScanner.append(outputValue, ':');
+            scanner.next(',');
+            scanner.appendTo(outputValue);
+
+            context.write(outputKey, outputValue);
         }
     }
 
     public static class DataDividerReducer extends Reducer<IntWritable, Text, IntWritable, Text> {
 
+        private final Text outputValue = new Text();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
         @Override
         protected void reduce(IntWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
 
             // input:  key: userid
             //      values: <movie1:rating1, movie2:rating2, ...>
             // output: key: userid
-            //       value: ,movie1:rating1,movie2:rating2,...
-            StringBuilder sb = new StringBuilder();
-            while (values.iterator().hasNext()) {
-                sb.append("," + values.iterator().next());
+            //       value: movie1:rating1,movie2:rating2,...
+            outputValue.clear(); // keeps its capacity
+            int count = 0;
+            for (Text value : values) {
+                if (outputValue.getLength() > 0) {
+                    TextScanner.append(outputValue, ',');
+                }
+                outputValue.append(value.getBytes(), 0, value.getLength());
+                count++;
             }
-            context.write(key, new Text(sb.toString().replaceFirst(",",""))); // replace the 1st comma with empty
+            valuesPerKey.add(count);
+            context.write(key, outputValue);
         }
     }
 
-    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
+    public static class BinaryDataDividerMapper extends Mapper<LongWritable, Text, IntWritable, RatingVectorWritable> {
+
+        private final IntWritable outputKey = new IntWritable();
+        private final RatingVectorWritable outputValue = new RatingVectorWritable();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //           output: key: userid
+            //                 value: [movie1:rating1]
+            String[] user_movie_rating = value.toString().trim().split(",");
+            outputKey.set(Integer.parseInt(user_movie_rating[0]));
+            outputValue.clear();
+            outputValue.add(Integer.parseInt(user_movie_rating[1]), Float.parseFloat(user_movie_rating[2]));
+
+            context.write(outputKey, outputValue);
+        }
+    }
+
+    public static class BinaryDataDividerReducer extends Reducer<IntWritable, RatingVectorWritable, IntWritable, RatingVectorWritable> {
+
+        private final RatingVectorWritable outputValue = new RatingVectorWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context); // also the combiner: counts in reduce tasks only
+        }
+
+        @Override
+        protected void reduce(IntWritable key, Iterable<RatingVectorWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: userid
+            //      values: <[movie1:rating1], [movie2:rating2, movie3:rating3], ...>
+            // output: key: userid
+            //       value: [movie1:rating1, movie2:rating2, movie3:rating3, ...]
+            outputValue.clear();
+            int count = 0;
+            for (RatingVectorWritable value : values) {
+                outputValue.addAll(value);
+                count++;
+            }
+            valuesPerKey.add(count);
+            context.write(key, outputValue);
+        }
+    }
+
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        Configuration conf = new Configuration();
         Job job = Job.getInstance(conf);
         job.setJarByClass(DataDividerByUser.class);
+        Compression.configure(job);
+
+        if (IntermediateFormat.isBinary(conf)) {
+            job.setMapperClass(BinaryDataDividerMapper.class);
+            job.setCombinerClass(BinaryDataDividerReducer.class);
+            job.setReducerClass(BinaryDataDividerReducer.class);
 
-        // set mapper and reducer class
-        job.setMapperClass(DataDividerMapper.class);
-        job.setReducerClass(DataDividerReducer.class);
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
-        // set input and output format class                    // why set i/o format class?
-        job.setInputFormatClass(TextInputFormat.class);
-        job.setOutputFormatClass(TextOutputFormat.class);
+            job.setOutputKeyClass(IntWritable.class);
+            job.setOutputValueClass(RatingVectorWritable.class);
+        } else {
+            // set mapper and reducer class
+            job.setMapperClass(DataDividerMapper.class);
+            job.setReducerClass(DataDividerReducer.class);
 
-        // when the output classes of mapper & reducer are the same
-        // no need to setMapOutputKeyClass & setMapOutputValueClass
+            // set input and output format class                    // why set i/o format class?
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
 
-        // set (reducer) output key and value class
-        job.setOutputKeyClass(IntWritable.class);
-        job.setOutputValueClass(Text.class);
+            // when the output classes of mapper & reducer are the same
+            // no need to setMapOutputKeyClass & setMapOutputValueClass
+
+            // set (reducer) output key and value class
+            job.setOutputKeyClass(IntWritable.class);
+            job.setOutputValueClass(Text.class);
+        }
 
         // set input and output dir
         TextInputFormat.setInputPaths(job, new Path(args[0]));  // what's the difference between TextInputFormat & FileInputFormat???
         TextOutputFormat.setOutputPath(job, new Path(args[1])); // what's the difference between addInputPath & setInputPaths???
 
+        return job;
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
+
         // tell job to wait for completion
-        job.waitForCompletion(true);
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        createJob(conf, args).waitForCompletion(true);
     }
 
 
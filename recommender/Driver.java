@@ -1,5 +1,19 @@
 package recommender;
 
+import common.Compression;
+import common.JobGraph;
+import common.ParallelJobRunner;
+import common.RunReport;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /** Driver
  * 0. Task: Initialize mapreduce jobs' classes
  *          Specify which args go to where
@@ -12,6 +26,8 @@ package recommender;
  *      - 3rd mapreduce job (Normalizer): movie1:movie2\t2 co-occurrence matrix output dir, movie2\tmovie1=2/8 normalizer output dir
  *      - 4th mapreduce job (Multiplier): movie2\tmovie1=2/8 normalizer output dir, rawInputFile, user1:movie1\t10*2/8 multiplier output dir
  *      - 5th mapreduce job (Aggregator): user1:movie1\t10*2/8 multiplier output dir, user1:movie1\tsum aggregator output dir
+ *      - 6th mapreduce job (RecommendationExtractor, optional 7th arg): user1:movie1\tsum aggregator output dir, rawInputFile,
+ *                                                  user1\tmovie3:4.2,movie7:3.9 recommendation output dir
  *
  * 2. Summary
  * 1st mapreduce job: take raw input and assemble all movie rating pairs for a specific user (1 user / line)
@@ -27,21 +43,107 @@ package recommender;
  * Driver: initialize mapreduce jobs’ classes
  *            specify which args go to which job/class
  *            pass args to jobs’ main method
- * Postprocessing: filter out movies users already watched and extract topK for recommendation
+ * 6th mapreduce job: filter out movies users already watched and extract top N for recommendation (-Drecommender.topn=N)
+ *
+ * 3. Engines
+ *      - recommender.engine=mapreduce (default): run the five mapreduce jobs above
+ *      - recommender.engine=local: run the same math in this JVM (see LocalEngine); only rawInputFile and
+ *        the aggregator output dir are used, the output format is the same user1:movie1\tsum; options that change
+ *        what the jobs compute or write and that it does not implement (neighbor pruning, minhash, skew handling,
+ *        incremental mode, model export) are rejected, the other job options (stripes, triangle, binary, ...) only
+ *        change how the jobs get to the same matrix and are not needed
+ *      - recommender.engine=parallel: run the same jobs (every mode below) in this JVM with common.ParallelJobRunner:
+ *        map tasks and reduce partitions on -Drecommender.local.threads threads (default: all cores), in-memory
+ *        shuffle; outputs are the same dirs with one part file per partition
+ *      - pass it as a generic option: `hadoop jar recommender.jar recommender.Driver -Drecommender.engine=local ...`
+ *      - every other -Dkey=value is handed to all jobs through createJob(conf, args), e.g.
+ *        -Drecommender.cooccurrence.mode=stripes (see CoOccurrenceMatrixGenerator)
+ *      - -Drecommender.cooccurrence.normalize=true: the 2nd job writes movie2\tmovie1=2/8 itself, the 3rd job is
+ *        skipped and normalizerDir is left untouched
+ *      - -Drecommender.cooccurrence.triangle=true: the 2nd job writes the upper triangle only and the 3rd job mirrors
+ *        it back (see CoOccurrenceMatrixGenerator)
+ *      - -Drecommender.cooccurrence.max.history=N: a user with more than N movies only adds the pairs of a deterministic
+ *        sample of N of them to the matrix (-Drecommender.cooccurrence.history.sampling=hash or rating), so no user
+ *        costs more than N^2 pairs; -Drecommender.cooccurrence.activity.weight=W counts each pair of a user with n
+ *        movies W / n times instead of once (see HistorySampling); every engine, not with minhash or incremental mode
+ *      - -Drecommender.cooccurrence.mode=minhash: the 2nd job is replaced by MinHashCoOccurrence, which estimates the
+ *        counts of the strongly related pairs from MinHash signatures of every movie's raters (written to
+ *        coOccurrenceMatrixDir-signatures) and drops the weak ones; memory and shuffle grow with movies x hashes
+ *        instead of with the pairs; text mode without fused normalize or incremental mode
+ *      - -Drecommender.normalizer.topk=K (and min.count, min.weight, renormalize): keep only the strongest relations
+ *        of every movie (see NeighborPruning); not with the local engine
+ *      - -Drecommender.scoring=vector: UserScorer multiplies each user's row (1st job output) with the side-loaded
+ *        normalized matrix and writes user1:movie1\tsum to the aggregator output dir; the 4th and 5th jobs are
+ *        skipped and multiplierDir is left untouched
+ *      - -Drecommender.scoring.imputation=mean: score the movies a user hasn't seen as if rated with the user's average
+ *        rating instead of 0, applied as a per-user correction when the user's row is scored (see UserScorer), so
+ *        the rating matrix stays sparse; needs -Drecommender.scoring=vector or the local engine; with a
+ *        recommendation dir, the movies no rated movie relates to that can reach the top N are scored too
+ *      - -Drecommender.intermediate.format=binary: jobs 1-4 write SequenceFiles of int-keyed Writables instead of text
+ *        (see IntermediateFormat); needs integer ids and works with the default pairs/multiplier path only
+ *        with a recommendation dir, binary mode extracts the top N inside Aggregator (partitioned by user) and
+ *        the aggregator output dir is left untouched
+ *      - -Drecommender.multiplier.broadcast.max.bytes=B (default 64 MB): in text mode, a normalized matrix of at most
+ *        B bytes is shipped to every Multiplier mapper and joined with the ratings map-side, so the rating file
+ *        is not shuffled; a bigger matrix (or B=0) uses the reduce-side join (see Multiplier)
+ *      - -Drecommender.multiplier.skew.threshold=T: movies rated by >= T users are split over several Multiplier
+ *        reducers (see Multiplier), text mode only, for the reduce-side join, not in incremental mode
+ *      - -Drecommender.incremental.delta=deltaRatings -Drecommender.incremental.previous=coOccurrenceDir,normalizerDir:
+ *        rawInputFile is a dir of all ratings and deltaRatings one of its files; the 2nd and 3rd jobs are replaced by
+ *        IncrementalCoOccurrence, which updates the previous run's matrices with the delta only (delta pairs go to
+ *        coOccurrenceMatrixDir-delta);
+ *        the 1st job only runs for -Drecommender.scoring=vector
+ *      - -Drecommender.model.file=path: export the normalized matrix and the ratings to one binary file after the
+ *        pipeline (see ModelExporter), for RecommendationModel.recommend(user, k) in the serving tier; text mode only
+ *      - -Drecommender.dictionary.dir=dir: map raw user/movie ids to dense ints first (see IdDictionary), run every job
+ *        on the encoded ratings and print raw ids again in the last job's output
+ *      - -Dcompression.map.output=codec, -Dcompression.intermediate=codec, -Dcompression.final=codec: compress the
+ *        shuffle, the outputs read by a later job and the result (the last job's or the local engine's output) with
+ *        none (default), deflate, gzip or bzip2 (see common.Compression); a codec change alone does not invalidate
+ *        checkpoints, since either output reads the same
+ *      - -Drecommender.report=file: write a JSON run report (see common.RunReport) with the wall time, record and byte
+ *        counts, skipped lines and values-per-key histogram of every job; written even when a job fails
  *
- * 3. Refactor
- *      - in rawInputFile, for movies that a user hasn't yet seen, consider using that user's average rating in place of 0
+ * 4. Scheduling (see common.JobGraph)
+ *      - the jobs are stages of a graph: each declares its input and output paths and runs once the stages writing
+ *        its inputs are done; independent stages run at the same time (-Drecommender.pipeline.threads=2), e.g. the
+ *        model export next to Multiplier/Aggregator, DataDividerByUser next to IncrementalCoOccurrence
+ *      - a failed job stops the pipeline (no stage starts after it) and the driver throws
+ *      - every completed stage leaves a _<output>.checkpoint marker next to its output; a re-run skips the stages whose
+ *        inputs and recommender.* options are unchanged and whose outputs exist, so after a late failure only the
+ *        failed stage and the ones after it run again. Stages that do run replace their outputs, if those carry a
+ *        marker; an existing output dir without one is not touched and the stage fails
+ *      - -Drecommender.pipeline.resume=false: run every stage, outputs must not exist
  * */
 
 public class Driver {
 
+    public static final String ENGINE = "recommender.engine";
+    public static final String REPORT = "recommender.report";
+    public static final String RESUME = "recommender.pipeline.resume";
+    public static final String PIPELINE_THREADS = "recommender.pipeline.threads";
+
     public static void main(String[] args) throws Exception {
 
-        DataDividerByUser dataDividerByUser = new DataDividerByUser();
-        CoOccurrenceMatrixGenerator coOccurrenceMatrixGenerator = new CoOccurrenceMatrixGenerator();
-        Normalizer normalizer = new Normalizer();
-        Multiplier multiplier = new Multiplier();
-        Aggregator aggregator = new Aggregator();
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        RunReport report = new RunReport("recommender", args);
+        boolean succeeded = false;
+        try {
+            run(conf, args, report);
+            succeeded = true;
+        } finally {
+            report.finish(succeeded);
+            if (conf.get(REPORT) != null) {
+                report.write(conf, new Path(conf.get(REPORT)));
+            }
+        }
+
+    }
+
+    // runs the pipeline for args (see 1. args) as a JobGraph; every job goes through report
+    public static void run(Configuration conf, String[] args, RunReport report) throws Exception {
 
         String rawInput = args[0];
         String userMovieListOutputDir = args[1];
@@ -49,23 +151,293 @@ public class Driver {
         String normalizerDir = args[3];
         String multiplierDir = args[4];
         String aggregatorDir = args[5];
+        String recommendationDir = args.length > 6 ? args[6] : null;
+        if (recommendationDir != null) {
+            int topN = RecommendationExtractor.topN(conf); // before the first job runs
+            if (UserScorer.isMeanImputation(conf)) {
+                // movies the scoring jobs leave unwritten still score the user's mean and can make the top N
+                conf.setInt(UserScorer.CANDIDATES, topN);
+            }
+        }
 
-        String[] path1 = {rawInput, userMovieListOutputDir};
-        String[] path2 = {userMovieListOutputDir, coOccurrenceMatrixDir};
-        String[] path3 = {coOccurrenceMatrixDir, normalizerDir};
-        String[] path4 = {normalizerDir, rawInput, multiplierDir};
-        String[] path5 = {multiplierDir, aggregatorDir};
+        if ("parallel".equals(conf.get(ENGINE))) {
+            // same jobs, run in this JVM
+            report.runIn(new ParallelJobRunner(conf.getInt(LocalEngine.THREADS, Runtime.getRuntime().availableProcessors())));
+        }
+        JobGraph graph = new JobGraph(conf, report, "recommender.", conf.getInt(PIPELINE_THREADS, 2),
+                conf.getBoolean(RESUME, true), REPORT, PIPELINE_THREADS, RESUME, LocalEngine.THREADS,
+                ModelExporter.MODEL_FILE);
+
+        // the last job prints raw ids when the pipeline runs on dictionary-encoded ids, its output is the result
+        Configuration lastJobConf = Compression.finalOutput(conf);
+        String dictionaryDir = conf.get(IdDictionary.DICTIONARY);
 
-        // pass cmd args to classes' main method
-        dataDividerByUser.main(path1);
-        coOccurrenceMatrixGenerator.main(path2);
-        normalizer.main(path3);
-        multiplier.main(path4);
-        aggregator.main(path5);
+        if ("local".equals(conf.get(ENGINE, "mapreduce"))) {
+            checkLocalEngine(conf);
+            // indexes ids itself, no dictionary needed
+            final Configuration localConf = conf;
+            final String localInput = rawInput;
+            final String localOutput = aggregatorDir;
+            graph.add("LocalEngine", conf, new String[] {rawInput}, new String[] {aggregatorDir}, new JobGraph.Step() {
+                @Override
+                public boolean run(RunReport report) throws Exception {
+                    new LocalEngine(localConf).run(localInput, localOutput);
+                    return true;
+                }
+            });
+        } else {
+            if (dictionaryDir != null) {
+                String dictionary = dictionaryDir + "/dictionary";
+                String encodedInput = dictionaryDir + "/ratings";
+                graph.add("IdDictionary.build", conf, new String[] {rawInput}, new String[] {dictionary},
+                        new JobStep(conf, new String[] {rawInput, dictionary}) {
+                            @Override
+                            Job createJob() throws IOException {
+                                return IdDictionary.createBuildJob(jobConf, jobArgs);
+                            }
+                        });
+                graph.add("IdDictionary.encode", conf, new String[] {rawInput, dictionary}, new String[] {encodedInput},
+                        new JobStep(conf, new String[] {rawInput, dictionary, encodedInput}) {
+                            @Override
+                            Job createJob() throws IOException {
+                                return IdDictionary.createEncodeJob(jobConf, jobArgs);
+                            }
+                        });
+
+                rawInput = encodedInput;
+                lastJobConf.set(IdDictionary.DECODE, dictionary);
+            }
+
+            if (IntermediateFormat.isBinary(conf) && recommendationDir != null) {
+                // Aggregator is partitioned by user and extracts the top N itself, no 6th job
+                conf.setBoolean(RecommendationExtractor.FUSED, true);
+                lastJobConf.setBoolean(RecommendationExtractor.FUSED, true);
+                addJobs(graph, conf, lastJobConf, rawInput, userMovieListOutputDir, coOccurrenceMatrixDir, normalizerDir,
+                        multiplierDir, recommendationDir);
+                graph.run();
+                return;
+            }
+            Configuration scoringConf = recommendationDir == null ? lastJobConf : conf;
+            addJobs(graph, conf, scoringConf, rawInput, userMovieListOutputDir, coOccurrenceMatrixDir, normalizerDir,
+                    multiplierDir, aggregatorDir);
+
+            String modelFile = conf.get(ModelExporter.MODEL_FILE);
+            if (modelFile != null) {
+                // only needs the matrix: runs next to the scoring jobs
+                final Configuration exportConf = conf;
+                final Path matrixDir = new Path(CoOccurrenceMatrixGenerator.isNormalizing(conf) ? coOccurrenceMatrixDir
+                        : normalizerDir);
+                final Path ratings = new Path(rawInput);
+                final Path model = new Path(modelFile);
+                graph.add("ModelExporter", conf, new String[] {matrixDir.toString(), rawInput}, new String[] {modelFile},
+                        new JobGraph.Step() {
+                            @Override
+                            public boolean run(RunReport report) throws Exception {
+                                ModelExporter.export(exportConf, matrixDir, ratings, model);
+                                return true;
+                            }
+                        });
+            }
+        }
 
         // filter out movies the user already watched
         // extract top N movies
+        if (recommendationDir != null) {
+            String[] path6 = {aggregatorDir, rawInput, recommendationDir};
+            graph.add("RecommendationExtractor", lastJobConf, new String[] {aggregatorDir, rawInput},
+                    new String[] {recommendationDir}, new JobStep(lastJobConf, path6) {
+                        @Override
+                        Job createJob() throws IOException {
+                            return RecommendationExtractor.createJob(jobConf, jobArgs);
+                        }
+                    });
+        }
+
+        graph.run();
+
+    }
+
+    // a stage of one job: the job is only created when the stage runs, after the jobs it reads from
+    private abstract static class JobStep implements JobGraph.Step {
+
+        final Configuration jobConf;
+        final String[] jobArgs;
+
+        JobStep(Configuration jobConf, String[] jobArgs) {
+            this.jobConf = jobConf;
+            this.jobArgs = jobArgs;
+        }
+
+        abstract Job createJob() throws IOException;
+
+        @Override
+        public boolean run(RunReport report) throws Exception {
+            return report.run(createJob());
+        }
+    }
+
+    // options the local engine would silently ignore
+    private static void checkLocalEngine(Configuration conf) {
+        List<String> unsupported = new ArrayList<String>();
+        if (new NeighborPruning(conf).isEnabled()) {
+            unsupported.add("neighbor pruning (" + NeighborPruning.TOP_K + ", " + NeighborPruning.MIN_COUNT + ", "
+                    + NeighborPruning.MIN_WEIGHT + ")");
+        }
+        if (MinHashCoOccurrence.isMinHash(conf)) {
+            unsupported.add(CoOccurrenceMatrixGenerator.MODE + "=minhash");
+        }
+        if (Multiplier.skewThreshold(conf) > 0) {
+            unsupported.add(Multiplier.SKEW_THRESHOLD);
+        }
+        if (conf.getTrimmedStrings(IncrementalCoOccurrence.PREVIOUS).length > 0) {
+            unsupported.add(IncrementalCoOccurrence.PREVIOUS);
+        }
+        if (conf.get(ModelExporter.MODEL_FILE) != null) {
+            unsupported.add(ModelExporter.MODEL_FILE);
+        }
+        if (!unsupported.isEmpty()) {
+            throw new IllegalArgumentException("the local engine does not implement " + unsupported
+                    + ": use -D" + ENGINE + "=mapreduce or parallel");
+        }
+    }
+
+    // scoringConf: conf of the job that writes the aggregator output dir (Aggregator or UserScorer)
+    private static void addJobs(JobGraph graph, Configuration conf, Configuration scoringConf, String rawInput,
+                                String userMovieListOutputDir, String coOccurrenceMatrixDir, String normalizerDir,
+                                String multiplierDir, String aggregatorDir) throws IOException {
+
+        if (IntermediateFormat.isBinary(conf) && (CoOccurrenceMatrixGenerator.isNormalizing(conf)
+                || UserScorer.isVectorScoring(conf) || "stripes".equals(conf.get(CoOccurrenceMatrixGenerator.MODE)))) {
+            throw new IllegalArgumentException("binary intermediate format only supports the pairs/multiplier pipeline");
+        }
+        if (IntermediateFormat.isBinary(conf) && conf.get(ModelExporter.MODEL_FILE) != null) {
+            throw new IllegalArgumentException("model export reads the text normalized matrix");
+        }
+        if (IntermediateFormat.isBinary(conf)) { // jobs 1-4 write SequenceFiles
+            Compression.checkBinaryCodec(conf, Compression.INTERMEDIATE);
+        }
+        if (CoOccurrenceMatrixGenerator.isTriangle(conf) && CoOccurrenceMatrixGenerator.isNormalizing(conf)) {
+            throw new IllegalArgumentException("fused normalize needs whole rows, not the upper triangle");
+        }
+        if (UserScorer.isMeanImputation(conf) && !UserScorer.isVectorScoring(conf)) {
+            // Multiplier only sees one movie2 per reduce call, never the user's whole row
+            throw new IllegalArgumentException("mean imputation needs vector scoring or the local engine");
+        }
+        final String[] previous = conf.getTrimmedStrings(IncrementalCoOccurrence.PREVIOUS);
+        boolean incremental = previous.length > 0;
+        if (MinHashCoOccurrence.isMinHash(conf) && (incremental || IntermediateFormat.isBinary(conf)
+                || CoOccurrenceMatrixGenerator.isNormalizing(conf))) {
+            throw new IllegalArgumentException("minhash mode writes the text co-occurrence matrix: no incremental mode,"
+                    + " binary format or fused normalize");
+        }
+        if (HistorySampling.isEnabled(conf) && (incremental || MinHashCoOccurrence.isMinHash(conf))) {
+            // delta pairs would be counted from the whole history; signatures cost no pairs
+            throw new IllegalArgumentException("bounded histories and activity weights need the pairs or stripes mode");
+        }
+        if (MinHashCoOccurrence.isMinHash(conf)) {
+            MinHashCoOccurrence.rows(conf); // hashes and bands are checked before the first job runs
+        }
+        if (incremental && (previous.length != 2 || conf.get(IncrementalCoOccurrence.DELTA) == null
+                || IntermediateFormat.isBinary(conf) || CoOccurrenceMatrixGenerator.isNormalizing(conf)
+                || CoOccurrenceMatrixGenerator.isTriangle(conf) || conf.get(IdDictionary.DICTIONARY) != null)) {
+            throw new IllegalArgumentException("incremental mode needs a delta, the previous co-occurrence and normalizer dirs"
+                    + " and the text pipeline without fused normalize, upper triangle or dictionary");
+        }
+        if (incremental && Multiplier.skewThreshold(conf) > 0) {
+            // the renormalize job only sees the changed rows: no _raters/ side output for the skew-handling Multiplier
+            throw new IllegalArgumentException("incremental mode does not support " + Multiplier.SKEW_THRESHOLD);
+        }
+        if (incremental) {
+            IncrementalCoOccurrence.historyFiles(conf, rawInput, conf.get(IncrementalCoOccurrence.DELTA));
+        }
+
+        String[] path1 = {rawInput, userMovieListOutputDir};
+        String[] path2 = {userMovieListOutputDir, coOccurrenceMatrixDir};
+        String[] path3 = {coOccurrenceMatrixDir, normalizerDir};
+        // co-occurrence job may already have written the normalized, transposed matrix
+        String matrixDir = CoOccurrenceMatrixGenerator.isNormalizing(conf) ? coOccurrenceMatrixDir : normalizerDir;
+        String[] path4 = {matrixDir, rawInput, multiplierDir};
+        String[] path5 = {multiplierDir, aggregatorDir};
 
+        // pass cmd args (and generic options) to the jobs; the order follows from the paths
+        if (!incremental || UserScorer.isVectorScoring(conf)) {
+            graph.add("DataDividerByUser", conf, new String[] {rawInput}, new String[] {userMovieListOutputDir},
+                    new JobStep(conf, path1) {
+                        @Override
+                        Job createJob() throws IOException {
+                            return DataDividerByUser.createJob(jobConf, jobArgs);
+                        }
+                    });
+        }
+        if (incremental) {
+            // independent of DataDividerByUser: both run at the same time
+            final Configuration incrementalConf = conf;
+            final String[] incrementalPath = {rawInput, conf.get(IncrementalCoOccurrence.DELTA), previous[0], previous[1],
+                    coOccurrenceMatrixDir + "-delta", coOccurrenceMatrixDir, normalizerDir};
+            graph.add("IncrementalCoOccurrence", conf, Arrays.copyOfRange(incrementalPath, 0, 4),
+                    Arrays.copyOfRange(incrementalPath, 4, 7), new JobGraph.Step() {
+                        @Override
+                        public boolean run(RunReport report) throws Exception {
+                            return IncrementalCoOccurrence.run(incrementalConf, incrementalPath, report);
+                        }
+                    });
+        } else {
+            if (MinHashCoOccurrence.isMinHash(conf)) {
+                // the matrix comes first: it names the checkpoint marker
+                final Configuration minHashConf = conf;
+                final String[] minHashPath = {userMovieListOutputDir, coOccurrenceMatrixDir + "-signatures",
+                        coOccurrenceMatrixDir};
+                graph.add("MinHashCoOccurrence", conf, new String[] {userMovieListOutputDir},
+                        new String[] {coOccurrenceMatrixDir, coOccurrenceMatrixDir + "-signatures"}, new JobGraph.Step() {
+                            @Override
+                            public boolean run(RunReport report) throws Exception {
+                                return MinHashCoOccurrence.run(minHashConf, minHashPath, report);
+                            }
+                        });
+            } else {
+                graph.add("CoOccurrenceMatrixGenerator", conf, new String[] {userMovieListOutputDir},
+                        new String[] {coOccurrenceMatrixDir}, new JobStep(conf, path2) {
+                            @Override
+                            Job createJob() throws IOException {
+                                return CoOccurrenceMatrixGenerator.createJob(jobConf, jobArgs);
+                            }
+                        });
+            }
+            if (!CoOccurrenceMatrixGenerator.isNormalizing(conf)) {
+                graph.add("Normalizer", conf, new String[] {coOccurrenceMatrixDir}, new String[] {normalizerDir},
+                        new JobStep(conf, path3) {
+                            @Override
+                            Job createJob() throws IOException {
+                                return Normalizer.createJob(jobConf, jobArgs);
+                            }
+                        });
+            }
+        }
+        if (UserScorer.isVectorScoring(conf)) {
+            String[] scorerPath = {userMovieListOutputDir, matrixDir, aggregatorDir};
+            graph.add("UserScorer", scoringConf, new String[] {userMovieListOutputDir, matrixDir},
+                    new String[] {aggregatorDir}, new JobStep(scoringConf, scorerPath) {
+                        @Override
+                        Job createJob() throws IOException {
+                            return UserScorer.createJob(jobConf, jobArgs);
+                        }
+                    });
+        } else {
+            graph.add("Multiplier", conf, new String[] {matrixDir, rawInput}, new String[] {multiplierDir},
+                    new JobStep(conf, path4) {
+                        @Override
+                        Job createJob() throws IOException {
+                            return Multiplier.createJob(jobConf, jobArgs);
+                        }
+                    });
+            graph.add("Aggregator", scoringConf, new String[] {multiplierDir}, new String[] {aggregatorDir},
+                    new JobStep(scoringConf, path5) {
+                        @Override
+                        Job createJob() throws IOException {
+                            return Aggregator.createJob(jobConf, jobArgs);
+                        }
+                    });
+        }
     }
 
 }
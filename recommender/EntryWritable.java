@@ -0,0 +1,70 @@
+package recommender;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** One tagged (id, value) cell of the Multiplier join
+ *  - RELATION: id = movie1, value = relation(movie1, movie2); text equivalent: movie1=2/8
+ *  - RATING:   id = user,   value = rating of movie2;         text equivalent: user1:10
+ *  - the tag replaces the "=" vs ":" check that the text reducer does on every value
+ *  - serialized as: byte tag, vint id, double value
+ * */
+
+public class EntryWritable implements Writable {
+
+    public static final byte RELATION = 0;
+    public static final byte RATING = 1;
+
+    private byte tag;
+    private int id;
+    private double value;
+
+    public EntryWritable() {
+    }
+
+    public EntryWritable(byte tag, int id, double value) {
+        set(tag, id, value);
+    }
+
+    public void set(byte tag, int id, double value) {
+        this.tag = tag;
+        this.id = id;
+        this.value = value;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(tag);
+        WritableUtils.writeVInt(out, id);
+        out.writeDouble(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        tag = in.readByte();
+        id = WritableUtils.readVInt(in);
+        value = in.readDouble();
+    }
+
+    @Override
+    public String toString() {
+        return tag == RELATION ? id + "=" + value : id + ":" + value;
+    }
+
+}
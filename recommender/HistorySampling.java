@@ -0,0 +1,145 @@
+package recommender;
+
+import common.TextScanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Bounded user histories for the co-occurrence mappers (see CoOccurrenceMatrixGenerator)
+ *
+ *  - a user with n movies adds n^2 cells: one power user or bot with 20,000 ratings emits 400 million pairs
+ *  - recommender.cooccurrence.max.history=N: a longer history is cut down to N movies before its pairs are emitted,
+ *    so no user costs more than N^2 pairs; 0 (default) keeps every movie
+ *  - recommender.cooccurrence.history.sampling:
+ *      hash (default): keep the N movies of smallest hash(user, movie), a uniform sample that is the same in every
+ *                      run, mapper and format (ids are hashed as text)
+ *      rating:         keep the N highest-rated movies, ties broken by the same hash
+ *    the ratings carry no time, so there is no recency order to truncate by
+ *  - recommender.cooccurrence.activity.weight=W: every pair of a user with n (kept) movies counts max(1, round(W / n))
+ *    instead of 1, so each user adds about W to every row it touches, whatever its history length; 0 (default)
+ *    counts users. Normalization divides by the row sum, so only the ratios of the weights matter: W well above N
+ *    keeps them apart. The diagonal, NeighborPruning's min.count and the skew threshold then compare weights, not users
+ *  - the scoring jobs still use every rating of the user; only the matrix is built from the sample
+ * */
+
+public class HistorySampling {
+
+    public static final String MAX_HISTORY = "recommender.cooccurrence.max.history";
+    public static final String SAMPLING = "recommender.cooccurrence.history.sampling";
+    public static final String ACTIVITY_WEIGHT = "recommender.cooccurrence.activity.weight";
+
+    private final int maxHistory;
+    private final boolean byRating;
+    private final int activityWeight;
+    private final TextScanner ratingScanner = new TextScanner();
+
+    // the history being sampled: priorities in movie order, lower is kept first
+    private int user;
+    private int size;
+    private long[] priorities = new long[16];
+    private long[] sorted = new long[16];
+    private boolean[] kept = new boolean[16];
+
+    public HistorySampling(Configuration conf) {
+        maxHistory = conf.getInt(MAX_HISTORY, 0);
+        String sampling = conf.get(SAMPLING, "hash");
+        if (!"hash".equals(sampling) && !"rating".equals(sampling)) {
+            throw new IllegalArgumentException(SAMPLING + "=" + sampling + ": must be hash or rating");
+        }
+        byRating = "rating".equals(sampling);
+        activityWeight = conf.getInt(ACTIVITY_WEIGHT, 0);
+    }
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getInt(MAX_HISTORY, 0) > 0 || conf.getInt(ACTIVITY_WEIGHT, 0) > 0;
+    }
+
+    // true when a history of size movies has to be sampled
+    public boolean isCapped(int size) {
+        return maxHistory > 0 && size > maxHistory;
+    }
+
+    public boolean byRating() {
+        return byRating;
+    }
+
+    // count of every pair of a user who keeps size movies
+    public int weight(int size) {
+        return activityWeight > 0 ? (int) Math.max(1, Math.round((double) activityWeight / size)) : 1;
+    }
+
+    // starts the history of the user with hash user
+    public void begin(int user) {
+        this.user = user;
+        size = 0;
+    }
+
+    // the next movie of the history; rating is only used by rating sampling
+    public void add(int movie, float rating) {
+        if (size == priorities.length) {
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        long hash = MinHashCoOccurrence.mix(user ^ MinHashCoOccurrence.mix(movie)) & 0x7fffffffL;
+        if (!byRating) {
+            priorities[size++] = hash;
+            return;
+        }
+        int bits = Float.floatToIntBits(rating);
+        int ascending = bits ^ ((bits >> 31) & 0x7fffffff); // same order as the floats, as signed ints
+        long descending = (~ascending ^ 0x80000000) & 0xffffffffL; // highest rating first, as unsigned
+        priorities[size++] = descending << 31 | hash;
+    }
+
+    // marks the kept movies of the history (see keeps), returns how many
+    public int select() {
+        if (kept.length < size) {
+            kept = new boolean[priorities.length];
+            sorted = new long[priorities.length];
+        }
+        if (!isCapped(size)) {
+            Arrays.fill(kept, 0, size, true);
+            return size;
+        }
+        System.arraycopy(priorities, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        long threshold = sorted[maxHistory - 1];
+        int ties = 0; // movies with the threshold's priority that still fit
+        for (int i = 0; i < maxHistory; i++) {
+            if (sorted[i] == threshold) {
+                ties++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            kept[i] = priorities[i] < threshold || (priorities[i] == threshold && ties-- > 0);
+        }
+        return maxHistory;
+    }
+
+    // true when the i-th movie of the history is kept
+    public boolean keeps(int i) {
+        return kept[i];
+    }
+
+    // hash of an id as text
+    public static int hash(byte[] bytes, int start, int length) {
+        return WritableComparator.hashBytes(bytes, start, length);
+    }
+
+    // hash of an int id: the same as the hash of its text
+    public static int hash(int id) {
+        byte[] digits = Integer.toString(id).getBytes(StandardCharsets.UTF_8);
+        return WritableComparator.hashBytes(digits, 0, digits.length);
+    }
+
+    // rating of a movie1:rating1 field, bytes [colon + 1, end); 0 when there is none or for hash sampling
+    public float rating(byte[] bytes, int colon, int end) {
+        if (!byRating || colon < 0) {
+            return 0;
+        }
+        ratingScanner.reset(bytes, colon + 1, end).next(',');
+        return (float) ratingScanner.parseDouble();
+    }
+
+}
@@ -0,0 +1,258 @@
+package recommender;
+
+import common.Compression;
+import common.LocalTasks;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Pre-pass: dense integer id dictionary for users and movies
+ * 0. Task: map raw user/movie ids (any string) to dense ints 0..n-1, so every later job works on small int ids
+ *    rawInput format: user,movie,rating
+ *      output format: dictionary: u\tuser\t0, m\tmovie\t0, ... (one line per distinct id)
+ *                     ratings:    0,17,rating (same layout as rawInput, ids replaced)
+ *
+ * 1. build job (one reducer)
+ *      mapper:   user,movie,rating -> key: u\tuser, key: m\tmovie (no value)
+ *      combiner: drop duplicate keys
+ *      reducer:  keys arrive sorted, so user ids / movie ids are numbered in sorted raw id order
+ *                output: u\tuser\t0, u\tuser2\t1, ..., m\tmovie\t0, ...
+ *
+ * 2. encode job (map-only)
+ *      setup:  load the dictionary
+ *      mapper: user,movie,rating -> 0,17,rating
+ *
+ * 3. decode
+ *      - the job that writes the final output loads the dictionary (recommender.dictionary.decode = dictionary dir)
+ *        and prints raw ids again; every job before it only sees ints
+ *      - with -Drecommender.intermediate.format=binary this turns every key of the pipeline into an int,
+ *        whatever the raw ids look like
+ *
+ * 4. Configuration
+ *      - build:  args[0]: rawInputFile, args[1]: dictionary output dir
+ *      - encode: args[0]: rawInputFile, args[1]: dictionary dir, args[2]: encoded ratings output dir
+ *      - Driver runs both jobs with -Drecommender.dictionary.dir=dir (writes dir/dictionary and dir/ratings) and then
+ *        feeds dir/ratings to the pipeline instead of rawInputFile
+ * */
+
+public class IdDictionary {
+
+    public static final String DICTIONARY = "recommender.dictionary.dir";
+    public static final String ENCODE = "recommender.dictionary.encode";
+    public static final String DECODE = "recommender.dictionary.decode";
+
+    private static final String USER = "u";
+    private static final String MOVIE = "m";
+
+    public static class DictionaryMapper extends Mapper<LongWritable, Text, Text, NullWritable> {
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //       output key: u\tuser
+            //              key: m\tmovie
+            String[] user_movie_rating = value.toString().trim().split(",");
+            if (user_movie_rating.length != 3) { // bad input
+                return;
+            }
+            context.write(new Text(USER + "\t" + user_movie_rating[0]), NullWritable.get());
+            context.write(new Text(MOVIE + "\t" + user_movie_rating[1]), NullWritable.get());
+        }
+
+    }
+
+    public static class DistinctCombiner extends Reducer<Text, NullWritable, Text, NullWritable> {
+
+        @Override
+        protected void reduce(Text key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+            context.write(key, NullWritable.get());
+        }
+
+    }
+
+    public static class DictionaryReducer extends Reducer<Text, NullWritable, Text, IntWritable> {
+
+        private int users;
+        private int movies;
+
+        @Override
+        protected void reduce(Text key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: u\tuser (sorted, one reducer sees every id)
+            // output: key: u\tuser
+            //       value: next dense user id
+            int id = key.toString().startsWith(USER + "\t") ? users++ : movies++;
+            context.write(key, new IntWritable(id));
+        }
+
+    }
+
+    public static class EncodeMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+
+        private IdDictionary dictionary;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            dictionary = load(conf, new Path(conf.get(ENCODE)));
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //           output: userId,movieId,rating
+            String[] user_movie_rating = value.toString().trim().split(",");
+            if (user_movie_rating.length != 3) { // bad input
+                return;
+            }
+            int user = dictionary.userId(user_movie_rating[0]);
+            int movie = dictionary.movieId(user_movie_rating[1]);
+            context.write(NullWritable.get(), new Text(user + "," + movie + "," + user_movie_rating[2]));
+        }
+
+    }
+
+    private final Map<String, Integer> userIds = new HashMap<String, Integer>();
+    private final Map<String, Integer> movieIds = new HashMap<String, Integer>();
+    private final List<String> users = new ArrayList<String>();
+    private final List<String> movies = new ArrayList<String>();
+
+    public static IdDictionary load(Configuration conf, Path dir) throws IOException {
+        IdDictionary dictionary = new IdDictionary();
+        for (Path file : LocalTasks.listInputFiles(dir, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // u\tuser\t0 or m\tmovie\t0
+                    String[] type_raw_id = line.split("\t");
+                    if (type_raw_id.length != 3) {
+                        continue;
+                    }
+                    int id = Integer.parseInt(type_raw_id[2]);
+                    if (USER.equals(type_raw_id[0])) {
+                        put(dictionary.userIds, dictionary.users, type_raw_id[1], id);
+                    } else {
+                        put(dictionary.movieIds, dictionary.movies, type_raw_id[1], id);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return dictionary;
+    }
+
+    private static void put(Map<String, Integer> ids, List<String> raw, String rawId, int id) {
+        ids.put(rawId, id);
+        while (raw.size() <= id) {
+            raw.add(null);
+        }
+        raw.set(id, rawId);
+    }
+
+    // the dictionary to print raw ids with, or null when the job's output stays encoded
+    public static IdDictionary decoder(Configuration conf) throws IOException {
+        String dir = conf.get(DECODE);
+        return dir == null ? null : load(conf, new Path(dir));
+    }
+
+    public int userId(String user) {
+        return userIds.get(user);
+    }
+
+    public int movieId(String movie) {
+        return movieIds.get(movie);
+    }
+
+    public String user(String userId) {
+        return users.get(Integer.parseInt(userId));
+    }
+
+    public String movie(String movieId) {
+        return movies.get(Integer.parseInt(movieId));
+    }
+
+    // user1:movie1 with encoded ids -> user1:movie1 with raw ids
+    public String decodeUserMovie(String userMovie) {
+        int colon = userMovie.indexOf(':');
+        return user(userMovie.substring(0, colon)) + ":" + movie(userMovie.substring(colon + 1));
+    }
+
+    public static Job createBuildJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(IdDictionary.class);
+        Compression.configure(job);
+
+        job.setMapperClass(DictionaryMapper.class);
+        job.setCombinerClass(DistinctCombiner.class);
+        job.setReducerClass(DictionaryReducer.class);
+        job.setNumReduceTasks(1); // ids are numbered by one reducer over the sorted keys
+
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(NullWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+
+        TextInputFormat.setInputPaths(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        return job;
+    }
+
+    public static Job createEncodeJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(IdDictionary.class);
+        Compression.configure(job);
+        job.getConfiguration().set(ENCODE, args[1]);
+
+        job.setMapperClass(EncodeMapper.class);
+        job.setNumReduceTasks(0);
+
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        TextInputFormat.setInputPaths(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // args[0]: rawInputFile, args[1]: dictionary output dir, args[2]: encoded ratings output dir
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (createBuildJob(conf, new String[] {args[0], args[1]}).waitForCompletion(true)) {
+            createEncodeJob(conf, args).waitForCompletion(true);
+        }
+
+    }
+
+}
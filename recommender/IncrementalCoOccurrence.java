@@ -0,0 +1,595 @@
+package recommender;
+
+import common.Compression;
+import common.IntList;
+import common.LocalTasks;
+import common.RunReport;
+import common.StageCounter;
+import common.TextScanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Incremental replacement of the 2nd and 3rd mapreduce jobs
+ * 0. Task: update yesterday's co-occurrence matrix and normalized matrix with a delta of new ratings, instead of
+ *          recomputing both from the whole rating history
+ *    rawInput format: user,movie,rating (all ratings, delta included), user,movie,rating (delta only)
+ *                     movie1:movie2\t2 (previous co-occurrence matrix), movie2\tmovie1=2/8 (previous normalized matrix)
+ *      output format: movie1:movie2\t2 (new co-occurrence matrix), movie2\tmovie1=2/8 (new normalized matrix)
+ *    Note: a user who watched S = H + N (H: history, N: new movies of the delta) adds every pair of S x S to the matrix;
+ *          H x H is already counted, so the delta of the matrix is N x H + H x N + N x N
+ *
+ * 1. delta pairs job
+ *      mapper1 (history): input line value: user,movie,rating (rawInput minus the delta files)
+ *                                   output: key: user, value: movie
+ *              only users of the delta are emitted (the delta is small, its users are loaded in setup()), so the
+ *              shuffle scales with the delta, not with the history
+ *      mapper2 (delta):   input line value: user,movie,rating
+ *                                   output: key: user, value: +movie
+ *      reducer:  input: key: user
+ *                    values: <movie1, movie2, +movie3, +movie1, ...>
+ *               output: key: movie3:movie1, value: 1 (N x H, H x N and N x N)
+ *    Note: H and N are multisets, as in the full run every rating line counts: a movie rated again in the delta, or
+ *          twice in one file, adds its pairs once more
+ *
+ * 2. merge job
+ *      mapper1 (previous matrix): movie1:movie2\t2 -> key: movie1, value: movie2=2 (Normalizer's mapper)
+ *      mapper2 (delta pairs):     movie3:movie1\t1 -> key: movie3, value: +movie1=1
+ *      combiner: sums the +cells of a row, previous cells are passed through
+ *      reducer:  input: key: movie1
+ *                    values: <movie1=2, movie2=4, +movie2=1, ...>
+ *               output: key: movie1:movie2, value: 5 (whole row, every row)
+ *               a row that got a +cell is written to the hidden _changed/ dir of the output
+ *
+ * 3. renormalize job
+ *      mapper1 (new matrix):          only the changed rows, same output as Normalizer's mapper
+ *      mapper2 (previous normalized): movie2\tmovie1=2/8 of an unchanged row movie1 is copied as is (unchanged-m-*)
+ *      reducer: Normalizer's reducer, so only the changed rows are normalized again
+ *    Note: the output dir holds the copied cells and the renormalized rows, both read by every later job
+ *
+ * 4. Configuration
+ *      - args[0]: rawInputFile (dir of all ratings), args[1]: delta ratings (one of the files of args[0])
+ *        history and delta are told apart by file: a delta that is not a file of args[0], or all of it, is rejected
+ *        before any job runs (historyFiles)
+ *        args[2]: previous co-occurrence matrix dir, args[3]: previous normalizer dir
+ *        args[4]: delta pairs output dir, args[5]: co-occurrence matrix output dir, args[6]: normalizer output dir
+ *      - Driver runs these jobs instead of the 2nd and 3rd with
+ *        -Drecommender.incremental.delta=deltaRatings -Drecommender.incremental.previous=coOccurrenceDir,normalizerDir
+ *      - the previous dirs must come from a text run without fused normalize (the counts are needed), and the ids must
+ *        be stable between runs (no dictionary)
+ *      - the renormalize job writes no _raters/ side output, so Driver rejects recommender.skew.threshold in
+ *        incremental mode
+ * */
+
+public class IncrementalCoOccurrence {
+
+    public static final String DELTA = "recommender.incremental.delta";
+    public static final String PREVIOUS = "recommender.incremental.previous";
+    // changed rows dir, set by createRenormalizeJob
+    static final String CHANGED_ROWS = "recommender.incremental.changed";
+
+    static final String CHANGED = "changed";
+    static final String CHANGED_DIR = "_changed";
+    static final String UNCHANGED = "unchanged";
+
+    public static class HistoryMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+        private Set<Text> deltaUsers;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            deltaUsers = new HashSet<Text>();
+            Text line = new Text();
+            for (Path file : LocalTasks.listInputFiles(new Path(conf.get(DELTA)), conf)) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        Compression.open(conf, file), StandardCharsets.UTF_8));
+                try {
+                    String text;
+                    while ((text = reader.readLine()) != null) {
+                        line.set(text);
+                        if (scanner.reset(line).remaining(',') == 3) {
+                            scanner.next(',');
+                            Text user = new Text();
+                            scanner.copyTo(user);
+                            deltaUsers.add(user);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //       output key: user (only users of the delta)
+            //            value: movie
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(outputKey);
+            if (!deltaUsers.contains(outputKey)) {
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(outputValue);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    public static class DeltaMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //       output key: user
+            //            value: +movie
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(outputKey);
+            scanner.next(',');
+            outputValue.clear();
+            TextScanner.append(outputValue, '+');
+            scanner.appendTo(outputValue);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    // movie -> count within one reduce key, cleared for the next key; the movie Texts are kept and reused, lookups go
+    // through the probe Text, so a value costs no allocation
+    static final class MovieCounts {
+
+        private final Map<Text, Integer> index = new HashMap<Text, Integer>();
+        private final List<Text> movies = new ArrayList<Text>();
+        private final IntList counts = new IntList();
+        private final Text probe = new Text();
+        private int size;
+
+        void clear() {
+            index.clear();
+            counts.clear();
+            size = 0;
+        }
+
+        void add(byte[] bytes, int start, int length, int count) {
+            probe.set(bytes, start, length);
+            Integer i = index.get(probe);
+            if (i != null) {
+                counts.set(i, counts.get(i) + count);
+                return;
+            }
+            if (size == movies.size()) {
+                movies.add(new Text());
+            }
+            Text movie = movies.get(size);
+            movie.set(probe);
+            index.put(movie, size++);
+            counts.add(count);
+        }
+
+        int size() {
+            return size;
+        }
+
+        Text movie(int i) {
+            return movies.get(i);
+        }
+
+        int count(int i) {
+            return counts.get(i);
+        }
+
+    }
+
+    // key = movie1:movie2
+    static void setCell(Text key, Text movie1, Text movie2) {
+        key.set(movie1);
+        TextScanner.append(key, ':');
+        key.append(movie2.getBytes(), 0, movie2.getLength());
+    }
+
+    public static class PairDeltaReducer extends Reducer<Text, Text, Text, IntWritable> {
+
+        private final MovieCounts history = new MovieCounts();
+        private final MovieCounts added = new MovieCounts();
+        private final Text outputKey = new Text();
+        private final IntWritable outputValue = new IntWritable();
+
+        @Override
+        protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // input:  key: user
+            //      values: <movie1, movie2, +movie3, +movie1>
+            // output: key: movie3:movie1, movie1:movie3, movie3:movie2, movie2:movie3, movie3:movie3, movie3:movie1, ...
+            //       value: 1 (the product of the line counts of both movies)
+            // every rating line counts, as in DataDividerByUser + CoOccurrenceMatrixGenerator: movie -> lines
+            history.clear();
+            added.clear();
+            for (Text value : values) {
+                byte[] bytes = value.getBytes();
+                if (value.getLength() > 0 && bytes[0] == '+') {
+                    added.add(bytes, 1, value.getLength() - 1, 1);
+                } else {
+                    history.add(bytes, 0, value.getLength(), 1);
+                }
+            }
+
+            // (h1 + n1) * (h2 + n2) - h1 * h2 = n1 * h2 + h1 * n2 + n1 * n2
+            for (int i = 0; i < added.size(); i++) {
+                for (int j = 0; j < history.size(); j++) {
+                    outputValue.set(added.count(i) * history.count(j));
+                    setCell(outputKey, added.movie(i), history.movie(j));
+                    context.write(outputKey, outputValue);
+                    setCell(outputKey, history.movie(j), added.movie(i));
+                    context.write(outputKey, outputValue);
+                }
+                for (int j = 0; j < added.size(); j++) {
+                    outputValue.set(added.count(i) * added.count(j));
+                    setCell(outputKey, added.movie(i), added.movie(j));
+                    context.write(outputKey, outputValue);
+                }
+            }
+        }
+
+    }
+
+    public static class DeltaCellMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: movie1:movie2\t1
+            //       output key: movie1
+            //            value: +movie2=1
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t'); // movie1:movie2
+            byte[] bytes = scanner.bytes();
+            int colon = scanner.indexOf(':');
+            outputKey.set(bytes, scanner.start(), colon - scanner.start());
+            outputValue.clear();
+            TextScanner.append(outputValue, '+');
+            outputValue.append(bytes, colon + 1, scanner.start() + scanner.length() - colon - 1);
+            TextScanner.append(outputValue, '=');
+            scanner.next('\t'); // count
+            scanner.appendTo(outputValue);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    // a cell value: [+]movie2=count
+    private static void addCell(MovieCounts row, TextScanner scanner, Text cell) {
+        scanner.reset(cell).next('=');
+        int plus = scanner.length() > 0 && scanner.bytes()[scanner.start()] == '+' ? 1 : 0;
+        byte[] bytes = scanner.bytes();
+        int start = scanner.start() + plus;
+        int length = scanner.length() - plus;
+        scanner.next('=');
+        row.add(bytes, start, length, scanner.parseInt());
+    }
+
+    public static class DeltaCellCombiner extends Reducer<Text, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final MovieCounts deltas = new MovieCounts();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <movie2=4, +movie2=1, +movie2=1, +movie3=1>
+            // output: key: movie1
+            //       value: movie2=4, +movie2=2, +movie3=1
+            deltas.clear();
+            for (Text value : values) {
+                if (value.getLength() == 0 || value.getBytes()[0] != '+') {
+                    context.write(key, value);
+                    continue;
+                }
+                addCell(deltas, scanner, value);
+            }
+            for (int i = 0; i < deltas.size(); i++) {
+                outputValue.clear();
+                TextScanner.append(outputValue, '+');
+                Text movie2 = deltas.movie(i);
+                outputValue.append(movie2.getBytes(), 0, movie2.getLength());
+                TextScanner.append(outputValue, '=');
+                TextScanner.appendInt(outputValue, deltas.count(i));
+                context.write(key, outputValue);
+            }
+        }
+
+    }
+
+    public static class MergeReducer extends Reducer<Text, Text, Text, IntWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final MovieCounts row = new MovieCounts();
+        private final Text outputKey = new Text();
+        private final IntWritable outputValue = new IntWritable();
+        private MultipleOutputs<Text, IntWritable> changed;
+
+        @Override
+        protected void setup(Context context) {
+            changed = new MultipleOutputs<Text, IntWritable>(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            changed.close();
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <movie1=2, movie2=4, +movie2=1>
+            // output: key: movie1:movie1, value: 2
+            //         key: movie1:movie2, value: 5
+            //         movie1 is written to _changed/ if any +cell was merged
+            row.clear();
+            boolean rowChanged = false;
+            for (Text value : values) {
+                if (value.getLength() > 0 && value.getBytes()[0] == '+') {
+                    rowChanged = true;
+                }
+                addCell(row, scanner, value);
+            }
+
+            for (int i = 0; i < row.size(); i++) {
+                setCell(outputKey, key, row.movie(i));
+                outputValue.set(row.count(i));
+                context.write(outputKey, outputValue);
+            }
+            if (rowChanged) {
+                changed.write(CHANGED, key, NullWritable.get(), CHANGED_DIR + "/part");
+            }
+        }
+
+    }
+
+    public static class ChangedRowMapper extends Normalizer.NormalizeMapper {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie1 = new Text();
+        private Set<Text> changedRows;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            super.setup(context);
+            changedRows = loadChangedRows(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: movie1:movie2\t5
+            //       output key: movie1 (changed rows only)
+            //            value: movie2=5
+            scanner.reset(value).next(':');
+            scanner.copyTo(movie1);
+            if (changedRows.contains(movie1)) {
+                super.map(key, value, context);
+            }
+        }
+
+    }
+
+    public static class UnchangedColumnMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie1 = new Text();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+        private Set<Text> changedRows;
+        private MultipleOutputs<Text, Text> unchanged;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            changedRows = loadChangedRows(context.getConfiguration());
+            unchanged = new MultipleOutputs<Text, Text>(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            unchanged.close();
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: movie2\tmovie1=2/8
+            //           output: movie2\tmovie1=2/8 (unchanged rows only, straight to the output dir)
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            scanner.copyTo(outputKey);
+            scanner.next('\t');
+            scanner.copyTo(outputValue);
+            int eq = scanner.indexOf('=');
+            int end = eq < 0 ? scanner.start() + scanner.length() : eq;
+            movie1.set(scanner.bytes(), scanner.start(), end - scanner.start());
+            if (!changedRows.contains(movie1)) {
+                unchanged.write(UNCHANGED, outputKey, outputValue, UNCHANGED);
+            }
+        }
+
+    }
+
+    static Set<Text> loadChangedRows(Configuration conf) throws IOException {
+        Set<Text> rows = new HashSet<Text>();
+        Path dir = new Path(conf.get(CHANGED_ROWS));
+        if (!dir.getFileSystem(conf).exists(dir)) { // empty delta
+            return rows;
+        }
+        for (Path file : LocalTasks.listInputFiles(dir, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    rows.add(new Text(line.trim()));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return rows;
+    }
+
+    // the rawInput files that are not delta files. History is told from delta by file, so every delta file has to be
+    // one of the rawInput files and some rawInput file has to be left: a delta read as history too would count every
+    // new pair twice
+    static List<Path> historyFiles(Configuration conf, String rawInput, String delta) throws IOException {
+        List<Path> deltaFiles = LocalTasks.listInputFiles(new Path(delta), conf);
+        List<Path> rawFiles = LocalTasks.listInputFiles(new Path(rawInput), conf);
+        if (deltaFiles.isEmpty() || !rawFiles.containsAll(deltaFiles) || rawFiles.size() == deltaFiles.size()) {
+            throw new IllegalArgumentException(DELTA + "=" + delta + ": the delta files must be some, not all, of the"
+                    + " files of " + rawInput + " (rawInput " + rawFiles + ", delta " + deltaFiles + ")");
+        }
+        List<Path> history = new ArrayList<Path>(rawFiles);
+        history.removeAll(deltaFiles);
+        return history;
+    }
+
+    public static Job createDeltaJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(IncrementalCoOccurrence.class);
+        Compression.configure(job);
+        job.getConfiguration().set(DELTA, args[1]);
+
+        job.setReducerClass(PairDeltaReducer.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+
+        // args[0]: rawInputFile, args[1]: delta ratings
+        // the delta is part of rawInput, its ratings are not history: only the other files go to the history mapper
+        for (Path file : historyFiles(conf, args[0], args[1])) {
+            MultipleInputs.addInputPath(job, file, TextInputFormat.class, HistoryMapper.class);
+        }
+        MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, DeltaMapper.class);
+
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    public static Job createMergeJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(IncrementalCoOccurrence.class);
+        Compression.configure(job);
+
+        job.setCombinerClass(DeltaCellCombiner.class);
+        job.setReducerClass(MergeReducer.class);
+        MultipleOutputs.addNamedOutput(job, CHANGED, TextOutputFormat.class, Text.class, NullWritable.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+
+        // args[0]: previous co-occurrence matrix dir, args[1]: delta pairs dir
+        MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, Normalizer.NormalizeMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, DeltaCellMapper.class);
+
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    public static Job createRenormalizeJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(IncrementalCoOccurrence.class);
+        Compression.configure(job);
+        job.getConfiguration().set(CHANGED_ROWS, new Path(args[0], CHANGED_DIR).toString());
+        job.getConfiguration().setInt(Multiplier.SKEW_THRESHOLD, 0); // _raters/ would only list the changed rows
+
+        job.setReducerClass(Normalizer.NormalizeReducer.class);
+        MultipleOutputs.addNamedOutput(job, UNCHANGED, TextOutputFormat.class, Text.class, Text.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // args[0]: new co-occurrence matrix dir, args[1]: previous normalizer dir
+        MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, ChangedRowMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, UnchangedColumnMapper.class);
+
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    // args: see 4. Configuration; the jobs go through report
+    public static boolean run(Configuration conf, String[] args, RunReport report) throws Exception {
+        String[] deltaPath = {args[0], args[1], args[4]};
+        String[] mergePath = {args[2], args[4], args[5]};
+        String[] renormalizePath = {args[5], args[3], args[6]};
+
+        return report.run(createDeltaJob(conf, deltaPath))
+                && report.run(createMergeJob(conf, mergePath))
+                && report.run(createRenormalizeJob(conf, renormalizePath));
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        run(conf, args, new RunReport("incremental", args));
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package recommender;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Composite key of two int ids, sorted by first then second
+ *  - movie1:movie2 in the co-occurrence matrix
+ *  - user:movie in Multiplier/Aggregator output
+ *  - serialized as two fixed 4-byte ints (8 bytes instead of a "12345:67890" string)
+ *  - Comparator sorts the serialized bytes directly, the shuffle never deserializes a key to compare it
+ *  - FirstPartitioner sends every key with the same first int to the same reducer (a user's scores, a movie's row),
+ *    FirstGroupingComparator hands them to one reduce() call when a job wants the whole group at once
+ * */
+
+public class IntPairWritable implements WritableComparable<IntPairWritable> {
+
+    private int first;
+    private int second;
+
+    public IntPairWritable() {
+    }
+
+    public IntPairWritable(int first, int second) {
+        set(first, second);
+    }
+
+    public void set(int first, int second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getSecond() {
+        return second;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(first);
+        out.writeInt(second);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        first = in.readInt();
+        second = in.readInt();
+    }
+
+    @Override
+    public int compareTo(IntPairWritable other) {
+        int byFirst = Integer.compare(first, other.first);
+        return byFirst != 0 ? byFirst : Integer.compare(second, other.second);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntPairWritable)) {
+            return false;
+        }
+        IntPairWritable other = (IntPairWritable) o;
+        return first == other.first && second == other.second;
+    }
+
+    @Override
+    public int hashCode() {
+        return first * 163 + second;
+    }
+
+    // same text as the text pipeline's keys: first:second
+    @Override
+    public String toString() {
+        return first + ":" + second;
+    }
+
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(IntPairWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int byFirst = Integer.compare(readInt(b1, s1), readInt(b2, s2));
+            return byFirst != 0 ? byFirst : Integer.compare(readInt(b1, s1 + 4), readInt(b2, s2 + 4));
+        }
+    }
+
+    public static class FirstGroupingComparator extends WritableComparator {
+
+        public FirstGroupingComparator() {
+            super(IntPairWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Integer.compare(readInt(b1, s1), readInt(b2, s2));
+        }
+    }
+
+    public static class FirstPartitioner<V> extends Partitioner<IntPairWritable, V> {
+
+        @Override
+        public int getPartition(IntPairWritable key, V value, int numPartitions) {
+            return (key.first & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    static { // register the raw comparator as the default for this key class
+        WritableComparator.define(IntPairWritable.class, new Comparator());
+    }
+
+}
@@ -0,0 +1,25 @@
+package recommender;
+
+import org.apache.hadoop.conf.Configuration;
+
+/** Format of the data passed between the recommender jobs
+ *  - text (default): tab/comma/colon delimited lines, every mapper splits and parses what the previous job printed
+ *  - binary: SequenceFiles of IntWritable/IntPairWritable keys and RatingVectorWritable/EntryWritable values for the
+ *            outputs of DataDividerByUser, CoOccurrenceMatrixGenerator, Normalizer and Multiplier;
+ *            Aggregator reads the binary Multiplier output and still writes text (user1:movie1\tsum)
+ *    Note: binary mode needs integer user and movie ids and covers the default pairs pipeline
+ *          (not stripes/fused normalize/vector scoring)
+ * */
+
+public final class IntermediateFormat {
+
+    public static final String FORMAT = "recommender.intermediate.format";
+
+    private IntermediateFormat() {
+    }
+
+    public static boolean isBinary(Configuration conf) {
+        return "binary".equals(conf.get(FORMAT, "text"));
+    }
+
+}
@@ -0,0 +1,410 @@
+package recommender;
+
+import common.Compression;
+import common.LocalTasks;
+import common.DoubleList;
+import common.IntList;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** In-process engine (single JVM, no mapreduce jobs)
+ * 0. Task: run the math of all five mapreduce jobs in memory when the rating file fits in one machine's RAM
+ *    rawInput format: user,movie,rating
+ *      output format: user1:movie1\tsum (same as Aggregator)
+ *
+ * 1. load
+ *      - read every user,movie,rating line once and give users/movies dense int indices
+ *      - indices are assigned in sorted id order, so iterating indices = iterating ids the way the jobs sort them
+ *      - user rows:   user  -> [movie index, rating] (replaces DataDividerByUser)
+ *        movie cols:  movie -> [user index]          (who rated the movie)
+ *
+ * 2. co-occurrence (replaces CoOccurrenceMatrixGenerator), one movie row per task
+ *      row movie1: for every user who rated movie1, count every movie in that user's row
+ *      with recommender.cooccurrence.max.history / activity.weight, only the sampled rows count, weighted (same sample
+ *      and weights as CoOccurrenceMatrixGenerator, see HistorySampling)
+ *      counts live in a dense int[] scratch array per thread; only touched cells are kept
+ *    Note: the co-occurrence matrix is symmetric, so row movie2 is also column movie2
+ *
+ * 3. normalize (replaces Normalizer)
+ *      relation(movie1, movie2) = count(movie1, movie2) / rowSum(movie1)
+ *      stored transposed (by movie2), exactly what Multiplier reads
+ *
+ * 4. score (replaces Multiplier + Aggregator), one range of users per thread
+ *      sum(user1, movie1) = sum over movie2 in user1's row of rating(user1, movie2) * relation(movie1, movie2)
+ *      each thread writes its own part-r-xxxxx file, like one reducer per thread
+ *      with recommender.scoring.imputation=mean, unrated movie2s count with user1's mean rating (see UserScorer):
+ *      sum(user1, movie1) += mean(user1) * (rowTotal(movie1) - sum over rated movie2 of relation(movie1, movie2))
+ *      and with recommender.scoring.imputation.candidates=N also the unwritten movies that can reach the top N
+ *
+ * 5. Configuration
+ *      - recommender.local.threads: worker threads (default: available processors)
+ *      - recommender.scoring.imputation: zero (default) or mean
+ *      - recommender.scoring.imputation.candidates: see UserScorer
+ *      - recommender.cooccurrence.max.history, history.sampling, activity.weight: see HistorySampling
+ *      - compression.final: codec of the part files (see common.Compression), the input may be compressed too
+ * */
+
+public class LocalEngine {
+
+    public static final String THREADS = "recommender.local.threads";
+
+    // co-occurrence rows are handed to workers in blocks of this many movies
+    private static final int ROW_BLOCK = 64;
+
+    private final Configuration conf;
+    private final int threads;
+
+    // dictionaries: index -> raw id
+    private String[] users;
+    private String[] movies;
+
+    // user rows (CSR): movies/ratings of user u are in [userStart[u], userStart[u + 1])
+    private int[] userStart;
+    private int[] userMovies;
+    private double[] userRatings;
+
+    // co-occurrence input (see HistorySampling): the sampled user rows (the user rows themselves when histories are
+    // not bounded) and the weight of every pair of user u
+    private int[] historyStart;
+    private int[] historyMovies;
+    private int[] userWeights;
+
+    // movie cols (CSR): users whose sampled history holds movie m are in [movieStart[m], movieStart[m + 1])
+    private int[] movieStart;
+    private int[] movieUsers;
+
+    // normalized co-occurrence, transposed: column movie2 -> (movie1, relation)
+    private int[][] columnMovies;
+    private double[][] columnRelations;
+    private double[] rowTotals;
+
+    public LocalEngine(Configuration conf) {
+        this.conf = conf;
+        this.threads = Math.max(1, conf.getInt(THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public void run(String rawInput, String outputDir) throws IOException, InterruptedException {
+        Path output = new Path(outputDir);
+        FileSystem outFs = output.getFileSystem(conf);
+        if (outFs.exists(output)) { // same contract as FileOutputFormat
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            load(new Path(rawInput));
+            buildNormalizedMatrix(pool);
+            score(pool, outFs, output);
+        } finally {
+            pool.shutdownNow();
+        }
+        outFs.create(new Path(output, "_SUCCESS")).close();
+    }
+
+    private void load(Path input) throws IOException {
+        // raw ratings, in file order
+        Map<String, Integer> userIndex = new HashMap<String, Integer>();
+        Map<String, Integer> movieIndex = new HashMap<String, Integer>();
+        IntList ratingUsers = new IntList();
+        IntList ratingMovies = new IntList();
+        DoubleList ratings = new DoubleList();
+
+        for (Path file : LocalTasks.listInputFiles(input, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // input line value: user,movie,rating
+                    String[] user_movie_rating = line.trim().split(",");
+                    if (user_movie_rating.length != 3) { // bad input
+                        continue;
+                    }
+                    ratingUsers.add(LocalTasks.indexOf(userIndex, user_movie_rating[0]));
+                    ratingMovies.add(LocalTasks.indexOf(movieIndex, user_movie_rating[1]));
+                    ratings.add(Double.parseDouble(user_movie_rating[2]));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // re-number so that index order is id order
+        int[] userRemap = new int[userIndex.size()];
+        users = sortedIds(userIndex, userRemap);
+        int[] movieRemap = new int[movieIndex.size()];
+        movies = sortedIds(movieIndex, movieRemap);
+
+        int n = ratings.size();
+        int[] ratingUser = new int[n];
+        int[] ratingMovie = new int[n];
+        for (int i = 0; i < n; i++) {
+            ratingUser[i] = userRemap[ratingUsers.get(i)];
+            ratingMovie[i] = movieRemap[ratingMovies.get(i)];
+        }
+
+        // user rows
+        userStart = offsets(ratingUser, users.length);
+        userMovies = new int[n];
+        userRatings = new double[n];
+        int[] next = Arrays.copyOf(userStart, users.length);
+        for (int i = 0; i < n; i++) {
+            int pos = next[ratingUser[i]]++;
+            userMovies[pos] = ratingMovie[i];
+            userRatings[pos] = ratings.get(i);
+        }
+
+        sampleHistories();
+
+        // movie cols
+        int[] historyUsers = new int[historyMovies.length];
+        for (int user = 0; user < users.length; user++) {
+            Arrays.fill(historyUsers, historyStart[user], historyStart[user + 1], user);
+        }
+        movieStart = offsets(historyMovies, movies.length);
+        movieUsers = new int[historyMovies.length];
+        next = Arrays.copyOf(movieStart, movies.length);
+        for (int i = 0; i < historyMovies.length; i++) {
+            movieUsers[next[historyMovies[i]]++] = historyUsers[i];
+        }
+    }
+
+    // the same samples and weights as the co-occurrence mappers: ids are hashed as text
+    private void sampleHistories() {
+        userWeights = new int[users.length];
+        if (!HistorySampling.isEnabled(conf)) {
+            historyStart = userStart;
+            historyMovies = userMovies;
+            Arrays.fill(userWeights, 1);
+            return;
+        }
+        HistorySampling sampling = new HistorySampling(conf);
+        int[] movieHashes = new int[movies.length];
+        for (int movie = 0; movie < movies.length; movie++) {
+            byte[] id = movies[movie].getBytes(StandardCharsets.UTF_8);
+            movieHashes[movie] = HistorySampling.hash(id, 0, id.length);
+        }
+        historyStart = new int[users.length + 1];
+        IntList kept = new IntList();
+        for (int user = 0; user < users.length; user++) {
+            boolean capped = sampling.isCapped(userStart[user + 1] - userStart[user]);
+            if (capped) {
+                byte[] id = users[user].getBytes(StandardCharsets.UTF_8);
+                sampling.begin(HistorySampling.hash(id, 0, id.length));
+                for (int i = userStart[user]; i < userStart[user + 1]; i++) {
+                    sampling.add(movieHashes[userMovies[i]], (float) userRatings[i]);
+                }
+                sampling.select();
+            }
+            for (int i = userStart[user]; i < userStart[user + 1]; i++) {
+                if (!capped || sampling.keeps(i - userStart[user])) {
+                    kept.add(userMovies[i]);
+                }
+            }
+            historyStart[user + 1] = kept.size();
+            userWeights[user] = sampling.weight(historyStart[user + 1] - historyStart[user]);
+        }
+        historyMovies = new int[kept.size()];
+        for (int i = 0; i < historyMovies.length; i++) {
+            historyMovies[i] = kept.get(i);
+        }
+    }
+
+    private void buildNormalizedMatrix(ExecutorService pool) throws IOException, InterruptedException {
+        final int movieCount = movies.length;
+        final int[][] rowMovies = new int[movieCount][];
+        final int[][] rowCounts = new int[movieCount][];
+        final long[] rowSums = new long[movieCount];
+        final AtomicInteger nextBlock = new AtomicInteger();
+
+        // co-occurrence rows
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] counts = new int[movieCount];
+                    IntList touched = new IntList();
+                    int block;
+                    while ((block = nextBlock.getAndIncrement()) * ROW_BLOCK < movieCount) {
+                        int end = Math.min(movieCount, (block + 1) * ROW_BLOCK);
+                        for (int movie1 = block * ROW_BLOCK; movie1 < end; movie1++) {
+                            long sum = 0;
+                            for (int i = movieStart[movie1]; i < movieStart[movie1 + 1]; i++) {
+                                int user = movieUsers[i];
+                                int weight = userWeights[user];
+                                for (int j = historyStart[user]; j < historyStart[user + 1]; j++) {
+                                    int movie2 = historyMovies[j];
+                                    if (counts[movie2] == 0) {
+                                        touched.add(movie2);
+                                    }
+                                    counts[movie2] += weight;
+                                }
+                                sum += (long) (historyStart[user + 1] - historyStart[user]) * weight;
+                            }
+                            int[] row = touched.toSortedArray();
+                            int[] rowCount = new int[row.length];
+                            for (int k = 0; k < row.length; k++) {
+                                rowCount[k] = counts[row[k]];
+                                counts[row[k]] = 0;
+                            }
+                            touched.clear();
+                            rowMovies[movie1] = row;
+                            rowCounts[movie1] = rowCount;
+                            rowSums[movie1] = sum;
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        LocalTasks.invokeAll(pool, tasks);
+
+        // normalize and transpose: the matrix is symmetric, so row movie2 lists the movie1s of column movie2
+        columnMovies = rowMovies;
+        columnRelations = new double[movieCount][];
+        rowTotals = new double[movieCount];
+        for (int movie2 = 0; movie2 < movieCount; movie2++) {
+            int[] column = rowMovies[movie2];
+            double[] relations = new double[column.length];
+            for (int k = 0; k < column.length; k++) {
+                relations[k] = (double) rowCounts[movie2][k] / rowSums[column[k]];
+                rowTotals[column[k]] += relations[k];
+            }
+            columnRelations[movie2] = relations;
+            rowCounts[movie2] = null;
+        }
+    }
+
+    private void score(ExecutorService pool, final FileSystem outFs, final Path output)
+            throws IOException, InterruptedException {
+        final int movieCount = movies.length;
+        final int[] userRanges = LocalTasks.balancedRanges(userStart, users.length, threads);
+        final boolean imputeMean = UserScorer.isMeanImputation(conf);
+        final int candidateCount = imputeMean ? UserScorer.imputedCandidates(conf) : 0;
+        final int[] byRowTotal = candidateCount > 0 ? UserScorer.byRowTotal(rowTotals) : null;
+        final CompressionCodec codec = Compression.codec(conf, Compression.FINAL);
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t + 1 < userRanges.length; t++) {
+            final int part = t;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    double[] sums = new double[movieCount];
+                    double[] ratedRelations = imputeMean ? new double[movieCount] : null;
+                    boolean[] seen = new boolean[movieCount];
+                    IntList touched = new IntList();
+                    boolean[] rated = candidateCount > 0 ? new boolean[movieCount] : null;
+                    IntList candidates = new IntList();
+
+                    String name = String.format("part-r-%05d", part) + (codec == null ? "" : codec.getDefaultExtension());
+                    OutputStream out = outFs.create(new Path(output, name));
+                    if (codec != null) { // the output is the final one
+                        out = codec.createOutputStream(out);
+                    }
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    try {
+                        for (int user = userRanges[part]; user < userRanges[part + 1]; user++) {
+                            double ratingSum = 0;
+                            for (int i = userStart[user]; i < userStart[user + 1]; i++) {
+                                int movie2 = userMovies[i];
+                                double rating = userRatings[i];
+                                ratingSum += rating;
+                                int[] column = columnMovies[movie2];
+                                double[] relations = columnRelations[movie2];
+                                for (int k = 0; k < column.length; k++) {
+                                    int movie1 = column[k];
+                                    if (!seen[movie1]) {
+                                        seen[movie1] = true;
+                                        touched.add(movie1);
+                                    }
+                                    sums[movie1] += relations[k] * rating;
+                                    if (imputeMean) {
+                                        ratedRelations[movie1] += relations[k];
+                                    }
+                                }
+                            }
+                            double mean = ratingSum / (userStart[user + 1] - userStart[user]);
+                            if (candidateCount > 0) { // before seen is reset
+                                for (int i = userStart[user]; i < userStart[user + 1]; i++) {
+                                    rated[userMovies[i]] = true;
+                                }
+                                UserScorer.addImputedCandidates(byRowTotal, rowTotals, seen, rated, mean,
+                                        candidateCount, candidates);
+                                for (int i = userStart[user]; i < userStart[user + 1]; i++) {
+                                    rated[userMovies[i]] = false;
+                                }
+                            }
+                            // output: user1:movie1\tsum
+                            for (int movie1 : touched.toSortedArray()) {
+                                if (imputeMean) { // unrated movie2s count with the user's mean
+                                    sums[movie1] += mean * (rowTotals[movie1] - ratedRelations[movie1]);
+                                    ratedRelations[movie1] = 0;
+                                }
+                                writer.write(users[user] + ":" + movies[movie1] + "\t" + sums[movie1] + "\n");
+                                sums[movie1] = 0;
+                                seen[movie1] = false;
+                            }
+                            touched.clear();
+                            // no rated movie relates to them: every movie2 counts with the mean
+                            for (int i = 0; i < candidates.size(); i++) {
+                                int movie1 = candidates.get(i);
+                                double score = mean * rowTotals[movie1];
+                                writer.write(users[user] + ":" + movies[movie1] + "\t" + score + "\n");
+                            }
+                            candidates.clear();
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                    return null;
+                }
+            });
+        }
+        LocalTasks.invokeAll(pool, tasks);
+    }
+
+    // returns ids sorted as strings; remap[old index] = new index
+    private static String[] sortedIds(Map<String, Integer> index, int[] remap) {
+        String[] ids = index.keySet().toArray(new String[index.size()]);
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            remap[index.get(ids[i])] = i;
+        }
+        return ids;
+    }
+
+    private static int[] offsets(int[] keys, int keyCount) {
+        int[] start = new int[keyCount + 1];
+        for (int key : keys) {
+            start[key + 1]++;
+        }
+        for (int i = 0; i < keyCount; i++) {
+            start[i + 1] += start[i];
+        }
+        return start;
+    }
+
+}
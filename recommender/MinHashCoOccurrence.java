@@ -0,0 +1,430 @@
+package recommender;
+
+import common.Compression;
+import common.RunReport;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.hadoop.util.hash.MurmurHash;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Approximate replacement of the 2nd mapreduce job (recommender.cooccurrence.mode=minhash)
+ * 0. Task: estimate the co-occurrence counts of the strongly related movie pairs from MinHash signatures of every
+ *          movie's raters, instead of counting every pair of every user
+ *    rawInput format: userid\tmovie1:rating1,movie2:rating2,movie3:rating3,... (1st job output)
+ *      output format: movie1:movie2\t2 (same as CoOccurrenceMatrixGenerator: Normalizer and every later job work as is)
+ *    Note: count(movie1, movie2) = |A n B| for the rater sets A and B, and |A n B| = J / (1 + J) * (|A| + |B|) with
+ *          J = |A n B| / |A u B| the Jaccard similarity; |A| and |B| are counted exactly, J is estimated
+ *
+ * 1. signature job
+ *      mapper:   input line value: userid\tmovie1:rating1,movie2:rating2,...
+ *                buffered: movie1 -> signature, min-merged with the user's k hashes (in-mapper combining)
+ *                  output: key: movie1
+ *                        value: (raters, [min1, ..., mink])
+ *                flushed when recommender.minhash.flush.bytes of signatures (k ints each, default 64 MB) are buffered
+ *                and in cleanup(); at most one signature per movie is buffered
+ *      combiner/reducer: min-merge the signatures of movie1 (element-wise min, raters summed)
+ *      output: SequenceFile, key: movie1, value: MinHashWritable (args[1])
+ *    Note: the k hashes of a user are h1 + i * h2 (i < k) of two murmur hashes of the user id, mixed again
+ *
+ * 2. band job (locality-sensitive hashing)
+ *      mapper:  the k entries are cut into b bands of r = k / b rows
+ *               output: key: (band, hash of the band's r rows), one record per band
+ *                     value: (movie1, raters, [min1, ..., mink])
+ *      reducer: input: key: (band, rows hash)
+ *                   values: the movies whose signatures are equal in this band (candidate pairs)
+ *               output: key: movie1:movie2, value: round(J / (1 + J) * (raters1 + raters2)), both directions
+ *                       key: movie1:movie1, value: raters1 (exact, once per movie: band 0)
+ *               a pair equal in several bands is only written by the first of them, so every cell is written once
+ *    Note: two movies become candidates with probability 1 - (1 - J^r)^b: pairs above about (1/b)^(1/r) almost
+ *          always, weak pairs rarely; hashes=b gives r=1, every pair with one equal entry
+ *
+ * 3. Error
+ *      - J is estimated from k independent equal/not-equal trials: standard error sqrt(J * (1 - J) / k), e.g. 0.03
+ *        for J = 0.1 and k = 100; the count's error follows: (|A| + |B|) / (1 + J)^2 times that of J
+ *      - pairs that are not candidates are missing from the matrix (an exact count may be small but non-zero),
+ *        pairs whose estimate rounds to 0 or is below recommender.minhash.min.similarity are dropped
+ *      - the diagonal and every row's raters are exact
+ *
+ * 4. Cost
+ *      - signature job: shuffle and memory grow with movies x k per mapper, not with the pairs of every user
+ *      - band job: movies x b records of k ints; the output grows with the candidate pairs only
+ *      - the local engine still counts exactly
+ *
+ * 5. Configuration
+ *      - recommender.minhash.hashes=k (default 100), recommender.minhash.bands=b (default 50, k must be a multiple)
+ *      - recommender.minhash.min.similarity=J (default 0): drop candidate pairs whose estimated J is smaller
+ *      - recommender.minhash.flush.bytes: signature bytes a mapper buffers before it flushes
+ *      - recommender.cooccurrence.triangle=true: only movie1 < movie2 is written, Normalizer mirrors it back
+ *      - args[0]: 1st job output dir, args[1]: signatures output dir, args[2]: co-occurrence matrix output dir
+ *      - Driver runs both jobs instead of the 2nd with -Drecommender.cooccurrence.mode=minhash (text mode, no fused
+ *        normalize, not incremental)
+ * */
+
+public class MinHashCoOccurrence {
+
+    public static final String MODE = "minhash";
+    public static final String HASHES = "recommender.minhash.hashes";
+    public static final String BANDS = "recommender.minhash.bands";
+    public static final String MIN_SIMILARITY = "recommender.minhash.min.similarity";
+    public static final String FLUSH_BYTES = "recommender.minhash.flush.bytes";
+
+    private static final int SEED = 0x5f3759df;
+
+    public static class SignatureMapper extends Mapper<LongWritable, Text, Text, MinHashWritable> {
+
+        private final Map<Text, MinHashWritable> signatures = new HashMap<Text, MinHashWritable>();
+        private final TextScanner scanner = new TextScanner();
+        private final Text user = new Text();
+        private final Text movie = new Text();
+        private final Hash hash = MurmurHash.getInstance();
+        private int[] userHashes;
+        private int flushSignatures;
+
+        @Override
+        protected void setup(Context context) {
+            userHashes = new int[hashes(context.getConfiguration())];
+            flushSignatures = flushSignatures(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: userid\tmovie1:rating1,movie2:rating2,...
+            //         buffered: movie1 -> min(signature, hashes(userid)), raters + 1
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            scanner.copyTo(user);
+            hashUser(hash, user, userHashes);
+
+            while (scanner.next(',')) {
+                int colon = scanner.indexOf(':');
+                movie.set(scanner.bytes(), scanner.start(),
+                        (colon < 0 ? scanner.start() + scanner.length() : colon) - scanner.start());
+                MinHashWritable signature = signatures.get(movie);
+                if (signature == null) { // the key is copied once per movie and flush
+                    signature = new MinHashWritable();
+                    signature.reset(userHashes.length);
+                    signatures.put(new Text(movie), signature);
+                }
+                signature.add(userHashes);
+            }
+
+            if (signatures.size() >= flushSignatures) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            // output: key: movie1
+            //       value: (raters, [min1, ..., mink])
+            for (Map.Entry<Text, MinHashWritable> entry : signatures.entrySet()) {
+                context.write(entry.getKey(), entry.getValue());
+            }
+            signatures.clear();
+        }
+
+    }
+
+    public static class SignatureReducer extends Reducer<Text, MinHashWritable, Text, MinHashWritable> {
+
+        private final MinHashWritable merged = new MinHashWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context); // also the combiner: counts in reduce tasks only
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<MinHashWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <(2, [3, 9, 4]), (1, [5, 1, 7])>
+            // output: key: movie1
+            //       value: (3, [3, 1, 4])
+            int count = 0;
+            for (MinHashWritable value : values) {
+                if (count++ == 0) {
+                    merged.set(value);
+                } else {
+                    merged.merge(value);
+                }
+            }
+            valuesPerKey.add(count);
+            context.write(key, merged);
+        }
+
+    }
+
+    public static class BandMapper extends Mapper<Text, MinHashWritable, IntPairWritable, MinHashWritable> {
+
+        private final IntPairWritable outputKey = new IntPairWritable();
+        private int bands;
+        private int rows;
+
+        @Override
+        protected void setup(Context context) {
+            bands = bands(context.getConfiguration());
+            rows = rows(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(Text key, MinHashWritable value, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //       value: (raters, [min1, ..., mink])
+            // output: key: (band, hash of min[band * r], ..., min[band * r + r - 1])
+            //       value: (movie1, raters, [min1, ..., mink])
+            if (value.size() != bands * rows) {
+                throw new IOException("signature of " + key + " has " + value.size() + " hashes, expected " + bands * rows);
+            }
+            value.getMovie().set(key);
+            for (int band = 0; band < bands; band++) {
+                int rowsHash = 1;
+                for (int i = band * rows; i < (band + 1) * rows; i++) {
+                    rowsHash = rowsHash * 31 + value.minAt(i);
+                }
+                outputKey.set(band, rowsHash);
+                context.write(outputKey, value);
+            }
+        }
+
+    }
+
+    public static class BandReducer extends Reducer<IntPairWritable, MinHashWritable, Text, IntWritable> {
+
+        private final List<MinHashWritable> bucket = new ArrayList<MinHashWritable>();
+        private final Text outputKey = new Text();
+        private final IntWritable outputValue = new IntWritable();
+        private int rows;
+        private double minSimilarity;
+        private boolean triangle;
+        private Counter pairs;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            rows = rows(conf);
+            minSimilarity = conf.getDouble(MIN_SIMILARITY, 0);
+            triangle = CoOccurrenceMatrixGenerator.isTriangle(conf);
+            pairs = context.getCounter(StageCounter.PAIRS_EMITTED);
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(IntPairWritable key, Iterable<MinHashWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: (band, rows hash)
+            //      values: <(movie1, 4, [...]), (movie2, 3, [...])>
+            // output: key: movie1:movie2, value: round(J / (1 + J) * (4 + 3))
+            //         key: movie2:movie1, value: the same
+            //         key: movie1:movie1, value: 4 (band 0 only)
+            int size = 0;
+            for (MinHashWritable value : values) { // value object is reused by hadoop, copy it
+                if (size == bucket.size()) {
+                    bucket.add(new MinHashWritable());
+                }
+                bucket.get(size++).set(value);
+            }
+            valuesPerKey.add(size);
+
+            int band = key.getFirst();
+            int from = band * rows;
+            for (int i = 0; i < size; i++) {
+                MinHashWritable signature1 = bucket.get(i);
+                if (band == 0) {
+                    write(signature1, signature1, signature1.getRaters(), context);
+                }
+                for (int j = i + 1; j < size; j++) {
+                    MinHashWritable signature2 = bucket.get(j);
+                    if (!signature1.equalRange(signature2, from, from + rows) // rows hash collision
+                            || earlierBand(signature1, signature2, band)) {
+                        continue;
+                    }
+                    double similarity = signature1.similarity(signature2);
+                    long count = Math.min(Math.round(similarity / (1 + similarity)
+                                    * (signature1.getRaters() + signature2.getRaters())),
+                            Math.min(signature1.getRaters(), signature2.getRaters()));
+                    if (count == 0 || similarity < minSimilarity) {
+                        continue;
+                    }
+                    if (triangle) { // lower triangle: mirrored by Normalizer
+                        boolean ordered = signature1.getMovie().compareTo(signature2.getMovie()) < 0;
+                        write(ordered ? signature1 : signature2, ordered ? signature2 : signature1, (int) count, context);
+                    } else {
+                        write(signature1, signature2, (int) count, context);
+                        write(signature2, signature1, (int) count, context);
+                    }
+                    pairs.increment(1);
+                }
+            }
+        }
+
+        // true when the pair is also a candidate of a band before band: that band writes it
+        private boolean earlierBand(MinHashWritable signature1, MinHashWritable signature2, int band) {
+            for (int earlier = 0; earlier < band; earlier++) {
+                if (signature1.equalRange(signature2, earlier * rows, (earlier + 1) * rows)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void write(MinHashWritable signature1, MinHashWritable signature2, int count, Context context)
+                throws IOException, InterruptedException {
+            outputKey.set(signature1.getMovie());
+            TextScanner.append(outputKey, ':');
+            outputKey.append(signature2.getMovie().getBytes(), 0, signature2.getMovie().getLength());
+            outputValue.set(count);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    // hashes[i] = hash_i(user), i < hashes.length
+    static void hashUser(Hash hash, Text user, int[] hashes) {
+        int h1 = hash.hash(user.getBytes(), user.getLength(), SEED);
+        int h2 = hash.hash(user.getBytes(), user.getLength(), h1) | 1;
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = mix(h1 + i * h2);
+        }
+    }
+
+    // murmur3 finalizer: spreads h1 + i * h2 over all bits
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static int hashes(Configuration conf) {
+        int hashes = conf.getInt(HASHES, 100);
+        if (hashes <= 0) {
+            throw new IllegalArgumentException(HASHES + " must be positive");
+        }
+        return hashes;
+    }
+
+    // signatures a SignatureMapper buffers before it flushes: FLUSH_BYTES of k ints each, at least one
+    static int flushSignatures(Configuration conf) {
+        long bytes = conf.getLong(FLUSH_BYTES, 64L << 20);
+        if (bytes <= 0) {
+            throw new IllegalArgumentException(FLUSH_BYTES + "=" + bytes + ": must be > 0");
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / (4L * hashes(conf))));
+    }
+
+    static int bands(Configuration conf) {
+        int bands = conf.getInt(BANDS, 50);
+        if (bands <= 0 || hashes(conf) % bands != 0) {
+            throw new IllegalArgumentException(BANDS + "=" + bands + " must divide " + HASHES + "=" + hashes(conf));
+        }
+        return bands;
+    }
+
+    static int rows(Configuration conf) {
+        return hashes(conf) / bands(conf);
+    }
+
+    public static boolean isMinHash(Configuration conf) {
+        return MODE.equals(conf.get(CoOccurrenceMatrixGenerator.MODE));
+    }
+
+    public static Job createSignatureJob(Configuration conf, String[] args) throws IOException {
+
+        bands(conf); // fail before any task does
+        flushSignatures(conf);
+        Compression.checkBinaryCodec(conf, Compression.INTERMEDIATE); // SequenceFile output
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(MinHashCoOccurrence.class);
+        Compression.configure(job);
+
+        job.setMapperClass(SignatureMapper.class);
+        job.setCombinerClass(SignatureReducer.class);
+        job.setReducerClass(SignatureReducer.class);
+
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(MinHashWritable.class);
+
+        // args[0]: 1st job output dir, args[1]: signatures dir
+        TextInputFormat.setInputPaths(job, new Path(args[0]));
+        SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        return job;
+    }
+
+    public static Job createBandJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(MinHashCoOccurrence.class);
+        Compression.configure(job);
+
+        job.setMapperClass(BandMapper.class);
+        job.setReducerClass(BandReducer.class);
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(IntPairWritable.class);
+        job.setMapOutputValueClass(MinHashWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+
+        // args[0]: signatures dir, args[1]: co-occurrence matrix output dir
+        SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        return job;
+    }
+
+    // args: see 5. Configuration; the jobs go through report
+    public static boolean run(Configuration conf, String[] args, RunReport report) throws Exception {
+        String[] signaturePath = {args[0], args[1]};
+        String[] bandPath = {args[1], args[2]};
+
+        return report.run(createSignatureJob(conf, signaturePath))
+                && report.run(createBandJob(conf, bandPath));
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        run(conf, args, new RunReport("minhash", args));
+
+    }
+
+}
@@ -0,0 +1,133 @@
+package recommender;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** MinHash signature of the set of users who rated a movie
+ *    movie -> raters, [min hash_1(user), min hash_2(user), ..., min hash_k(user)] over those users
+ *
+ *  - two signatures of the same movie merge element-wise (min), their rater counts add up; users are split over
+ *    the mappers, so every user is counted once
+ *  - P(min hash_i(A) == min hash_i(B)) = |A n B| / |A u B|: the fraction of equal entries estimates the Jaccard
+ *    similarity of two movies (see MinHashCoOccurrence)
+ *  - the movie id travels inside the signature once signatures are grouped by band, empty before
+ *  - serialized as: movie string, vint raters, vint k, then k fixed 4-byte ints (min hashes are uniform, a vint
+ *    would not be shorter)
+ * */
+
+public class MinHashWritable implements Writable {
+
+    private final Text movie = new Text();
+    private int raters;
+    private int[] mins = new int[0];
+
+    // empty signature of k hash functions: every min is +infinity
+    public void reset(int k) {
+        raters = 0;
+        if (mins.length != k) {
+            mins = new int[k];
+        }
+        Arrays.fill(mins, Integer.MAX_VALUE);
+    }
+
+    // adds one rater, hashes[i] = hash_i(user)
+    public void add(int[] hashes) {
+        for (int i = 0; i < mins.length; i++) {
+            if (hashes[i] < mins[i]) {
+                mins[i] = hashes[i];
+            }
+        }
+        raters++;
+    }
+
+    public void merge(MinHashWritable other) {
+        if (mins.length != other.mins.length) {
+            throw new IllegalArgumentException("signatures of " + mins.length + " and " + other.mins.length + " hashes");
+        }
+        for (int i = 0; i < mins.length; i++) {
+            if (other.mins[i] < mins[i]) {
+                mins[i] = other.mins[i];
+            }
+        }
+        raters += other.raters;
+    }
+
+    // copy of other, for reducers that keep values (hadoop reuses the value object)
+    public void set(MinHashWritable other) {
+        movie.set(other.movie);
+        raters = other.raters;
+        mins = Arrays.copyOf(other.mins, other.mins.length);
+    }
+
+    public Text getMovie() {
+        return movie;
+    }
+
+    public int getRaters() {
+        return raters;
+    }
+
+    public int size() {
+        return mins.length;
+    }
+
+    public int minAt(int i) {
+        return mins[i];
+    }
+
+    // true when entries [from, to) equal those of other
+    public boolean equalRange(MinHashWritable other, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (mins[i] != other.mins[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // estimated |A n B| / |A u B|
+    public double similarity(MinHashWritable other) {
+        int equal = 0;
+        for (int i = 0; i < mins.length; i++) {
+            if (mins[i] == other.mins[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / mins.length;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        movie.write(out);
+        WritableUtils.writeVInt(out, raters);
+        WritableUtils.writeVInt(out, mins.length);
+        for (int min : mins) {
+            out.writeInt(min);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        movie.readFields(in);
+        raters = WritableUtils.readVInt(in);
+        int k = WritableUtils.readVInt(in);
+        if (mins.length != k) {
+            mins = new int[k];
+        }
+        for (int i = 0; i < k; i++) {
+            mins[i] = in.readInt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return movie + " " + raters + " " + Arrays.toString(mins);
+    }
+
+}
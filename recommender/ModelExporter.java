@@ -0,0 +1,154 @@
+package recommender;
+
+import common.Compression;
+import common.DoubleList;
+import common.IntList;
+import common.LocalTasks;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Model export: normalized matrix + user rating rows in one binary file, for RecommendationModel
+ * 0. Task: turn the text outputs of the pipeline into a file a serving process can memory-map instead of parsing
+ *    rawInput format: movie2\tmovie1=2/8 (Normalizer output, or fused CoOccurrenceMatrixGenerator output)
+ *                     user,movie,rating
+ *      output format: one file, big-endian, every section 4-byte aligned:
+ *                     header:  MAGIC, VERSION, movies, users, cells, ratings (6 ints)
+ *                     movies:  movieIds[movies]                                 movie index -> movie id
+ *                     matrix:  columnStart[movies + 1], cellRows[cells], cellRelations[cells] (float)
+ *                              column movie2: cells [columnStart[movie2], columnStart[movie2 + 1])
+ *                     users:   userIds[users] (sorted, binary searched)         user index -> user id
+ *                     ratings: userStart[users + 1], ratingMovies[ratings] (movie index), ratingValues[ratings] (float)
+ *    Note: - ids must be ints (as in binary mode); with -Drecommender.dictionary.dir the file holds the encoded ids
+ *          - relations and ratings are stored as floats: half the size, scores agree with the pipeline to ~1e-6
+ *          - ratings of movies without relations can never score anything and are dropped
+ *
+ * 1. Configuration
+ *      - args[0]: normalized matrix dir, args[1]: rawInputFile, args[2]: model file (must not exist)
+ *      - Driver exports the model after the pipeline with -Drecommender.model.file=path (text mode only)
+ * */
+
+public class ModelExporter {
+
+    public static final String MODEL_FILE = "recommender.model.file";
+
+    static final int MAGIC = 0x52454331; // "REC1"
+    static final int VERSION = 1;
+    static final int HEADER_INTS = 6;
+
+    public static void export(Configuration conf, Path matrixDir, Path rawInput, Path modelFile) throws IOException {
+        NormalizedMatrix matrix = NormalizedMatrix.load(conf, LocalTasks.listInputFiles(matrixDir, conf));
+
+        IntList ratingUsers = new IntList();
+        IntList ratingMovies = new IntList();
+        DoubleList ratings = new DoubleList();
+        for (Path file : LocalTasks.listInputFiles(rawInput, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // input line value: user,movie,rating
+                    String[] user_movie_rating = line.trim().split(",");
+                    if (user_movie_rating.length != 3) { // bad input
+                        continue;
+                    }
+                    int movie = matrix.indexOf(user_movie_rating[1]);
+                    if (movie < 0) {
+                        continue;
+                    }
+                    ratingUsers.add(Integer.parseInt(user_movie_rating[0]));
+                    ratingMovies.add(movie);
+                    ratings.add(Double.parseDouble(user_movie_rating[2]));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // distinct sorted user ids, then bucket the ratings by user (CSR rows)
+        int[] sorted = ratingUsers.toSortedArray();
+        int users = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[users++] = sorted[i];
+            }
+        }
+        int[] userIds = Arrays.copyOf(sorted, users);
+        int[] userStart = new int[users + 1];
+        int[] ratingUser = new int[ratings.size()];
+        for (int i = 0; i < ratings.size(); i++) {
+            ratingUser[i] = Arrays.binarySearch(userIds, ratingUsers.get(i));
+            userStart[ratingUser[i] + 1]++;
+        }
+        for (int u = 0; u < users; u++) {
+            userStart[u + 1] += userStart[u];
+        }
+        int[] next = Arrays.copyOf(userStart, users);
+        int[] rowMovies = new int[ratings.size()];
+        float[] rowRatings = new float[ratings.size()];
+        for (int i = 0; i < ratings.size(); i++) {
+            int pos = next[ratingUser[i]]++;
+            rowMovies[pos] = ratingMovies.get(i);
+            rowRatings[pos] = (float) ratings.get(i);
+        }
+
+        int movies = matrix.movieCount();
+        int cells = matrix.columnStart(movies);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                modelFile.getFileSystem(conf).create(modelFile, false), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(movies);
+            out.writeInt(users);
+            out.writeInt(cells);
+            out.writeInt(rowMovies.length);
+
+            for (int m = 0; m < movies; m++) {
+                out.writeInt(Integer.parseInt(matrix.movieAt(m)));
+            }
+            for (int m = 0; m <= movies; m++) {
+                out.writeInt(matrix.columnStart(m));
+            }
+            for (int cell = 0; cell < cells; cell++) {
+                out.writeInt(matrix.rowAt(cell));
+            }
+            for (int cell = 0; cell < cells; cell++) {
+                out.writeFloat((float) matrix.relationAt(cell));
+            }
+
+            for (int userId : userIds) {
+                out.writeInt(userId);
+            }
+            for (int start : userStart) {
+                out.writeInt(start);
+            }
+            for (int movie : rowMovies) {
+                out.writeInt(movie);
+            }
+            for (float rating : rowRatings) {
+                out.writeFloat(rating);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        export(conf, new Path(args[0]), new Path(args[1]), new Path(args[2]));
+
+    }
+
+}
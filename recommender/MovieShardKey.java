@@ -0,0 +1,107 @@
+package recommender;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Key of the skew-handling Multiplier: (movie2, shard, tag)
+ *  - shard: a heavy movie's ratings are split over several shards, its relations are copied to every shard
+ *  - tag:   RELATION (0) sorts before RATING (1), so a reducer sees the whole column before the first rating
+ *  - sorted by movie, shard, tag; partitioned and grouped by movie and shard only (secondary sort)
+ * */
+
+public class MovieShardKey implements WritableComparable<MovieShardKey> {
+
+    public static final byte RELATION = 0;
+    public static final byte RATING = 1;
+
+    private final Text movie = new Text();
+    private int shard;
+    private byte tag;
+
+    public void set(Text movie, int shard, byte tag) {
+        this.movie.set(movie);
+        this.shard = shard;
+        this.tag = tag;
+    }
+
+    public Text getMovie() {
+        return movie;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        movie.write(out);
+        out.writeInt(shard);
+        out.writeByte(tag);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        movie.readFields(in);
+        shard = in.readInt();
+        tag = in.readByte();
+    }
+
+    @Override
+    public int compareTo(MovieShardKey other) {
+        int byGroup = compareGroup(other);
+        return byGroup != 0 ? byGroup : Byte.compare(tag, other.tag);
+    }
+
+    private int compareGroup(MovieShardKey other) {
+        int byMovie = movie.compareTo(other.movie);
+        return byMovie != 0 ? byMovie : Integer.compare(shard, other.shard);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MovieShardKey && compareTo((MovieShardKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return movie.hashCode() * 163 + shard;
+    }
+
+    @Override
+    public String toString() {
+        return movie + "#" + shard + "#" + tag;
+    }
+
+    // one reduce() call per (movie, shard): relations first, then the ratings of that shard
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(MovieShardKey.class, true);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((MovieShardKey) a).compareGroup((MovieShardKey) b);
+        }
+    }
+
+    public static class ShardPartitioner<V> extends Partitioner<MovieShardKey, V> {
+
+        @Override
+        public int getPartition(MovieShardKey key, V value, int numPartitions) {
+            return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+}
@@ -1,20 +1,39 @@
 package recommender;
 
+import common.Compression;
+import common.DoubleList;
+import common.FieldBuffer;
+import common.IntList;
+import common.LocalTasks;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.chain.ChainMapper;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /** 4th mapreduce job
@@ -47,43 +66,115 @@ import java.util.Map;
  *          - Output key is movie1, not movie2, which is the input key!!!
  *
  * 4. Configuration and jobs
- *      - when there's two mappers in one mapreduce job, chain the two mappers by:
- *          `ChainMapper.addMapper(job, CoOccurrenceMapper.class, LongWritable.class, Text.class, Text.class,Text.class, conf);...`
+ *      - when there's two mappers reading two different dirs, don't chain them (ChainMapper runs mappers one after
+ *        another on the same record); MultipleInputs sets a delegating mapper that picks the mapper by input dir
  *      - set map output key/value class when it's not consistent with reducer output key/value class:
  *          `job.setMapOutputKeyClass(Text.class); job.setMapOutputValueClass(Text.class);`
  *      - specify which mapper reads which dir as input:
  *          `MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, CoOccurrenceMapper.class);`
+ *
+ * 5. binary mode (recommender.intermediate.format=binary, see IntermediateFormat)
+ *      mapper1: identity over the Normalizer SequenceFile, key: IntWritable(movie2), value: EntryWritable(RELATION, movie1, 2/8)
+ *      mapper2: user,movie,rating -> key: IntWritable(movie2), value: EntryWritable(RATING, user1, 10)
+ *      output:  SequenceFile, key: IntPairWritable(user1, movie1), value: DoubleWritable(10*2/8)
+ *      with recommender.topn.fused=true the reducer also writes key: (user1, movie2), value: NaN for every rating,
+ *      so that Aggregator can drop the movies user1 already watched without reading the rating file again
+ *
+ * 6. skew handling (recommender.multiplier.skew.threshold = T raters, text mode)
+ *      - a blockbuster movie2 sends every rating plus its whole column to one reduce() call, which buffers both
+ *      - heavy movies: movies rated by >= T users, read from the _raters/ side output of Normalizer (the diagonal
+ *        of the co-occurrence matrix); a heavy movie with n raters gets ceil(n / T) shards
+ *      - mapper1: key: (movie2, shard, RELATION), value: movie1=2/8, copied to every shard of a heavy movie2
+ *        mapper2: key: (movie2, hash(user1) % shards, RATING), value: user1:10
+ *      - secondary sort (MovieShardKey): partition and group by (movie2, shard), sort RELATION before RATING,
+ *        so the reducer buffers only the column and streams the ratings (at most T per shard of a heavy movie)
+ *      - output is the same user1:movie1\t10*2/8
+ *
+ * 7. broadcast join (recommender.multiplier.broadcast.max.bytes = B, text mode, default 64 MB)
+ *      - when the normalized matrix dir holds at most B bytes, the job is map-only: every mapper loads the matrix
+ *        from the distributed cache into a NormalizedMatrix (CSR columns indexed by movie2) and joins it against
+ *        the streamed ratings, nothing is shuffled
+ *      - BroadcastRatingMapper: input line value: user1,movie2,rating
+ *                               output key: user1:movie1, value: rating*relation(movie1,movie2), for every cell of
+ *                               column movie2 (same records as the reducer, part-m files, in rating order)
+ *      - above B (or with B = 0) the reduce-side join above runs, with skew handling if it is configured
+ *      - every mapper holds the whole matrix, so B must leave room in the task heap; B counts stored bytes, a
+ *        compressed matrix (see common.Compression) takes more once loaded
  * */
 
 public class Multiplier {
 
+    public static final String SKEW_THRESHOLD = "recommender.multiplier.skew.threshold";
+    // heavy movies and their shard counts, movie2=shards,..., computed in createJob
+    static final String SKEW_HEAVY = "recommender.multiplier.skew.heavy";
+    public static final String BROADCAST_MAX_BYTES = "recommender.multiplier.broadcast.max.bytes";
+
     public static class CoOccurrenceMapper extends Mapper<LongWritable, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: movie2\tmovie1=relation
             //       output key: movie2
             //            value: movie1=relation
-            String[] line = value.toString().trim().split("\t");
-            context.write(new Text(line[0]), new Text(line[1]));
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            scanner.copyTo(outputKey);
+            scanner.next('\t');
+            scanner.copyTo(outputValue);
+            context.write(outputKey, outputValue);
         }
 
     }
 
     public static class RatingMapper extends Mapper<LongWritable, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: user1,movie2,rating
             //       output key: movie2
             //            value: user1:rating
-            String[] line = value.toString().trim().split(",");
-            context.write(new Text(line[1]), new Text(line[0] + ":" + line[2]));
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(outputValue);
+            TextScanner.append(outputValue, ':');
+            scanner.next(',');
+            scanner.copyTo(outputKey);
+            scanner.next(',');
+            scanner.appendTo(outputValue);
+            context.write(outputKey, outputValue);
         }
 
     }
 
-    public class MultiplicationReducer extends Reducer<Text, Text, Text, DoubleWritable> {
+    public static class MultiplicationReducer extends Reducer<Text, Text, Text, DoubleWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final FieldBuffer movies = new FieldBuffer();
+        private final DoubleList relations = new DoubleList();
+        private final FieldBuffer users = new FieldBuffer();
+        private final DoubleList ratings = new DoubleList();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
 
         @Override
         protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
@@ -97,50 +188,431 @@ public class Multiplier {
             //         key: user1:movie3
             //       value: rating1*relation3
             //              ...
-            Map<String, Double> relationMap = new HashMap<String, Double>();
-            Map<String, Double> ratingMap = new HashMap<String, Double>();
+            // value objects are reused by hadoop: copy the ids into reusable buffers
+            movies.clear();
+            relations.clear();
+            users.clear();
+            ratings.clear();
 
             for (Text value : values) {
-                if (value.toString().contains("=")) {
-                    String[] movie_relation = value.toString().split("=");
-                    relationMap.put(movie_relation[0], Double.parseDouble(movie_relation[1]));
+                if (scanner.reset(value).remaining('=') == 2) { // movie1=relation
+                    scanner.next('=');
+                    movies.add(scanner);
+                    scanner.next('=');
+                    relations.add(scanner.parseDouble());
+                } else { // user1:rating
+                    scanner.next(':');
+                    users.add(scanner);
+                    scanner.next(':');
+                    ratings.add(scanner.parseDouble());
+                }
+            }
+            valuesPerKey.add(movies.size() + users.size());
+
+            for (int i = 0; i < movies.size(); i++) {
+                double relation = relations.get(i);
+
+                for (int j = 0; j < users.size(); j++) {
+                    users.copyTo(j, outputKey); // user1:movie1, not input key (movie2)
+                    TextScanner.append(outputKey, ':');
+                    movies.appendTo(i, outputKey);
+                    outputValue.set(relation * ratings.get(j));
+                    context.write(outputKey, outputValue);
+                }
+            }
+
+        }
+
+    }
+
+    public static class BroadcastRatingMapper extends Mapper<LongWritable, Text, Text, DoubleWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie = new Text();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private NormalizedMatrix matrix;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            List<Path> files = new ArrayList<Path>();
+            for (URI uri : context.getCacheFiles()) {
+                files.add(new Path(uri));
+            }
+            matrix = NormalizedMatrix.load(context.getConfiguration(), files);
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user1,movie2,rating
+            //       output key: user1:movie1
+            //            value: rating*relation(movie1,movie2), for every cell of column movie2
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            byte[] bytes = scanner.bytes();
+            int userStart = scanner.start();
+            int userLength = scanner.length();
+            scanner.next(',');
+            scanner.copyTo(movie);
+            int movie2 = matrix.indexOf(movie);
+            if (movie2 < 0) { // no relations
+                return;
+            }
+            scanner.next(',');
+            double rating = scanner.parseDouble();
+
+            for (int cell = matrix.columnStart(movie2); cell < matrix.columnEnd(movie2); cell++) {
+                outputKey.set(bytes, userStart, userLength); // not input key (movie2)
+                TextScanner.append(outputKey, ':');
+                matrix.appendMovie(matrix.rowAt(cell), outputKey);
+                outputValue.set(matrix.relationAt(cell) * rating);
+                context.write(outputKey, outputValue);
+            }
+        }
+
+    }
+
+    public static class BinaryRatingMapper extends Mapper<LongWritable, Text, IntWritable, EntryWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final IntWritable outputKey = new IntWritable();
+        private final EntryWritable outputValue = new EntryWritable();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user1,movie2,rating
+            //       output key: movie2
+            //            value: (RATING, user1, rating)
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            int user = scanner.parseInt();
+            scanner.next(',');
+            outputKey.set(scanner.parseInt());
+            scanner.next(',');
+            outputValue.set(EntryWritable.RATING, user, scanner.parseDouble());
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    public static class BinaryMultiplicationReducer extends Reducer<IntWritable, EntryWritable, IntPairWritable, DoubleWritable> {
+
+        private final IntList movies = new IntList();
+        private final DoubleList relations = new DoubleList();
+        private final IntList users = new IntList();
+        private final DoubleList ratings = new DoubleList();
+        private final IntPairWritable outputKey = new IntPairWritable();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private boolean markWatched;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            markWatched = context.getConfiguration().getBoolean(RecommendationExtractor.FUSED, false);
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(IntWritable key, Iterable<EntryWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie2
+            //      values: <(RELATION, movie1, relation1), ..., (RATING, user1, rating1), ...>
+            // output: key: (user1, movie1)
+            //       value: rating1*relation1
+            movies.clear();
+            relations.clear();
+            users.clear();
+            ratings.clear();
+
+            for (EntryWritable value : values) { // value object is reused by hadoop, copy the fields out
+                if (value.getTag() == EntryWritable.RELATION) {
+                    movies.add(value.getId());
+                    relations.add(value.getValue());
                 } else {
-                    String[] user_rating = value.toString().split(":");
-                    ratingMap.put(user_rating[0], Double.parseDouble(user_rating[1]));
+                    users.add(value.getId());
+                    ratings.add(value.getValue());
+                }
+            }
+            valuesPerKey.add(movies.size() + users.size());
+
+            for (int i = 0; i < movies.size(); i++) {
+                for (int j = 0; j < users.size(); j++) {
+                    outputKey.set(users.get(j), movies.get(i)); // not input key (movie2)
+                    outputValue.set(relations.get(i) * ratings.get(j));
+                    context.write(outputKey, outputValue);
+                }
+            }
+
+            if (markWatched) { // NaN survives the sum, Aggregator skips (user, movie2)
+                for (int j = 0; j < users.size(); j++) {
+                    outputKey.set(users.get(j), key.get());
+                    outputValue.set(Double.NaN);
+                    context.write(outputKey, outputValue);
                 }
             }
+        }
+
+    }
 
-            for (Map.Entry<String, Double> entry1 : relationMap.entrySet()) {
-                String movie1 = entry1.getKey();
-                Double relation = entry1.getValue();
+    public static class SkewCoOccurrenceMapper extends Mapper<LongWritable, Text, MovieShardKey, Text> {
 
-                for (Map.Entry<String, Double> entry2 : ratingMap.entrySet()) {
-                    String user = entry2.getKey();
-                    Double rating = entry2.getValue();
+        private Map<Text, Integer> heavy;
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie = new Text();
+        private final MovieShardKey outputKey = new MovieShardKey();
+        private final Text outputValue = new Text();
 
-                    String outputKey = user + ":" + movie1; // not input key (movie2)
-                    Double outputValue = relation * rating;
-                    context.write(new Text(outputKey), new DoubleWritable(outputValue));
+        @Override
+        protected void setup(Context context) {
+            heavy = heavyMovies(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: movie2\tmovie1=relation
+            //       output key: (movie2, shard, RELATION) for every shard of movie2
+            //            value: movie1=relation
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            scanner.copyTo(movie);
+            scanner.next('\t');
+            scanner.copyTo(outputValue);
+            Integer shards = heavy.get(movie);
+            for (int shard = 0; shard < (shards == null ? 1 : shards); shard++) {
+                outputKey.set(movie, shard, MovieShardKey.RELATION);
+                context.write(outputKey, outputValue);
+            }
+        }
+
+    }
+
+    public static class SkewRatingMapper extends Mapper<LongWritable, Text, MovieShardKey, Text> {
+
+        private Map<Text, Integer> heavy;
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie = new Text();
+        private final MovieShardKey outputKey = new MovieShardKey();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void setup(Context context) {
+            heavy = heavyMovies(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user1,movie2,rating
+            //       output key: (movie2, hash(user1) % shards, RATING)
+            //            value: user1:rating
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(outputValue);
+            int userHash = WritableComparator.hashBytes(scanner.bytes(), scanner.start(), scanner.length());
+            TextScanner.append(outputValue, ':');
+            scanner.next(',');
+            scanner.copyTo(movie);
+            scanner.next(',');
+            scanner.appendTo(outputValue);
+            Integer shards = heavy.get(movie);
+            int shard = shards == null ? 0 : (userHash & Integer.MAX_VALUE) % shards;
+            outputKey.set(movie, shard, MovieShardKey.RATING);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    public static class StreamingMultiplicationReducer extends Reducer<MovieShardKey, Text, Text, DoubleWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final FieldBuffer movies = new FieldBuffer();
+        private final DoubleList relations = new DoubleList();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(MovieShardKey key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // input:  key: (movie2, shard)
+            //      values: <movie1=relation1, movie3=relation3, ..., user1:rating1, user7:rating7, ...>
+            //              (all relations first, then this shard's ratings)
+            // output: key: user1:movie1
+            //       value: rating1*relation1
+            // only the column is buffered (value objects are reused by hadoop: copied out), ratings are streamed
+            movies.clear();
+            relations.clear();
+            int count = 0;
+
+            for (Text value : values) {
+                count++;
+                scanner.reset(value);
+                // hadoop updates the key while iterating a group: it tells whether this value is a relation or a rating
+                if (key.getTag() == MovieShardKey.RELATION) {
+                    scanner.next('=');
+                    movies.add(scanner);
+                    scanner.next('=');
+                    relations.add(scanner.parseDouble());
+                } else {
+                    scanner.next(':');
+                    byte[] bytes = scanner.bytes();
+                    int userStart = scanner.start();
+                    int userLength = scanner.length();
+                    scanner.next(':');
+                    double rating = scanner.parseDouble();
+                    for (int i = 0; i < movies.size(); i++) {
+                        outputKey.set(bytes, userStart, userLength); // user1:movie1, not input key (movie2)
+                        TextScanner.append(outputKey, ':');
+                        movies.appendTo(i, outputKey);
+                        outputValue.set(relations.get(i) * rating);
+                        context.write(outputKey, outputValue);
+                    }
                 }
             }
+            valuesPerKey.add(count);
+        }
+
+    }
+
+    // size of the matrix when it can be broadcast to the mappers, -1 when the reduce-side join has to run
+    static long broadcastBytes(Configuration conf, Path matrixDir) throws IOException {
+        long maxBytes = conf.getLong(BROADCAST_MAX_BYTES, 64L * 1024 * 1024);
+        if (maxBytes <= 0 || IntermediateFormat.isBinary(conf)) {
+            return -1;
+        }
+        FileSystem fs = matrixDir.getFileSystem(conf);
+        long bytes = 0;
+        for (Path file : LocalTasks.listInputFiles(matrixDir, conf)) {
+            bytes += fs.getFileStatus(file).getLen();
+            if (bytes > maxBytes) {
+                return -1;
+            }
+        }
+        return bytes;
+    }
+
+    public static int skewThreshold(Configuration conf) {
+        return conf.getInt(SKEW_THRESHOLD, 0);
+    }
 
+    // keyed by Text, so the mappers look movies up with the field they scanned
+    static Map<Text, Integer> heavyMovies(Configuration conf) {
+        Map<Text, Integer> heavy = new HashMap<Text, Integer>();
+        for (String movie_shards : conf.getTrimmedStrings(SKEW_HEAVY)) {
+            int eq = movie_shards.lastIndexOf('=');
+            heavy.put(new Text(movie_shards.substring(0, eq)), Integer.parseInt(movie_shards.substring(eq + 1)));
         }
+        return heavy;
+    }
 
+    // movie2=shards for every movie rated by at least threshold users, from the matrix dir's _raters/ side output
+    private static String findHeavyMovies(Configuration conf, Path matrixDir, int threshold) throws IOException {
+        Path ratersDir = new Path(matrixDir, Normalizer.RATERS_DIR);
+        FileSystem fs = ratersDir.getFileSystem(conf);
+        StringBuilder sb = new StringBuilder();
+        if (!fs.exists(ratersDir)) {
+            return sb.toString();
+        }
+        for (Path file : LocalTasks.listInputFiles(ratersDir, conf)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // movie\traters
+                    String[] movie_raters = line.split("\t");
+                    long raters = Long.parseLong(movie_raters[1]);
+                    if (raters >= threshold) {
+                        sb.append(sb.length() == 0 ? "" : ",").append(movie_raters[0]).append("=")
+                                .append((raters + threshold - 1) / threshold);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return sb.toString();
     }
 
-    public static void main(String[] args) throws Exception {
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        Configuration conf = new Configuration();
         Job job = Job.getInstance(conf);
         job.setJarByClass(Multiplier.class);
+        Compression.configure(job);
+
+        if (broadcastBytes(conf, new Path(args[0])) >= 0) {
+            job.setMapperClass(BroadcastRatingMapper.class);
+            job.setNumReduceTasks(0); // the join happens map-side
+
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(DoubleWritable.class);
+
+            // ship every part file of the normalized matrix to the mappers
+            for (Path file : LocalTasks.listInputFiles(new Path(args[0]), conf)) {
+                job.addCacheFile(file.toUri()); // listed paths are fully qualified
+            }
+
+            TextInputFormat.setInputPaths(job, new Path(args[1]));
+            TextOutputFormat.setOutputPath(job, new Path(args[2]));
+            return job;
+        }
 
-        // chain two mappers
-        ChainMapper.addMapper(job, CoOccurrenceMapper.class, LongWritable.class, Text.class, Text.class,Text.class, conf);
-        ChainMapper.addMapper(job, RatingMapper.class, LongWritable.class, Text.class, Text.class, Text.class, conf);
+        int skewThreshold = skewThreshold(conf);
+        if (skewThreshold > 0 && !IntermediateFormat.isBinary(conf)) {
+            job.getConfiguration().set(SKEW_HEAVY, findHeavyMovies(conf, new Path(args[0]), skewThreshold));
 
-        // set mapper/reducer class
-        job.setMapperClass(CoOccurrenceMapper.class);
-        job.setMapperClass(RatingMapper.class);
+            job.setPartitionerClass(MovieShardKey.ShardPartitioner.class);
+            job.setGroupingComparatorClass(MovieShardKey.GroupingComparator.class);
+            job.setReducerClass(StreamingMultiplicationReducer.class);
+
+            job.setMapOutputKeyClass(MovieShardKey.class);
+            job.setMapOutputValueClass(Text.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(DoubleWritable.class);
+
+            MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, SkewCoOccurrenceMapper.class);
+            MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, SkewRatingMapper.class);
+
+            TextOutputFormat.setOutputPath(job, new Path(args[2]));
+            return job;
+        }
+
+        if (IntermediateFormat.isBinary(conf)) {
+            job.setReducerClass(BinaryMultiplicationReducer.class);
+
+            job.setMapOutputKeyClass(IntWritable.class);
+            job.setMapOutputValueClass(EntryWritable.class);
+
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+            job.setOutputKeyClass(IntPairWritable.class);
+            job.setOutputValueClass(DoubleWritable.class);
+
+            // Normalizer output is already keyed by movie2, so the base Mapper (identity) reads it
+            MultipleInputs.addInputPath(job, new Path(args[0]), SequenceFileInputFormat.class, Mapper.class);
+            MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, BinaryRatingMapper.class);
+
+            SequenceFileOutputFormat.setOutputPath(job, new Path(args[2]));
+            return job;
+        }
+
+        // set reducer class (mapper classes are set per input dir by MultipleInputs below)
         job.setReducerClass(MultiplicationReducer.class);
 
         // set map output key/value class when it's not consistent with reducer output key/value class
@@ -156,7 +628,16 @@ public class Multiplier {
 
         TextOutputFormat.setOutputPath(job, new Path(args[2]));
 
-        job.waitForCompletion(true);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
@@ -0,0 +1,141 @@
+package recommender;
+
+import common.IntList;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Sparsification of one row of the co-occurrence matrix before it is normalized (see Normalizer)
+ *
+ *  - recommender.normalizer.topk=K:            keep the K strongest neighbors of movie1 (highest counts, ties: smaller id)
+ *  - recommender.normalizer.min.count=c:       drop neighbors seen together with movie1 by fewer than c users
+ *  - recommender.normalizer.min.weight=w:      drop neighbors whose relation count/sum is below w (sum of the full row)
+ *  - recommender.normalizer.renormalize=true:  divide by the sum of the kept cells, so every kept row sums to 1 again;
+ *                                              otherwise the full row sum is kept and the relations are unchanged
+ *  - the diagonal (movie1, movie1) is never pruned: it is the rater count of movie1 and takes no neighbor slot
+ *  - every movie has at most K neighbors, so the matrix has at most movies * (K + 1) cells and Multiplier emits
+ *    about K records per rating instead of one per co-rated movie
+ * */
+
+public class NeighborPruning {
+
+    public static final String TOP_K = "recommender.normalizer.topk";
+    public static final String MIN_COUNT = "recommender.normalizer.min.count";
+    public static final String MIN_WEIGHT = "recommender.normalizer.min.weight";
+    public static final String RENORMALIZE = "recommender.normalizer.renormalize";
+
+    private final int topK;
+    private final int minCount;
+    private final double minWeight;
+    private final boolean renormalize;
+
+    // scratch of the binary path: (Integer.MAX_VALUE - count) << 32 | movie sorts strongest first, ties by movie id
+    private long[] candidates = new long[16];
+
+    public NeighborPruning(Configuration conf) {
+        topK = conf.getInt(TOP_K, 0);
+        minCount = conf.getInt(MIN_COUNT, 0);
+        minWeight = conf.getDouble(MIN_WEIGHT, 0);
+        renormalize = conf.getBoolean(RENORMALIZE, false);
+    }
+
+    public boolean isEnabled() {
+        return topK > 0 || minCount > 0 || minWeight > 0;
+    }
+
+    private boolean keeps(int count, long sum) {
+        return count >= minCount && (double) count / sum >= minWeight;
+    }
+
+    // row movie1: {movie2: count} -> the kept cells (the row itself when pruning is off)
+    public Map<String, Integer> prune(String movie1, Map<String, Integer> row, long sum) {
+        if (!isEnabled()) {
+            return row;
+        }
+        List<Map.Entry<String, Integer>> neighbors = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map.Entry<String, Integer> entry : row.entrySet()) {
+            if (!entry.getKey().equals(movie1) && keeps(entry.getValue(), sum)) {
+                neighbors.add(entry);
+            }
+        }
+        if (topK > 0 && neighbors.size() > topK) {
+            Collections.sort(neighbors, STRONGEST_FIRST);
+            neighbors = neighbors.subList(0, topK);
+        }
+
+        Map<String, Integer> kept = new HashMap<String, Integer>();
+        Integer diagonal = row.get(movie1);
+        if (diagonal != null) {
+            kept.put(movie1, diagonal);
+        }
+        for (Map.Entry<String, Integer> entry : neighbors) {
+            kept.put(entry.getKey(), entry.getValue());
+        }
+        return kept;
+    }
+
+    // row movie1 as parallel lists -> the kept cells are appended to keptMovies/keptCounts
+    public void prune(int movie1, IntList movies, IntList counts, long sum, IntList keptMovies, IntList keptCounts) {
+        keptMovies.clear();
+        keptCounts.clear();
+        int size = 0;
+        for (int i = 0; i < movies.size(); i++) {
+            if (movies.get(i) == movie1 || !isEnabled()) {
+                keptMovies.add(movies.get(i));
+                keptCounts.add(counts.get(i));
+            } else if (keeps(counts.get(i), sum)) {
+                if (size == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, size * 2);
+                }
+                candidates[size++] = ((long) (Integer.MAX_VALUE - counts.get(i)) << 32) | (movies.get(i) & 0xffffffffL);
+            }
+        }
+        if (topK > 0 && size > topK) {
+            Arrays.sort(candidates, 0, size);
+            size = topK;
+        }
+        for (int i = 0; i < size; i++) {
+            keptMovies.add((int) candidates[i]);
+            keptCounts.add(Integer.MAX_VALUE - (int) (candidates[i] >>> 32));
+        }
+    }
+
+    // denominator of the kept cells: the full row sum, or their own sum with renormalization
+    public long denominator(long sum, Iterable<Integer> keptCounts) {
+        if (!renormalize || !isEnabled()) {
+            return sum;
+        }
+        long keptSum = 0;
+        for (int count : keptCounts) {
+            keptSum += count;
+        }
+        return keptSum;
+    }
+
+    public long denominator(long sum, IntList keptCounts) {
+        if (!renormalize || !isEnabled()) {
+            return sum;
+        }
+        long keptSum = 0;
+        for (int i = 0; i < keptCounts.size(); i++) {
+            keptSum += keptCounts.get(i);
+        }
+        return keptSum;
+    }
+
+    // highest count first, ties: smaller movie id first
+    private static final Comparator<Map.Entry<String, Integer>> STRONGEST_FIRST = new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+            int byCount = b.getValue().compareTo(a.getValue());
+            return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+        }
+    };
+
+}
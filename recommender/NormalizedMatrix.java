@@ -0,0 +1,157 @@
+package recommender;
+
+import common.Compression;
+import common.DoubleList;
+import common.IntList;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Normalized co-occurrence matrix held in memory, column by column
+ *    rawInput format: movie2\tmovie1=2/8 (Normalizer output, or fused CoOccurrenceMatrixGenerator output)
+ *
+ *  - every movie gets a dense local index when loaded; columns are stored as CSR arrays of those indices:
+ *      column movie2: rows [columnStart[movie2], columnStart[movie2 + 1]) of columnMovies/columnRelations
+ *  - a side-loaded copy of the matrix for jobs that score per user instead of joining per movie
+ *  - movie ids are kept as Text, so a mapper can look them up and write them from the bytes of its input
+ *  - row totals (sum of the relations of movie1 over all columns) are kept for mean imputation (see UserScorer)
+ * */
+
+public class NormalizedMatrix {
+
+    private final Text[] movies;
+    private final Map<Text, Integer> index;
+    private final int[] columnStart;
+    private final int[] columnMovies;
+    private final double[] columnRelations;
+    private final double[] rowTotals;
+
+    private NormalizedMatrix(Text[] movies, Map<Text, Integer> index,
+                             int[] columnStart, int[] columnMovies, double[] columnRelations, double[] rowTotals) {
+        this.movies = movies;
+        this.index = index;
+        this.columnStart = columnStart;
+        this.columnMovies = columnMovies;
+        this.columnRelations = columnRelations;
+        this.rowTotals = rowTotals;
+    }
+
+    public static NormalizedMatrix load(Configuration conf, List<Path> files) throws IOException {
+        Map<Text, Integer> index = new HashMap<Text, Integer>();
+        IntList columns = new IntList();
+        IntList rows = new IntList();
+        DoubleList relations = new DoubleList();
+
+        for (Path file : files) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(conf, file), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // input line value: movie2\tmovie1=relation
+                    int tab = line.indexOf('\t');
+                    int eq = line.indexOf('=', tab + 1);
+                    if (tab < 0 || eq < 0) { // bad input
+                        continue;
+                    }
+                    columns.add(indexOf(index, new Text(line.substring(0, tab).trim())));
+                    rows.add(indexOf(index, new Text(line.substring(tab + 1, eq).trim())));
+                    relations.add(Double.parseDouble(line.substring(eq + 1).trim()));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        Text[] movies = new Text[index.size()];
+        for (Map.Entry<Text, Integer> entry : index.entrySet()) {
+            movies[entry.getValue()] = entry.getKey();
+        }
+
+        // bucket cells by column
+        int cells = relations.size();
+        int[] columnStart = new int[movies.length + 1];
+        for (int i = 0; i < cells; i++) {
+            columnStart[columns.get(i) + 1]++;
+        }
+        for (int m = 0; m < movies.length; m++) {
+            columnStart[m + 1] += columnStart[m];
+        }
+        int[] next = Arrays.copyOf(columnStart, movies.length);
+        int[] columnMovies = new int[cells];
+        double[] columnRelations = new double[cells];
+        double[] rowTotals = new double[movies.length];
+        for (int i = 0; i < cells; i++) {
+            int pos = next[columns.get(i)]++;
+            columnMovies[pos] = rows.get(i);
+            columnRelations[pos] = relations.get(i);
+            rowTotals[rows.get(i)] += relations.get(i);
+        }
+
+        return new NormalizedMatrix(movies, index, columnStart, columnMovies, columnRelations, rowTotals);
+    }
+
+    private static int indexOf(Map<Text, Integer> index, Text movie) {
+        Integer i = index.get(movie);
+        if (i == null) {
+            i = index.size();
+            index.put(movie, i);
+        }
+        return i;
+    }
+
+    public int movieCount() {
+        return movies.length;
+    }
+
+    // local index of a movie id, -1 when the movie has no relations
+    public int indexOf(String movie) {
+        return indexOf(new Text(movie));
+    }
+
+    public int indexOf(Text movie) {
+        Integer i = index.get(movie);
+        return i == null ? -1 : i;
+    }
+
+    public String movieAt(int i) {
+        return movies[i].toString();
+    }
+
+    public void appendMovie(int i, Text target) {
+        target.append(movies[i].getBytes(), 0, movies[i].getLength());
+    }
+
+    public int columnStart(int movie2) {
+        return columnStart[movie2];
+    }
+
+    public int columnEnd(int movie2) {
+        return columnStart[movie2 + 1];
+    }
+
+    // movie1 of a cell in a column
+    public int rowAt(int cell) {
+        return columnMovies[cell];
+    }
+
+    // relation(movie1, movie2) of a cell in a column
+    public double relationAt(int cell) {
+        return columnRelations[cell];
+    }
+
+    // sum over all movie2 of relation(movie1, movie2): 1 unless the row was pruned without renormalizing
+    public double rowTotal(int movie1) {
+        return rowTotals[movie1];
+    }
+
+}
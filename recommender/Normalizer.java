@@ -1,14 +1,26 @@
 package recommender;
 
+import common.Compression;
+import common.IntList;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -35,31 +47,98 @@ import java.util.Map;
  *           value: movie1=2/8
  *    Note: - To normalize, you'll need the sum as denominator; you can put iterable values to a hash map
  *          - For later cell multiplication purposes, transpose the output vector (to col vec) before writing to context
+ *          - CoOccurrenceMatrixGenerator can do this step itself (recommender.cooccurrence.normalize=true), since its
+ *            stripes reducer already holds a whole row; both use writeNormalizedColumns()
+ *          - sparsification (recommender.normalizer.topk / min.count / min.weight / renormalize, see NeighborPruning):
+ *            each row keeps its diagonal and its K strongest neighbors before it is normalized, so Multiplier
+ *            emits O(ratings * K) records; the _raters/ side output still sees the full row
+ *          - upper triangle input (recommender.cooccurrence.triangle=true): the mapper also writes key: movie2,
+ *            value: movie1=2 for every off-diagonal cell, so the reducer still sees whole rows
+ *          - with skew handling on (recommender.multiplier.skew.threshold > 0) the reducer also writes movie1\tcount(movie1,movie1)
+ *            (the number of users who rated movie1) to the hidden _raters/ dir of the output, Multiplier reads it
+ *            to find heavy movies; input formats skip names starting with _, so the matrix readers never see it
+ *
+ * 3. binary mode (recommender.intermediate.format=binary, see IntermediateFormat)
+ *      input:  SequenceFile, key: IntPairWritable(movie1, movie2), value: IntWritable(2)
+ *      mapper output: key: IntWritable(movie1), value: IntPairWritable(movie2, 2)
+ *      output: SequenceFile, key: IntWritable(movie2), value: EntryWritable(RELATION, movie1, 2/8)
+ *    Note: the output is already the map output format of Multiplier's binary join, so its mapper is an identity
  * */
 
 public class Normalizer {
 
+    static final String RATERS = "raters";
+    static final String RATERS_DIR = "_raters";
+
     public static class NormalizeMapper extends Mapper<LongWritable, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+        private boolean triangle;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            triangle = CoOccurrenceMatrixGenerator.isTriangle(context.getConfiguration());
+        }
+
         @Override
         protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
             // input line value: movie1:movie2\trelation
             //       output key: movie1
             //            value: movie2=2
 
-            String[] movies_relation = value.toString().trim().split("\t");
-            if (movies_relation.length != 2) return;
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+
+            scanner.next('\t'); // movie1:movie2
+            byte[] bytes = scanner.bytes();
+            int movie1 = scanner.start();
+            int colon = scanner.indexOf(':');
+            int movie2 = colon + 1;
+            int movie2Length = scanner.start() + scanner.length() - movie2;
+            scanner.next('\t'); // relation
 
-            String relation = movies_relation[1];
-            String movie1 = movies_relation[0].split(":")[0];
-            String movie2 = movies_relation[0].split(":")[1];
-            context.write(new Text(movie1), new Text(movie2 + "=" + relation));
+            outputKey.set(bytes, movie1, colon - movie1);
+            outputValue.set(bytes, movie2, movie2Length);
+            TextScanner.append(outputValue, '=');
+            scanner.appendTo(outputValue);
+            context.write(outputKey, outputValue);
+            if (triangle && WritableComparator.compareBytes(bytes, movie1, colon - movie1, bytes, movie2, movie2Length) != 0) {
+                // mirror the upper triangle
+                outputKey.set(bytes, movie2, movie2Length);
+                outputValue.set(bytes, movie1, colon - movie1);
+                TextScanner.append(outputValue, '=');
+                scanner.appendTo(outputValue);
+                context.write(outputKey, outputValue);
+            }
         }
 
     }
 
     public static class NormalizeReducer extends Reducer<Text, Text, Text, Text> {
 
+        private final TextScanner scanner = new TextScanner();
+        private MultipleOutputs<Text, Text> raters;
+        private NeighborPruning pruning;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) {
+            raters = ratersOutput(context);
+            pruning = new NeighborPruning(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (raters != null) {
+                raters.close();
+            }
+        }
+
         @Override
         protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
             //           sum -> denominator
@@ -69,36 +148,161 @@ public class Normalizer {
             // output: key: movie3
             //       value: movie1=2/8
 
-            int sum = 0;
+            long sum = 0; // a weighted row can sum past Integer.MAX_VALUE
             // put iterable (values) to a map
             Map<String, Integer> map = new HashMap<String, Integer>();
 
+            int count = 0;
             for (Text value : values) {
-                String[] movie_relation = value.toString().split("=");
-                String movie2 = movie_relation[0];
-                int relation = Integer.parseInt(movie_relation[1]);
+                scanner.reset(value).next('=');
+                String movie2 = scanner.string();
+                scanner.next('=');
+                int relation = scanner.parseInt();
                 sum += relation;
                 map.put(movie2, relation);
+                count++;
             }
+            valuesPerKey.add(count);
 
-            for (Map.Entry<String, Integer> entry : map.entrySet()) {
-                // transpose
-                String outputKey = entry.getKey();
-                String outputValue = key.toString() + "=" + (double) entry.getValue() / sum;
-                context.write(new Text(outputKey), new Text(outputValue));
+            writeNormalizedColumns(key.toString(), map, sum, pruning, context);
+            writeRaters(raters, key.toString(), map);
+
+        }
+    }
+
+    // side output for the skew-handling Multiplier, null when skew handling is off
+    static MultipleOutputs<Text, Text> ratersOutput(TaskInputOutputContext<?, ?, Text, Text> context) {
+        return Multiplier.skewThreshold(context.getConfiguration()) > 0 ? new MultipleOutputs<Text, Text>(context) : null;
+    }
+
+    // movie1\tcount(movie1, movie1): the diagonal of the co-occurrence matrix is the number of users who rated movie1
+    static void writeRaters(MultipleOutputs<Text, Text> raters, String movie1, Map<String, Integer> row)
+            throws IOException, InterruptedException {
+        Integer count = row.get(movie1);
+        if (raters != null && count != null) {
+            raters.write(RATERS, new Text(movie1), new IntWritable(count), RATERS_DIR + "/part");
+        }
+    }
+
+    static void addRatersOutput(Job job) {
+        if (Multiplier.skewThreshold(job.getConfiguration()) > 0) {
+            MultipleOutputs.addNamedOutput(job, RATERS, TextOutputFormat.class, Text.class, IntWritable.class);
+        }
+    }
+
+    // row movie1: {movie2: count, ...} -> movie2\tmovie1=count/sum, ... (pruned, normalized and transposed)
+    static void writeNormalizedColumns(String movie1, Map<String, Integer> row, long sum, NeighborPruning pruning,
+                                       TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        Map<String, Integer> kept = pruning.prune(movie1, row, sum);
+        long denominator = pruning.denominator(sum, kept.values());
+        Text outputKey = new Text();
+        Text outputValue = new Text();
+        for (Map.Entry<String, Integer> entry : kept.entrySet()) {
+            // transpose
+            outputKey.set(entry.getKey());
+            outputValue.set(movie1 + "=" + (double) entry.getValue() / denominator);
+            context.write(outputKey, outputValue);
+        }
+    }
+
+    public static class BinaryNormalizeMapper extends Mapper<IntPairWritable, IntWritable, IntWritable, IntPairWritable> {
+
+        private final IntWritable outputKey = new IntWritable();
+        private final IntPairWritable outputValue = new IntPairWritable();
+        private boolean triangle;
+
+        @Override
+        protected void setup(Context context) {
+            triangle = CoOccurrenceMatrixGenerator.isTriangle(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(IntPairWritable key, IntWritable value, Context context) throws IOException, InterruptedException {
+            // input:  key: (movie1, movie2)
+            //       value: 2
+            // output: key: movie1
+            //       value: (movie2, 2)
+            outputKey.set(key.getFirst());
+            outputValue.set(key.getSecond(), value.get());
+            context.write(outputKey, outputValue);
+            if (triangle && key.getFirst() != key.getSecond()) { // mirror the upper triangle
+                outputKey.set(key.getSecond());
+                outputValue.set(key.getFirst(), value.get());
+                context.write(outputKey, outputValue);
             }
+        }
+    }
+
+    public static class BinaryNormalizeReducer extends Reducer<IntWritable, IntPairWritable, IntWritable, EntryWritable> {
+
+        private final IntList movies = new IntList();
+        private final IntList counts = new IntList();
+        private final IntList keptMovies = new IntList();
+        private final IntList keptCounts = new IntList();
+        private final IntWritable outputKey = new IntWritable();
+        private final EntryWritable outputValue = new EntryWritable();
+        private NeighborPruning pruning;
+        private ValuesPerKey valuesPerKey;
 
+        @Override
+        protected void setup(Context context) {
+            pruning = new NeighborPruning(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(IntWritable key, Iterable<IntPairWritable> values, Context context) throws IOException, InterruptedException {
+            // input:  key: movie1
+            //      values: <(movie1, 2), (movie2, 4), (movie3, 2)>
+            // output: key: movie3
+            //       value: (RELATION, movie1, 2/8)
+            movies.clear();
+            counts.clear();
+            long sum = 0;
+            for (IntPairWritable value : values) { // value object is reused by hadoop, copy the ints out
+                movies.add(value.getFirst());
+                counts.add(value.getSecond());
+                sum += value.getSecond();
+            }
+            valuesPerKey.add(movies.size());
+
+            pruning.prune(key.get(), movies, counts, sum, keptMovies, keptCounts);
+            long denominator = pruning.denominator(sum, keptCounts);
+            for (int i = 0; i < keptMovies.size(); i++) {
+                // transpose
+                outputKey.set(keptMovies.get(i));
+                outputValue.set(EntryWritable.RELATION, key.get(), (double) keptCounts.get(i) / denominator);
+                context.write(outputKey, outputValue);
+            }
         }
     }
 
-    public static void main(String[] args) throws Exception {
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
 
-        Configuration conf = new Configuration();
         Job job = Job.getInstance(conf);
         job.setJarByClass(Normalizer.class);
+        Compression.configure(job);
+
+        if (IntermediateFormat.isBinary(conf)) {
+            job.setMapperClass(BinaryNormalizeMapper.class);
+            job.setReducerClass(BinaryNormalizeReducer.class);
+
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+            job.setMapOutputKeyClass(IntWritable.class);
+            job.setMapOutputValueClass(IntPairWritable.class);
+            job.setOutputKeyClass(IntWritable.class);
+            job.setOutputValueClass(EntryWritable.class);
+
+            SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+            SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+            return job;
+        }
 
         job.setMapperClass(NormalizeMapper.class);
         job.setReducerClass(NormalizeReducer.class);
+        addRatersOutput(job);
 
         job.setInputFormatClass(TextInputFormat.class);
         job.setOutputFormatClass(TextOutputFormat.class);
@@ -109,7 +313,16 @@ public class Normalizer {
         TextInputFormat.setInputPaths(job, new Path(args[0]));
         TextOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.waitForCompletion(true);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
 
     }
 
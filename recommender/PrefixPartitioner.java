@@ -0,0 +1,25 @@
+package recommender;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/** Partitioner for the text pipeline's composite keys (user1:movie1, movie1:movie2)
+ *  - hashes only the bytes before the first ':', so all keys of one user (or one movie1 row) go to one reducer
+ *  - HashPartitioner hashes the whole string and scatters a user's scores over every reducer
+ *  - keys without ':' are hashed whole
+ * */
+
+public class PrefixPartitioner<V> extends Partitioner<Text, V> {
+
+    @Override
+    public int getPartition(Text key, V value, int numPartitions) {
+        byte[] bytes = key.getBytes();
+        int length = key.getLength();
+        int hash = 0;
+        for (int i = 0; i < length && bytes[i] != ':'; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+
+}
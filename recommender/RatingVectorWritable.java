@@ -0,0 +1,84 @@
+package recommender;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Sparse rating vector of one user: parallel arrays of movie ids and ratings
+ *    text equivalent: movie1:rating1,movie2:rating2,...
+ *
+ *  - serialized as: vint size, then (vint movie, float rating) per entry
+ *  - ratings are floats: half-star style ratings are exact, and they take 4 bytes instead of a parsed string
+ *  - arrays grow on add() and are reused across readFields() calls
+ * */
+
+public class RatingVectorWritable implements Writable {
+
+    private int[] movies = new int[8];
+    private float[] ratings = new float[8];
+    private int size;
+
+    public void add(int movie, float rating) {
+        if (size == movies.length) {
+            movies = Arrays.copyOf(movies, size * 2);
+            ratings = Arrays.copyOf(ratings, size * 2);
+        }
+        movies[size] = movie;
+        ratings[size] = rating;
+        size++;
+    }
+
+    public void addAll(RatingVectorWritable other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.movies[i], other.ratings[i]);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int movieAt(int i) {
+        return movies[i];
+    }
+
+    public float ratingAt(int i) {
+        return ratings[i];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, movies[i]);
+            out.writeFloat(ratings[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        size = 0;
+        int n = WritableUtils.readVInt(in);
+        for (int i = 0; i < n; i++) {
+            add(WritableUtils.readVInt(in), in.readFloat());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "" : ",").append(movies[i]).append(":").append(ratings[i]);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,294 @@
+package recommender;
+
+import common.Compression;
+import common.StageCounter;
+import common.TextScanner;
+import common.ValuesPerKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** 6th mapreduce job
+ * 0. Task: Filter out movies the user already watched and extract top N movies for recommendation
+ *    rawInput format: user1:movie1\tsum
+ *                     user,movie,rating
+ *      output format: user1\tmovie3:4.2,movie7:3.9,... (at most N movies, best first)
+ *
+ * 1. mapper1
+ *      input line value: user1:movie1\tsum
+ *                output: key: (user1, SCORE)
+ *                      value: movie1=sum
+ *
+ * 2. mapper2
+ *      input line value: user,movie,rating
+ *                output: key: (user, WATCHED)
+ *                      value: movie (already watched)
+ *
+ * 3. reducer
+ *      input: key: user1
+ *          values: <movie2, ..., movie1=sum1, movie2=sum2, movie3=sum3, ...>
+ *     output: key: user1
+ *           value: movie3:sum3,movie1:sum1 (movie2 was watched)
+ *    Note: - secondary sort (UserMarkerKey): partition and group by user, sort WATCHED before SCORE, so the watched
+ *            markers come first and the scores are filtered and offered to the heap as they stream by; a reduce()
+ *            call holds the user's watched movies and N scores, never the user's whole score row
+ *          - a min-heap bounded at N keeps the best N: the root is the weakest of the current top N
+ *          - output is O(users * N) instead of O(users * catalog)
+ *          - in binary mode Driver skips this job: Aggregator partitions by user and does the same in its reducer
+ *
+ * 4. Configuration
+ *      - recommender.topn: N (default 10), N >= 0 is checked when the job is created
+ *      - recommender.dictionary.decode: see IdDictionary, raw ids are printed in the output
+ * */
+
+public class RecommendationExtractor {
+
+    public static final String TOP_N = "recommender.topn";
+    // set by Driver in binary mode: Multiplier marks watched cells and Aggregator extracts the top N itself
+    public static final String FUSED = "recommender.topn.fused";
+
+    public static class ScoreMapper extends Mapper<LongWritable, Text, UserMarkerKey, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text user = new Text();
+        private final UserMarkerKey outputKey = new UserMarkerKey();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user1:movie1\tsum
+            //       output key: (user1, SCORE)
+            //            value: movie1=sum
+            if (scanner.reset(value).remaining('\t') != 2 || scanner.remaining(':') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(':');
+            scanner.copyTo(user);
+            outputKey.set(user, UserMarkerKey.SCORE);
+            scanner.next('\t');
+            scanner.copyTo(outputValue);
+            TextScanner.append(outputValue, '=');
+            scanner.next('\t');
+            scanner.appendTo(outputValue);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    public static class WatchedMapper extends Mapper<LongWritable, Text, UserMarkerKey, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text user = new Text();
+        private final UserMarkerKey outputKey = new UserMarkerKey();
+        private final Text outputValue = new Text();
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user,movie,rating
+            //       output key: (user, WATCHED)
+            //            value: movie
+            if (scanner.reset(value).remaining(',') != 3) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next(',');
+            scanner.copyTo(user);
+            outputKey.set(user, UserMarkerKey.WATCHED);
+            scanner.next(',');
+            scanner.copyTo(outputValue);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    public static class TopNReducer extends Reducer<UserMarkerKey, Text, Text, Text> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Set<Text> watched = new HashSet<Text>();
+        private final Text movie = new Text();
+        private final Text outputKey = new Text();
+        private final Text outputValue = new Text();
+        private TopN top;
+        private IdDictionary decoder;
+        private ValuesPerKey valuesPerKey;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            top = new TopN(topN(context.getConfiguration()));
+            decoder = IdDictionary.decoder(context.getConfiguration());
+            valuesPerKey = new ValuesPerKey(context);
+        }
+
+        @Override
+        protected void reduce(UserMarkerKey key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // input:  key: user1
+            //      values: <movie2, ..., movie1=sum1, movie2=sum2, ...> (watched markers first)
+            // output: key: user1
+            //       value: movie1:sum1,... (top N unwatched, best first)
+            watched.clear();
+
+            int count = 0;
+            for (Text value : values) {
+                count++;
+                // hadoop updates the key while iterating a group: it tells whether this value is a marker or a score
+                if (key.getTag() == UserMarkerKey.WATCHED) {
+                    if (!watched.contains(value)) {
+                        watched.add(new Text(value)); // value object is reused by hadoop
+                    }
+                    continue;
+                }
+                scanner.reset(value).next('=');
+                scanner.copyTo(movie);
+                if (watched.contains(movie)) {
+                    continue;
+                }
+                scanner.next('=');
+                double score = scanner.parseDouble();
+                if (top.accepts(score)) {
+                    top.offer(movie.toString(), score);
+                }
+            }
+            valuesPerKey.add(count);
+
+            if (top.isEmpty()) {
+                return;
+            }
+            String user = key.getUser().toString();
+            outputKey.set(decoder == null ? user : decoder.user(user)); // final output: print raw ids
+            outputValue.set(top.drain(decoder));
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    // N of recommender.topn; the drivers and createJob call it, so a negative N fails before any task runs
+    static int topN(Configuration conf) {
+        int n = conf.getInt(TOP_N, 10);
+        if (n < 0) {
+            throw new IllegalArgumentException(TOP_N + "=" + n + ": must be >= 0");
+        }
+        return n;
+    }
+
+    // bounded min-heap: root is the weakest movie of the current top N
+    static final class TopN {
+
+        private final int n;
+        private final PriorityQueue<MovieScore> heap;
+
+        TopN(int n) {
+            this.n = n;
+            this.heap = new PriorityQueue<MovieScore>(n + 1, MovieScore.ASCENDING);
+        }
+
+        void offer(String movie, double score) {
+            MovieScore candidate = new MovieScore(movie, score);
+            if (heap.size() < n) {
+                heap.add(candidate);
+            } else if (n > 0 && MovieScore.ASCENDING.compare(candidate, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        boolean isEmpty() {
+            return heap.isEmpty();
+        }
+
+        // false when score can't make the top N: the caller skips building the candidate (ties are left to offer)
+        boolean accepts(double score) {
+            return n > 0 && (heap.size() < n || score >= heap.peek().score);
+        }
+
+        // movie1:sum1,movie2:sum2,... best first; empties the heap
+        String drain(IdDictionary decoder) {
+            // drain weakest first, then print best first
+            MovieScore[] top = new MovieScore[heap.size()];
+            for (int i = top.length - 1; i >= 0; i--) {
+                top[i] = heap.poll();
+            }
+            StringBuilder sb = new StringBuilder();
+            for (MovieScore movieScore : top) {
+                String movie = decoder == null ? movieScore.movie : decoder.movie(movieScore.movie);
+                sb.append(",").append(movie).append(":").append(movieScore.score);
+            }
+            return sb.substring(1);
+        }
+    }
+
+    static final class MovieScore {
+
+        // lower score first; on ties the larger movie id is weaker, so the output is deterministic
+        static final Comparator<MovieScore> ASCENDING = new Comparator<MovieScore>() {
+            @Override
+            public int compare(MovieScore a, MovieScore b) {
+                int byScore = Double.compare(a.score, b.score);
+                return byScore != 0 ? byScore : b.movie.compareTo(a.movie);
+            }
+        };
+
+        final String movie;
+        final double score;
+
+        MovieScore(String movie, double score) {
+            this.movie = movie;
+            this.score = score;
+        }
+    }
+
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
+
+        topN(conf);
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(RecommendationExtractor.class);
+        Compression.configure(job);
+
+        // mapper classes are set per input dir by MultipleInputs below
+        job.setReducerClass(TopNReducer.class);
+        // secondary sort: watched markers before scores, one reduce() call per user
+        job.setPartitionerClass(UserMarkerKey.UserPartitioner.class);
+        job.setGroupingComparatorClass(UserMarkerKey.GroupingComparator.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(UserMarkerKey.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // args[0]: aggregator output dir, args[1]: rawInputFile
+        MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, ScoreMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, WatchedMapper.class);
+
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
+
+    }
+
+}
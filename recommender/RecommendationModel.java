@@ -0,0 +1,257 @@
+package recommender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/** Query side of ModelExporter: memory-maps a model file and scores one user on demand
+ *
+ *  - open() maps the file read-only and wraps each section in an Int/FloatBuffer view: nothing is parsed or copied,
+ *    pages are loaded by the OS on first touch and shared by every process that maps the same file
+ *  - recommend(userId, k, movies, scores): sum over the user's ratings of rating * column(movie2) of the matrix
+ *    (same math as UserScorer), drop watched movies, keep the best k (same order as RecommendationExtractor)
+ *  - no allocation per query: scores live in per-instance scratch arrays sized to the catalog, a touched movie is
+ *    recognized by its stamp (= query number) instead of clearing the arrays, results go to caller-owned arrays
+ *  - an instance is not thread-safe; newQuery() gives each thread its own scratch over the same mapping
+ *  - one mapping is limited to 2 GB
+ * */
+
+public class RecommendationModel {
+
+    private final int movieCount;
+    private final IntBuffer movieIds;
+    private final IntBuffer columnStart;
+    private final IntBuffer cellRows;
+    private final FloatBuffer cellRelations;
+    private final IntBuffer userIds;
+    private final IntBuffer userStart;
+    private final IntBuffer ratingMovies;
+    private final FloatBuffer ratingValues;
+
+    // per-query scratch
+    private final double[] sums;
+    private final int[] stamps; // == stamp: touched by this query, == -stamp: watched by this user
+    private final int[] touched;
+    private int stamp;
+
+    private RecommendationModel(int movieCount, IntBuffer movieIds, IntBuffer columnStart, IntBuffer cellRows,
+                                FloatBuffer cellRelations, IntBuffer userIds, IntBuffer userStart,
+                                IntBuffer ratingMovies, FloatBuffer ratingValues) {
+        this.movieCount = movieCount;
+        this.movieIds = movieIds;
+        this.columnStart = columnStart;
+        this.cellRows = cellRows;
+        this.cellRelations = cellRelations;
+        this.userIds = userIds;
+        this.userStart = userStart;
+        this.ratingMovies = ratingMovies;
+        this.ratingValues = ratingValues;
+        this.sums = new double[movieCount];
+        this.stamps = new int[movieCount];
+        this.touched = new int[movieCount];
+    }
+
+    public static RecommendationModel open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            // the mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        IntBuffer header = buffer.asIntBuffer();
+        if (header.get(0) != ModelExporter.MAGIC || header.get(1) != ModelExporter.VERSION) {
+            throw new IOException("not a model file: " + file);
+        }
+        int movies = header.get(2);
+        int users = header.get(3);
+        int cells = header.get(4);
+        int ratings = header.get(5);
+
+        int offset = ModelExporter.HEADER_INTS * 4;
+        IntBuffer movieIds = section(buffer, offset, movies).asIntBuffer();
+        offset += movies * 4;
+        IntBuffer columnStart = section(buffer, offset, movies + 1).asIntBuffer();
+        offset += (movies + 1) * 4;
+        IntBuffer cellRows = section(buffer, offset, cells).asIntBuffer();
+        offset += cells * 4;
+        FloatBuffer cellRelations = section(buffer, offset, cells).asFloatBuffer();
+        offset += cells * 4;
+        IntBuffer userIds = section(buffer, offset, users).asIntBuffer();
+        offset += users * 4;
+        IntBuffer userStart = section(buffer, offset, users + 1).asIntBuffer();
+        offset += (users + 1) * 4;
+        IntBuffer ratingMovies = section(buffer, offset, ratings).asIntBuffer();
+        offset += ratings * 4;
+        FloatBuffer ratingValues = section(buffer, offset, ratings).asFloatBuffer();
+
+        return new RecommendationModel(movies, movieIds, columnStart, cellRows, cellRelations,
+                userIds, userStart, ratingMovies, ratingValues);
+    }
+
+    // ints/floats [offset, offset + 4 * length) of the file
+    private static ByteBuffer section(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer section = buffer.duplicate();
+        section.position(offset);
+        section.limit(offset + length * 4);
+        return section.slice();
+    }
+
+    // same mapped file, own scratch arrays: one per serving thread
+    public RecommendationModel newQuery() {
+        return new RecommendationModel(movieCount, movieIds, columnStart, cellRows, cellRelations,
+                userIds, userStart, ratingMovies, ratingValues);
+    }
+
+    public int movieCount() {
+        return movieCount;
+    }
+
+    /** Top k unwatched movies of a user, best first.
+     *  movies/scores: filled with movie ids and scores, k is capped by their length
+     *  returns how many entries were written (0 for an unknown user) */
+    public int recommend(int userId, int k, int[] movies, double[] scores) {
+        int user = binarySearch(userIds, userId);
+        if (user < 0) {
+            return 0;
+        }
+        if (++stamp == Integer.MAX_VALUE) { // stamps wrapped: forget every old mark
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        int from = userStart.get(user);
+        int to = userStart.get(user + 1);
+        for (int r = from; r < to; r++) {
+            stamps[ratingMovies.get(r)] = -stamp;
+        }
+
+        int touchedCount = 0;
+        for (int r = from; r < to; r++) {
+            int movie2 = ratingMovies.get(r);
+            double rating = ratingValues.get(r);
+            for (int cell = columnStart.get(movie2); cell < columnStart.get(movie2 + 1); cell++) {
+                int movie1 = cellRows.get(cell);
+                if (stamps[movie1] == -stamp) { // watched
+                    continue;
+                }
+                if (stamps[movie1] != stamp) {
+                    stamps[movie1] = stamp;
+                    sums[movie1] = 0;
+                    touched[touchedCount++] = movie1;
+                }
+                sums[movie1] += cellRelations.get(cell) * rating;
+            }
+        }
+
+        // bounded min-heap over the caller's arrays: root is the weakest of the current top k
+        int n = Math.min(k, Math.min(movies.length, scores.length));
+        int size = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int movie = movieIds.get(touched[i]);
+            double score = sums[touched[i]];
+            if (size < n) {
+                movies[size] = movie;
+                scores[size] = score;
+                siftUp(movies, scores, size++);
+            } else if (n > 0 && weaker(movies[0], scores[0], movie, score)) {
+                movies[0] = movie;
+                scores[0] = score;
+                siftDown(movies, scores, 0, size);
+            }
+        }
+
+        // heap sort: the weakest goes to the back each round, so the arrays end up best first
+        for (int end = size - 1; end > 0; end--) {
+            swap(movies, scores, 0, end);
+            siftDown(movies, scores, 0, end);
+        }
+        return size;
+    }
+
+    // lower score is weaker; on ties the larger movie id is weaker (same order as RecommendationExtractor)
+    private static boolean weaker(int movieA, double scoreA, int movieB, double scoreB) {
+        int byScore = Double.compare(scoreA, scoreB);
+        return byScore != 0 ? byScore < 0 : movieA > movieB;
+    }
+
+    private static void siftUp(int[] movies, double[] scores, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!weaker(movies[i], scores[i], movies[parent], scores[parent])) {
+                return;
+            }
+            swap(movies, scores, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] movies, double[] scores, int i, int size) {
+        while (true) {
+            int weakest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (weaker(movies[child], scores[child], movies[weakest], scores[weakest])) {
+                    weakest = child;
+                }
+            }
+            if (weakest == i) {
+                return;
+            }
+            swap(movies, scores, i, weakest);
+            i = weakest;
+        }
+    }
+
+    private static void swap(int[] movies, double[] scores, int i, int j) {
+        int movie = movies[i];
+        movies[i] = movies[j];
+        movies[j] = movie;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    private static int binarySearch(IntBuffer sorted, int key) {
+        int low = 0;
+        int high = sorted.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = sorted.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // args[0]: model file, args[1]: k, args[2...]: user ids
+        // output: user\tmovie3:4.2,movie7:3.9 (same as RecommendationExtractor)
+        RecommendationModel model = open(new File(args[0]));
+        int k = Integer.parseInt(args[1]);
+        int[] movies = new int[k];
+        double[] scores = new double[k];
+        for (int i = 2; i < args.length; i++) {
+            int count = model.recommend(Integer.parseInt(args[i]), k, movies, scores);
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < count; j++) {
+                sb.append(j == 0 ? "" : ",").append(movies[j]).append(":").append(scores[j]);
+            }
+            System.out.println(args[i] + "\t" + sb);
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package recommender;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Stripe: one row of the co-occurrence matrix as an associative array
+ *    movie1 -> {movie2: count, movie3: count, ...}
+ *
+ *  - the key (movie1) is the mapreduce key, the stripe only holds the neighbors and their counts
+ *  - serialized as: vint size, then (movie2 string, vint count) per cell
+ *  - stripes of the same movie1 are merged cell by cell (element-wise sum)
+ * */
+
+public class StripeWritable implements Writable {
+
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    // returns true when a new cell was created
+    public boolean increment(String movie, int count) {
+        Integer current = counts.get(movie);
+        counts.put(movie, current == null ? count : current + count);
+        return current == null;
+    }
+
+    public void merge(StripeWritable other) {
+        for (Map.Entry<String, Integer> entry : other.counts.entrySet()) {
+            increment(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    public int size() {
+        return counts.size();
+    }
+
+    public void clear() {
+        counts.clear();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Text.writeString(out, entry.getKey());
+            WritableUtils.writeVInt(out, entry.getValue());
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        counts.clear();
+        int size = WritableUtils.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            String movie = Text.readString(in);
+            counts.put(movie, WritableUtils.readVInt(in));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return counts.toString();
+    }
+
+}
@@ -0,0 +1,94 @@
+package recommender;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Key of RecommendationExtractor: (user, tag)
+ *  - tag:   WATCHED (0) sorts before SCORE (1), so a reducer has every watched marker of the user before the first
+ *           score and can filter the scores while streaming them
+ *  - sorted by user, tag; partitioned and grouped by user only (secondary sort, as MovieShardKey)
+ * */
+
+public class UserMarkerKey implements WritableComparable<UserMarkerKey> {
+
+    public static final byte WATCHED = 0;
+    public static final byte SCORE = 1;
+
+    private final Text user = new Text();
+    private byte tag;
+
+    public void set(Text user, byte tag) {
+        this.user.set(user);
+        this.tag = tag;
+    }
+
+    public Text getUser() {
+        return user;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        user.write(out);
+        out.writeByte(tag);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        user.readFields(in);
+        tag = in.readByte();
+    }
+
+    @Override
+    public int compareTo(UserMarkerKey other) {
+        int byUser = user.compareTo(other.user);
+        return byUser != 0 ? byUser : Byte.compare(tag, other.tag);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UserMarkerKey && compareTo((UserMarkerKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return user.hashCode() * 163 + tag;
+    }
+
+    @Override
+    public String toString() {
+        return user + "#" + tag;
+    }
+
+    // one reduce() call per user: watched markers first, then the scores
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(UserMarkerKey.class, true);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((UserMarkerKey) a).user.compareTo(((UserMarkerKey) b).user);
+        }
+    }
+
+    public static class UserPartitioner<V> extends Partitioner<UserMarkerKey, V> {
+
+        @Override
+        public int getPartition(UserMarkerKey key, V value, int numPartitions) {
+            return (key.user.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+package recommender;
+
+import common.Compression;
+import common.IntList;
+import common.LocalTasks;
+import common.StageCounter;
+import common.TextScanner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/** 4th mapreduce job, vector scoring (replaces Multiplier + Aggregator)
+ * 0. Task: multiply each user's sparse rating vector with the normalized co-occurrence matrix
+ *    rawInput format: userid\tmovie1:rating1,movie2:rating2,... (DataDividerByUser output)
+ *                     movie2\tmovie1=2/8 (Normalizer output, side-loaded through the distributed cache)
+ *      output format: user1:movie1\tsum (same as Aggregator)
+ *
+ * 1. mapper (map-only job, no shuffle)
+ *      setup: load the normalized matrix into NormalizedMatrix (CSR columns indexed by movie2)
+ *      input line value: user1\tmovie2:10,movie5:6
+ *                output: key: user1:movie1
+ *                      value: 10*relation(movie1,movie2) + 6*relation(movie1,movie5)
+ *    Note: - Multiplier emits one record per (user, movie1, movie2) and Aggregator shuffles them again;
+ *            here the user's whole row is in one map() call, so every sum is complete before it is written
+ *          - sums are accumulated in a dense double[] per mapper and only touched cells are written/reset
+ *          - every mapper holds the whole normalized matrix, so it must fit in the task heap
+ *
+ * 2. mean imputation (recommender.scoring.imputation=mean)
+ *      - a movie user1 hasn't rated counts as rated with user1's mean rating instead of 0:
+ *          score(user1, movie1) = sum over rated movie2 of rating2*relation(movie1,movie2)
+ *                               + mean(user1) * sum over unrated movie2 of relation(movie1,movie2)
+ *      - the second sum is rowTotal(movie1) minus the relations of the rated movies, both known from the row and
+ *        the side-loaded matrix: the correction is one term per written cell, the rating matrix is never densified
+ *        and nothing extra is read or shuffled
+ *      - the mean is taken over all of user1's ratings, also of movies without relations
+ *      - cells are the same as without imputation (movies related to at least one rated movie); any other movie1
+ *        scores mean(user1) * rowTotal(movie1) and is not written, except as a top N candidate (below)
+ *      - recommender.scoring.imputation.candidates=N (Driver sets it to recommender.topn when a recommendation dir
+ *        follows): such a movie1 can still belong to the user's top N, above written cells with a lower score, so the
+ *        first N unrated ones by rowTotal (highest first, lowest for a negative mean; ties at the Nth included) are
+ *        written as cells too; no other unwritten movie can outscore them, and RecommendationExtractor sees every
+ *        movie that can reach the top N
+ *
+ * 3. Configuration
+ *      - args[0]: DataDividerByUser output dir
+ *        args[1]: normalized matrix dir
+ *        args[2]: output dir
+ *      - Driver runs this job instead of Multiplier + Aggregator with -Drecommender.scoring=vector
+ *      - recommender.dictionary.decode: see IdDictionary, raw ids are printed when this is the last job
+ * */
+
+public class UserScorer {
+
+    public static final String SCORING = "recommender.scoring";
+    public static final String IMPUTATION = "recommender.scoring.imputation";
+    public static final String CANDIDATES = "recommender.scoring.imputation.candidates";
+
+    public static class UserScoreMapper extends Mapper<LongWritable, Text, Text, DoubleWritable> {
+
+        private final TextScanner scanner = new TextScanner();
+        private final Text movie = new Text();
+        private final Text outputKey = new Text();
+        private final DoubleWritable outputValue = new DoubleWritable();
+        private NormalizedMatrix matrix;
+        private double[] sums;
+        private double[] ratedRelations;
+        private boolean[] seen;
+        private IntList touched;
+        private IdDictionary decoder;
+        // imputed top N candidates (recommender.scoring.imputation.candidates)
+        private int candidateCount;
+        private double[] rowTotals;
+        private int[] byRowTotal;
+        private boolean[] rated;
+        private IntList ratedMovies;
+        private IntList candidates;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            List<Path> files = new ArrayList<Path>();
+            for (URI uri : context.getCacheFiles()) {
+                files.add(new Path(uri));
+            }
+            matrix = NormalizedMatrix.load(context.getConfiguration(), files);
+            sums = new double[matrix.movieCount()];
+            ratedRelations = isMeanImputation(context.getConfiguration()) ? new double[matrix.movieCount()] : null;
+            seen = new boolean[matrix.movieCount()];
+            touched = new IntList();
+            decoder = IdDictionary.decoder(context.getConfiguration());
+            candidateCount = ratedRelations == null ? 0 : imputedCandidates(context.getConfiguration());
+            if (candidateCount > 0) {
+                rowTotals = new double[matrix.movieCount()];
+                for (int movie1 = 0; movie1 < rowTotals.length; movie1++) {
+                    rowTotals[movie1] = matrix.rowTotal(movie1);
+                }
+                byRowTotal = byRowTotal(rowTotals);
+                rated = new boolean[matrix.movieCount()];
+                ratedMovies = new IntList();
+                candidates = new IntList();
+            }
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // input line value: user1\tmovie2:rating2,movie5:rating5,...
+            //       output key: user1:movie1
+            //            value: sum over movie2 of rating2*relation(movie1,movie2)
+            if (scanner.reset(value).remaining('\t') != 2) { // bad input
+                context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                return;
+            }
+            scanner.next('\t');
+            byte[] bytes = scanner.bytes();
+            int userStart = scanner.start();
+            int userLength = scanner.length();
+
+            // movie2:rating2,movie5:rating5: alternate between the two delimiters
+            double ratingSum = 0;
+            int ratingCount = 0;
+            while (scanner.next(':')) {
+                scanner.copyTo(movie);
+                if (!scanner.next(',')) { // bad input
+                    context.getCounter(StageCounter.MALFORMED_LINES).increment(1);
+                    break;
+                }
+                double rating = scanner.parseDouble();
+                ratingSum += rating;
+                ratingCount++;
+                int movie2 = matrix.indexOf(movie);
+                if (movie2 < 0) {
+                    continue;
+                }
+                if (rated != null && !rated[movie2]) {
+                    rated[movie2] = true;
+                    ratedMovies.add(movie2);
+                }
+                for (int cell = matrix.columnStart(movie2); cell < matrix.columnEnd(movie2); cell++) {
+                    int movie1 = matrix.rowAt(cell);
+                    if (!seen[movie1]) {
+                        seen[movie1] = true;
+                        touched.add(movie1);
+                    }
+                    sums[movie1] += matrix.relationAt(cell) * rating;
+                    if (ratedRelations != null) {
+                        ratedRelations[movie1] += matrix.relationAt(cell);
+                    }
+                }
+            }
+            double mean = ratingCount == 0 ? 0 : ratingSum / ratingCount;
+
+            if (candidateCount > 0) { // before seen is reset
+                addImputedCandidates(byRowTotal, rowTotals, seen, rated, mean, candidateCount, candidates);
+                for (int i = 0; i < ratedMovies.size(); i++) {
+                    rated[ratedMovies.get(i)] = false;
+                }
+                ratedMovies.clear();
+            }
+
+            for (int i = 0; i < touched.size(); i++) {
+                int movie1 = touched.get(i);
+                if (ratedRelations != null) { // unrated movie2s count with the user's mean
+                    sums[movie1] += mean * (matrix.rowTotal(movie1) - ratedRelations[movie1]);
+                    ratedRelations[movie1] = 0;
+                }
+                write(context, bytes, userStart, userLength, movie1, sums[movie1]);
+                sums[movie1] = 0;
+                seen[movie1] = false;
+            }
+            touched.clear();
+
+            if (candidateCount > 0) { // no rated movie relates to them: every movie2 counts with the mean
+                for (int i = 0; i < candidates.size(); i++) {
+                    int movie1 = candidates.get(i);
+                    write(context, bytes, userStart, userLength, movie1, mean * rowTotals[movie1]);
+                }
+                candidates.clear();
+            }
+        }
+
+        // output key: user1:movie1, value: score
+        private void write(Context context, byte[] bytes, int userStart, int userLength, int movie1, double score)
+                throws IOException, InterruptedException {
+            outputKey.set(bytes, userStart, userLength);
+            TextScanner.append(outputKey, ':');
+            matrix.appendMovie(movie1, outputKey);
+            if (decoder != null) { // final output: print raw ids
+                outputKey.set(decoder.decodeUserMovie(outputKey.toString()));
+            }
+            outputValue.set(score);
+            context.write(outputKey, outputValue);
+        }
+
+    }
+
+    // movies by rowTotal, highest first
+    static int[] byRowTotal(final double[] rowTotals) {
+        Integer[] order = new Integer[rowTotals.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(rowTotals[b], rowTotals[a]);
+            }
+        });
+        int[] movies = new int[order.length];
+        for (int i = 0; i < movies.length; i++) {
+            movies[i] = order[i];
+        }
+        return movies;
+    }
+
+    // adds the movies that are neither touched nor rated and can reach the user's top n: they score mean * rowTotal,
+    // so the first n of them by rowTotal (from the other end for a negative mean), plus the ties of the nth;
+    // a mean of 0 scores them all 0, as without imputation, and adds none
+    static void addImputedCandidates(int[] byRowTotal, double[] rowTotals, boolean[] touched, boolean[] rated,
+                                     double mean, int n, IntList candidates) {
+        if (mean == 0) {
+            return;
+        }
+        int count = 0;
+        double last = 0;
+        for (int i = 0; i < byRowTotal.length; i++) {
+            int movie1 = byRowTotal[mean > 0 ? i : byRowTotal.length - 1 - i];
+            if (touched[movie1] || rated[movie1]) {
+                continue;
+            }
+            if (count >= n && rowTotals[movie1] != last) {
+                break;
+            }
+            candidates.add(movie1);
+            last = rowTotals[movie1];
+            count++;
+        }
+    }
+
+    static int imputedCandidates(Configuration conf) {
+        int n = conf.getInt(CANDIDATES, 0);
+        if (n < 0) {
+            throw new IllegalArgumentException(CANDIDATES + "=" + n + ": must be >= 0");
+        }
+        return n;
+    }
+
+    public static boolean isVectorScoring(Configuration conf) {
+        return "vector".equals(conf.get(SCORING, "multiplier"));
+    }
+
+    public static boolean isMeanImputation(Configuration conf) {
+        return "mean".equals(conf.get(IMPUTATION, "zero"));
+    }
+
+    public static Job createJob(Configuration conf, String[] args) throws IOException {
+
+        Job job = Job.getInstance(conf);
+        job.setJarByClass(UserScorer.class);
+        Compression.configure(job);
+
+        job.setMapperClass(UserScoreMapper.class);
+        job.setNumReduceTasks(0); // the user's row is complete in one map() call
+
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(DoubleWritable.class);
+
+        // ship every part file of the normalized matrix to the mappers
+        for (Path file : LocalTasks.listInputFiles(new Path(args[1]), conf)) {
+            job.addCacheFile(file.toUri()); // listed paths are fully qualified
+        }
+
+        TextInputFormat.setInputPaths(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        createJob(conf, args).waitForCompletion(true);
+
+    }
+
+}
@@ -0,0 +1,199 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JobGraphTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private File input;
+    private File a;
+    private File b;
+
+    // writes one part file into its output dir and counts its runs; fails when told to
+    private static final class CountingStep implements JobGraph.Step {
+
+        final File output;
+        int runs;
+        boolean fail;
+        boolean sawOutput;
+
+        CountingStep(File output) {
+            this.output = output;
+        }
+
+        @Override
+        public boolean run(RunReport report) throws IOException {
+            runs++;
+            sawOutput = output.exists();
+            TestFiles.write(new File(output, "part-r-00000"), "run\t" + runs);
+            return !fail;
+        }
+    }
+
+    private CountingStep stepA;
+    private CountingStep stepB;
+    private RunReport report;
+
+    @Before
+    public void setUp() throws IOException {
+        conf = TestFiles.localConf();
+        conf.set("test.mode", "x");
+        input = TestFiles.write(new File(folder.getRoot(), "input/ratings.txt"), "1,1,1");
+        a = new File(folder.getRoot(), "a");
+        b = new File(folder.getRoot(), "b");
+        stepA = new CountingStep(a);
+        stepB = new CountingStep(b);
+    }
+
+    // input -> A -> a -> B -> b
+    private JobGraph chain(boolean resume) throws IOException {
+        report = new RunReport("test", new String[0]);
+        JobGraph graph = new JobGraph(conf, report, "test.", 2, resume, "test.ignored");
+        graph.add("A", conf, new String[] {input.getParent()}, new String[] {a.getPath()}, stepA);
+        graph.add("B", conf, new String[] {a.getPath()}, new String[] {b.getPath()}, stepB);
+        return graph;
+    }
+
+    private static String read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File marker(File output) {
+        return new File(output.getParentFile(), "_" + output.getName() + ".checkpoint");
+    }
+
+    @Test
+    public void completeStagesAreSkipped() throws Exception {
+        chain(true).run();
+        assertEquals(1, stepA.runs);
+        assertEquals(1, stepB.runs);
+        assertTrue(report.skipped().isEmpty());
+        assertTrue(marker(a).exists());
+
+        chain(true).run();
+        assertEquals(1, stepA.runs);
+        assertEquals(1, stepB.runs);
+        Collections.sort(report.skipped());
+        assertEquals(Arrays.asList("A", "B"), report.skipped());
+    }
+
+    @Test
+    public void aChangedPropertyRerunsTheStages() throws Exception {
+        chain(true).run();
+        conf.set("test.ignored", "anything");
+        conf.set("other.key", "anything");
+        chain(true).run();
+        assertEquals(1, stepA.runs);
+
+        conf.set("test.mode", "y");
+        chain(true).run();
+        assertEquals(2, stepA.runs);
+        assertEquals(2, stepB.runs);
+    }
+
+    @Test
+    public void aChangedInputRerunsEverythingDownstream() throws Exception {
+        chain(true).run();
+        TestFiles.write(input, "1,1,1", "2,1,5");
+        chain(true).run();
+        assertEquals(2, stepA.runs);
+        assertEquals(2, stepB.runs); // A's output files are new
+        assertFalse(stepA.sawOutput); // deleted before the stage ran again
+    }
+
+    @Test
+    public void aMissingOutputRerunsItsStage() throws Exception {
+        chain(true).run();
+        assertTrue(new File(b, "part-r-00000").delete());
+        assertTrue(b.delete());
+        chain(true).run();
+        assertEquals(1, stepA.runs);
+        assertEquals(2, stepB.runs);
+    }
+
+    @Test
+    public void anOutputWithoutMarkerIsNeverDeleted() throws Exception {
+        File foreign = TestFiles.write(new File(a, "part-r-00000"), "someone else's data");
+        try {
+            chain(true).run();
+            fail("existing output overwritten");
+        } catch (FileAlreadyExistsException expected) {
+            assertTrue(expected.getMessage().contains(a.getName()));
+        }
+        assertEquals(0, stepA.runs);
+        assertEquals(0, stepB.runs);
+        assertEquals("someone else's data", read(foreign));
+    }
+
+    @Test
+    public void aFailedStageIsMarkedRunningAndRunsAgain() throws Exception {
+        stepB.fail = true;
+        try {
+            chain(true).run();
+            fail("failed stage not reported");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("B"));
+        }
+        assertTrue(new File(b, "part-r-00000").exists()); // partial output of the failed attempt
+        assertEquals("running", read(marker(b)));
+
+        stepB.fail = false;
+        chain(true).run();
+        assertEquals(1, stepA.runs);
+        assertEquals(2, stepB.runs);
+        assertFalse(stepB.sawOutput); // the partial output is this graph's: deleted before the rerun
+        assertFalse("running".equals(read(marker(b))));
+    }
+
+    @Test
+    public void withoutResumeEveryStageRunsAndNothingIsDeleted() throws Exception {
+        chain(true).run();
+        chain(false).run();
+        assertEquals(2, stepA.runs);
+        assertEquals(2, stepB.runs);
+        assertTrue(stepA.sawOutput);
+
+        chain(true).run(); // markers were still written
+        assertEquals(2, stepA.runs);
+    }
+
+    @Test
+    public void twoStagesMustNotWriteTheSameOutput() throws IOException {
+        JobGraph graph = chain(true);
+        try {
+            graph.add("C", conf, new String[0], new String[] {a.getPath()}, new CountingStep(a));
+            fail("second writer accepted");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("two stages"));
+        }
+    }
+
+}
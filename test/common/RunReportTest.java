@@ -0,0 +1,94 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RunReportTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aJobWithoutCountersStillGetsAStage() throws Exception {
+        Job job = Job.getInstance(TestFiles.localConf());
+        RunReport.Stage stage = new RunReport.Stage(job, "job_local_0001", false, 1.5, null);
+        assertFalse(stage.succeeded);
+        assertEquals(0, stage.recordsIn);
+        assertEquals(0, stage.recordsOut);
+        assertEquals(0, stage.shuffledBytes);
+        assertEquals(0, stage.maxValuesPerKey);
+        assertEquals(1, stage.shuffleCompression, 0);
+        assertEquals(1, stage.outputCompression, 0);
+        assertEquals(0, stage.counter(StageCounter.MALFORMED_LINES));
+    }
+
+    private static byte[] lines(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("user").append(i % 97).append(":movie").append(i % 13).append('\t').append(i % 5).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long writeGzip(File file, byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(content);
+        gzip.close();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            compressed.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return compressed.size();
+    }
+
+    private RunReport.Stage compressedOutputStage(File output) throws Exception {
+        Configuration conf = TestFiles.localConf();
+        Job job = Job.getInstance(conf);
+        FileOutputFormat.setOutputPath(job, new Path(output.getPath()));
+        FileOutputFormat.setCompressOutput(job, true);
+        FileOutputFormat.setOutputCompressorClass(job, GzipCodec.class);
+        return new RunReport.Stage(job, "job_local_0001", true, 1, null);
+    }
+
+    @Test
+    public void outputCompressionIsUncompressedOverStoredBytes() throws Exception {
+        File output = folder.newFolder("out");
+        byte[] content = lines(20000);
+        long stored = writeGzip(new File(output, "part-r-00000.gz"), content);
+        RunReport.Stage stage = compressedOutputStage(output);
+        assertEquals((double) content.length / stored, stage.outputCompression, 1e-9);
+        assertTrue(stage.outputCompression > 2);
+    }
+
+    @Test
+    public void filesWithoutACodecCountAsStored() throws Exception {
+        File output = folder.newFolder("out");
+        byte[] content = lines(1000);
+        long stored = writeGzip(new File(output, "part-r-00000.gz"), content);
+        TestFiles.write(new File(output, "part-r-00001"), "plain\t1");
+        RunReport.Stage stage = compressedOutputStage(output);
+        assertEquals((double) (content.length + 8) / (stored + 8), stage.outputCompression, 1e-9);
+    }
+
+}
@@ -0,0 +1,78 @@
+package common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Helpers of the tests that run jobs on the local file system
+ *  - localConf(): hadoop's LocalJobRunner on file:///, nothing is submitted anywhere
+ *  - write(): a text input file, one line per string
+ *  - readOutput(): every key\tvalue line of a job output dir (part files only, compressed or not), sorted by key
+ * */
+
+public final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    public static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+
+    public static File write(File file, String... lines) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    // key -> value of every part-* file of dir; a key written twice fails the test
+    public static Map<String, String> readOutput(File dir) throws IOException {
+        Map<String, String> lines = new TreeMap<String, String>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("no output dir " + dir);
+        }
+        for (File file : files) {
+            if (!file.getName().startsWith("part-")) {
+                continue;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Compression.open(localConf(), new Path(file.getPath())), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    String key = line.substring(0, tab);
+                    if (lines.put(key, line.substring(tab + 1)) != null) {
+                        throw new IOException("key " + key + " written twice in " + dir);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,170 @@
+package common;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TextScannerTest {
+
+    private final TextScanner scanner = new TextScanner();
+
+    // the fields next(delimiter) walks, as strings
+    private List<String> fields(String line, char delimiter) {
+        scanner.reset(new Text(line));
+        List<String> fields = new ArrayList<String>();
+        while (scanner.next(delimiter)) {
+            fields.add(scanner.string());
+        }
+        return fields;
+    }
+
+    @Test
+    public void fieldsAreSplitAndTrimmedLikeTrimAndSplit() {
+        assertEquals(Arrays.asList("1", "10033", "2.0"), fields("1,10033,2.0", ','));
+        assertEquals(Arrays.asList("1", "10033", "2.0"), fields("  1 , 10033,\t2.0 \r\n", ','));
+        assertEquals(Arrays.asList("a", "", "b", ""), fields("a,,b,", ','));
+        assertEquals(Arrays.asList(""), fields("", ','));
+        assertEquals(Arrays.asList("user1", "m1:5,m2:3"), fields("user1\tm1:5,m2:3", '\t'));
+    }
+
+    @Test
+    public void remainingCountsFieldsWithoutConsumingThem() {
+        scanner.reset(new Text("u\tm1:1,m2:2,m3:3"));
+        assertEquals(2, scanner.remaining('\t'));
+        assertTrue(scanner.next('\t'));
+        assertEquals("u", scanner.string());
+        assertEquals(3, scanner.remaining(','));
+        assertTrue(scanner.next(','));
+        assertEquals(2, scanner.remaining(','));
+        assertTrue(scanner.next(','));
+        assertTrue(scanner.next(','));
+        assertEquals(0, scanner.remaining(','));
+        assertFalse(scanner.next(','));
+    }
+
+    @Test
+    public void fieldsCanBeSplitAgainInPlace() {
+        scanner.reset(new Text("movie7:4.5"));
+        assertTrue(scanner.next(','));
+        int colon = scanner.indexOf(':');
+        assertEquals(6, colon - scanner.start());
+        assertEquals(-1, scanner.indexOf('='));
+        scanner.reset(scanner.bytes(), colon + 1, scanner.start() + scanner.length());
+        assertTrue(scanner.next(','));
+        assertEquals(4.5, scanner.parseDouble(), 0);
+    }
+
+    @Test
+    public void copyToAndAppendToUseTheFieldBytesOnly() {
+        Text target = new Text();
+        scanner.reset(new Text(" user9 , movie3 "));
+        scanner.next(',');
+        scanner.copyTo(target);
+        TextScanner.append(target, ':');
+        scanner.next(',');
+        scanner.appendTo(target);
+        assertEquals("user9:movie3", target.toString());
+    }
+
+    @Test
+    public void multiByteCharactersAreKeptWhole() {
+        assertEquals(Arrays.asList("élève", "漢字", "3"), fields("élève,漢字,3", ','));
+    }
+
+    @Test
+    public void parseIntMatchesIntegerParseInt() {
+        for (String value : new String[] {"0", "7", "-7", "+7", "123456789", "2147483647", "-2147483648", "0042"}) {
+            scanner.reset(new Text(value));
+            scanner.next(',');
+            assertEquals(value, Integer.parseInt(value), scanner.parseInt());
+        }
+        for (String value : new String[] {"", "-", "12a", "2147483648", "1.5"}) {
+            scanner.reset(new Text(value));
+            scanner.next(',');
+            try {
+                scanner.parseInt();
+                fail(value + " parsed");
+            } catch (NumberFormatException expected) {
+                // same as Integer.parseInt
+            }
+        }
+    }
+
+    private double parseDouble(String value) {
+        scanner.reset(new Text("x," + value + ",y"));
+        scanner.next(',');
+        scanner.next(',');
+        return scanner.parseDouble();
+    }
+
+    @Test
+    public void parseDoubleMatchesDoubleParseDoubleBitForBit() {
+        String[] values = {"0", "0.0", "-0.0", "5", "4.5", "-4.5", "+4.5", ".5", "5.", "0.1", "0.3", "2.675",
+                "0.0000001", "123456789012345", "1234567890123456", "0.12345678901234567",
+                "0.574074074074074", "0.37499999999999994", "1.0E-5", "3e10", "1234567.1234567",
+                "0.0000000000000000000001", "NaN", "Infinity", "-Infinity"};
+        for (String value : values) {
+            assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(parseDouble(value)));
+        }
+    }
+
+    @Test
+    public void parseDoubleRoundTripsRandomDoubles() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0: // Double.toString of a relation or a sum
+                    value = random.nextDouble();
+                    break;
+                case 1: // ratings and rounded page ranks
+                    value = Math.round(random.nextDouble() * 1e6) / 1e5;
+                    break;
+                case 2:
+                    value = -random.nextDouble() * 1e4;
+                    break;
+                default:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+            }
+            String text = Double.toString(value);
+            assertEquals(text, Double.doubleToLongBits(Double.parseDouble(text)),
+                    Double.doubleToLongBits(parseDouble(text)));
+        }
+    }
+
+    @Test
+    public void parseDoubleRejectsWhatDoubleParseDoubleRejects() {
+        for (String value : new String[] {"", "-", ".", "1.2.3", "4,5", "abc"}) {
+            try {
+                scanner.reset(new Text(value));
+                scanner.next(';');
+                scanner.parseDouble();
+                fail(value + " parsed");
+            } catch (NumberFormatException expected) {
+                // same as Double.parseDouble
+            }
+        }
+    }
+
+    @Test
+    public void appendIntWritesWhatIntegerToStringWrites() {
+        Text text = new Text("x=");
+        for (int value : new int[] {0, 7, 10, 99, 100, -1, -10, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            text.set("x=");
+            TextScanner.appendInt(text, value);
+            assertEquals("x=" + value, text.toString());
+        }
+    }
+
+}
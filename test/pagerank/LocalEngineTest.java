@@ -0,0 +1,81 @@
+package pagerank;
+
+import common.RunReport;
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalEngineTest {
+
+    // UnitSum rounds every page rank to 5 decimals; a sum summed in another order can round to the neighbor
+    private static final double ROUNDING = 1e-5 + 1e-12;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> run(Configuration conf, File root, String name, int iterations)
+            throws Exception {
+        File dir = new File(root, name);
+        String[] args = {new File(root, "transition").getPath(), new File(dir, "pr").getPath(),
+                new File(dir, "subpr").getPath(), String.valueOf(iterations)};
+        copy(new File(root, "pr0"), new File(dir, "pr0"));
+        Driver.run(conf, args, new RunReport("pagerank", args));
+        return TestFiles.readOutput(new File(dir, "pr" + iterations));
+    }
+
+    private static void copy(File from, File to) throws Exception {
+        to.mkdirs();
+        for (File file : from.listFiles()) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath());
+        }
+    }
+
+    @Test
+    public void localEngineMatchesTheMapReduceIterations() throws Exception {
+        // 50 pages with 0..4 out-links each (pages without out-links are dead ends)
+        Random random = new Random(17);
+        int pages = 50;
+        List<String> transitions = new ArrayList<String>();
+        List<String> ranks = new ArrayList<String>();
+        for (int page = 1; page <= pages; page++) {
+            int links = random.nextInt(5);
+            StringBuilder targets = new StringBuilder();
+            for (int i = 0; i < links; i++) {
+                targets.append(i == 0 ? "" : ",").append(1 + random.nextInt(pages));
+            }
+            if (links > 0) {
+                transitions.add(page + "\t" + targets);
+            }
+            ranks.add(page + "\t" + 1.0 / pages);
+        }
+        File root = folder.getRoot();
+        TestFiles.write(new File(root, "transition/transition.txt"),
+                transitions.toArray(new String[transitions.size()]));
+        TestFiles.write(new File(root, "pr0/pr.txt"), ranks.toArray(new String[ranks.size()]));
+
+        Map<String, String> expected = run(TestFiles.localConf(), root, "mapreduce", 3);
+        Configuration conf = TestFiles.localConf();
+        conf.set(Driver.ENGINE, "local");
+        Map<String, String> actual = run(conf, root, "local", 3);
+
+        assertTrue(expected.size() > pages / 2);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, String> rank : expected.entrySet()) {
+            assertEquals(rank.getKey(), Double.parseDouble(rank.getValue()),
+                    Double.parseDouble(actual.get(rank.getKey())), ROUNDING);
+        }
+    }
+
+}
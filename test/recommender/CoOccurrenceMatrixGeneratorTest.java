@@ -0,0 +1,74 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class CoOccurrenceMatrixGeneratorTest {
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String input;
+    private static List<String> normalized;
+    private static Map<String, Double> scores;
+    private static Map<String, String[]> recommendations;
+
+    @BeforeClass
+    public static void runFullMatrix() throws Exception {
+        input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(7, 30, 20, 7)).getPath();
+        File dir = Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "full");
+        normalized = Pipelines.normalizedCells(new File(dir, "norm"));
+        scores = Pipelines.scores(dir);
+        recommendations = Pipelines.recommendations(dir);
+    }
+
+    private static void assertSameAsFullMatrix(Configuration conf, String name) throws Exception {
+        File dir = Pipelines.run(conf, input, folder.getRoot(), name);
+        assertEquals(normalized, Pipelines.normalizedCells(new File(dir, "norm")));
+        Pipelines.assertSameScores(scores, Pipelines.scores(dir));
+        Pipelines.assertSameRecommendations(recommendations, Pipelines.recommendations(dir), scores);
+    }
+
+    @Test
+    public void upperTriangleInPairsMode() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.setBoolean(CoOccurrenceMatrixGenerator.TRIANGLE, true);
+        assertSameAsFullMatrix(conf, "pairs-triangle");
+    }
+
+    @Test
+    public void upperTriangleInStripesMode() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(CoOccurrenceMatrixGenerator.MODE, "stripes");
+        conf.setBoolean(CoOccurrenceMatrixGenerator.TRIANGLE, true);
+        assertSameAsFullMatrix(conf, "stripes-triangle");
+    }
+
+    @Test
+    public void upperTriangleWithFusedNormalizeIsRejectedBeforeTheFirstJob() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(CoOccurrenceMatrixGenerator.MODE, "stripes");
+        conf.setBoolean(CoOccurrenceMatrixGenerator.TRIANGLE, true);
+        conf.setBoolean(CoOccurrenceMatrixGenerator.NORMALIZE, true);
+        conf.set(UserScorer.SCORING, "vector");
+        try {
+            Pipelines.run(conf, input, folder.getRoot(), "fused-triangle");
+            fail("upper triangle with fused normalize accepted");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(new File(folder.getRoot(), "fused-triangle/user").exists());
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package recommender;
+
+import common.Compression;
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Compression only changes how records are stored: a run with compressed map output and job output must read back
+ *  as the uncompressed run, in text and in binary mode */
+
+public class CompressedRunTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Configuration compressed(String mapOutput, String intermediate, String finalOutput) {
+        Configuration conf = TestFiles.localConf();
+        conf.set(Compression.MAP_OUTPUT, mapOutput);
+        conf.set(Compression.INTERMEDIATE, intermediate);
+        conf.set(Compression.FINAL, finalOutput);
+        return conf;
+    }
+
+    // every part file of dir carries the codec's extension
+    private static void assertCompressed(File dir, String extension) {
+        int parts = 0;
+        for (File part : dir.listFiles()) {
+            if (part.getName().startsWith("part-")) {
+                assertTrue(part.getName(), part.getName().endsWith(extension));
+                parts++;
+            }
+        }
+        assertTrue(dir + " has no part files", parts > 0);
+    }
+
+    @Test
+    public void compressedRunsReadBackAsTheUncompressedRun() throws Exception {
+        String input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(22, 40, 25, 8))
+                .getPath();
+        File plain = Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "plain");
+        Map<String, String> co = TestFiles.readOutput(new File(plain, "co"));
+        Map<String, Double> scores = Pipelines.scores(plain);
+        Map<String, String[]> recommendations = Pipelines.recommendations(plain);
+        assertEquals(40, recommendations.size());
+
+        // agg is read by the recommendation job: intermediate; rec is the pipeline's result: final
+        File text = Pipelines.run(compressed("deflate", "bzip2", "deflate"), input, folder.getRoot(), "text");
+        assertCompressed(new File(text, "co"), ".bz2");
+        assertCompressed(new File(text, "agg"), ".bz2");
+        assertCompressed(new File(text, "rec"), ".deflate");
+        assertEquals(co, TestFiles.readOutput(new File(text, "co")));
+        Pipelines.assertSameScores(scores, Pipelines.scores(text));
+        Pipelines.assertSameRecommendations(recommendations, Pipelines.recommendations(text), scores);
+
+        // block-compressed SequenceFiles between jobs 1-4, the aggregator writes the final text output
+        Configuration binaryConf = compressed("deflate", "deflate", "bzip2");
+        binaryConf.set(IntermediateFormat.FORMAT, "binary");
+        File binary = Pipelines.run(binaryConf, input, folder.getRoot(), "binary", false);
+        assertCompressed(new File(binary, "agg"), ".bz2");
+        Pipelines.assertSameScores(scores, Pipelines.scores(binary));
+    }
+
+}
@@ -0,0 +1,175 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The local engine, ParallelJobRunner and the job options that only change how the jobs get there must give the
+ *  scores and recommendations of the default mapreduce pipeline */
+
+public class EnginesTest {
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String input;
+    private static Map<String, Double> scores;
+    private static Map<String, String[]> recommendations;
+
+    @BeforeClass
+    public static void runMapReduce() throws Exception {
+        input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(1, 40, 25, 8)).getPath();
+        File dir = Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "mapreduce");
+        scores = Pipelines.scores(dir);
+        recommendations = Pipelines.recommendations(dir);
+        assertTrue(scores.size() > 100);
+        assertEquals(40, recommendations.size());
+    }
+
+    private static void assertSameAsMapReduce(Configuration conf, String name) throws Exception {
+        File dir = Pipelines.run(conf, input, folder.getRoot(), name);
+        Pipelines.assertSameScores(scores, Pipelines.scores(dir));
+        Pipelines.assertSameRecommendations(recommendations, Pipelines.recommendations(dir), scores);
+    }
+
+    @Test
+    public void localEngine() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(Driver.ENGINE, "local");
+        conf.setInt(LocalEngine.THREADS, 3);
+        assertSameAsMapReduce(conf, "local");
+    }
+
+    @Test
+    public void parallelJobRunner() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(Driver.ENGINE, "parallel");
+        conf.setInt(LocalEngine.THREADS, 3);
+        assertSameAsMapReduce(conf, "parallel");
+    }
+
+    @Test
+    public void stripesAndVectorScoring() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(Driver.ENGINE, "parallel");
+        conf.set(CoOccurrenceMatrixGenerator.MODE, "stripes");
+        conf.setInt(CoOccurrenceMatrixGenerator.STRIPES_FLUSH, 50);
+        conf.set(UserScorer.SCORING, "vector");
+        assertSameAsMapReduce(conf, "vector");
+    }
+
+    // every unrated movie of the matrix, scored densely: unrated related movies count with the user's mean
+    private static Map<String, List<Double>> imputedTopScores(File dir, String[] ratings, int n) throws Exception {
+        Map<String, Map<String, Double>> relations = new HashMap<String, Map<String, Double>>(); // movie1 -> movie2
+        Set<String> movies = new HashSet<String>();
+        for (File part : new File(dir, "norm").listFiles()) {
+            if (!part.getName().startsWith("part-")) {
+                continue;
+            }
+            for (String line : Files.readAllLines(part.toPath(), StandardCharsets.UTF_8)) {
+                // movie2\tmovie1=count/sum
+                String[] column_cell = line.split("\t");
+                String[] movie_relation = column_cell[1].split("=");
+                String[] fraction = movie_relation[1].split("/"); // or a plain double
+                if (!relations.containsKey(movie_relation[0])) {
+                    relations.put(movie_relation[0], new HashMap<String, Double>());
+                }
+                double relation = fraction.length == 1 ? Double.parseDouble(fraction[0])
+                        : Double.parseDouble(fraction[0]) / Double.parseDouble(fraction[1]);
+                relations.get(movie_relation[0]).put(column_cell[0], relation);
+                movies.add(movie_relation[0]);
+                movies.add(column_cell[0]);
+            }
+        }
+        Map<String, Map<String, Double>> rated = new HashMap<String, Map<String, Double>>();
+        for (String line : ratings) {
+            String[] user_movie_rating = line.split(",");
+            if (!rated.containsKey(user_movie_rating[0])) {
+                rated.put(user_movie_rating[0], new HashMap<String, Double>());
+            }
+            rated.get(user_movie_rating[0]).put(user_movie_rating[1], Double.parseDouble(user_movie_rating[2]));
+        }
+        Map<String, List<Double>> tops = new HashMap<String, List<Double>>();
+        for (Map.Entry<String, Map<String, Double>> user : rated.entrySet()) {
+            double mean = 0;
+            for (double rating : user.getValue().values()) {
+                mean += rating / user.getValue().size();
+            }
+            List<Double> top = new ArrayList<Double>();
+            for (String movie1 : movies) {
+                if (user.getValue().containsKey(movie1)) {
+                    continue;
+                }
+                double score = 0;
+                for (Map.Entry<String, Double> relation : relations.get(movie1).entrySet()) {
+                    Double rating = user.getValue().get(relation.getKey());
+                    score += relation.getValue() * (rating == null ? mean : rating);
+                }
+                top.add(score);
+            }
+            Collections.sort(top, Collections.<Double>reverseOrder());
+            tops.put(user.getKey(), top.subList(0, Math.min(n, top.size())));
+        }
+        return tops;
+    }
+
+    @Test
+    public void meanImputationTopNCoversMoviesNoRatedMovieRelatesTo() throws Exception {
+        // two groups of users and movies that never meet: every user's top N needs movies of the other group
+        List<String> lines = new ArrayList<String>();
+        for (String line : Pipelines.ratings(5, 12, 10, 4)) {
+            lines.add(line);
+            String[] user_movie_rating = line.split(",");
+            int user = Integer.parseInt(user_movie_rating[0]) + 100;
+            int movie = Integer.parseInt(user_movie_rating[1]) + 100;
+            lines.add(user + "," + movie + "," + user_movie_rating[2]);
+        }
+        String[] ratings = lines.toArray(new String[lines.size()]);
+        String groups = TestFiles.write(new File(folder.getRoot(), "groups/ratings.txt"), ratings).getPath();
+        int n = 12;
+
+        Configuration conf = TestFiles.localConf();
+        conf.set(Driver.ENGINE, "parallel");
+        conf.set(UserScorer.SCORING, "vector");
+        conf.set(UserScorer.IMPUTATION, "mean");
+        conf.setInt(RecommendationExtractor.TOP_N, n);
+        File vector = Pipelines.run(conf, groups, folder.getRoot(), "imputed-vector");
+
+        Map<String, List<Double>> expected = imputedTopScores(vector, ratings, n);
+        Map<String, String[]> lists = Pipelines.recommendations(vector);
+        assertEquals(expected.keySet(), lists.keySet());
+        for (Map.Entry<String, List<Double>> top : expected.entrySet()) {
+            String[] list = lists.get(top.getKey());
+            assertEquals(top.getKey(), top.getValue().size(), list.length);
+            for (int i = 0; i < list.length; i++) {
+                assertEquals(top.getKey() + " #" + i, top.getValue().get(i),
+                        Double.parseDouble(list[i].substring(list[i].indexOf(':') + 1)), Pipelines.TOLERANCE);
+            }
+        }
+
+        Configuration local = TestFiles.localConf();
+        local.set(Driver.ENGINE, "local");
+        local.set(UserScorer.IMPUTATION, "mean");
+        local.setInt(RecommendationExtractor.TOP_N, n);
+        File localDir = Pipelines.run(local, groups, folder.getRoot(), "imputed-local");
+        Pipelines.assertSameRecommendations(lists, Pipelines.recommendations(localDir), Pipelines.scores(localDir));
+    }
+
+}
@@ -0,0 +1,120 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdDictionaryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void encodedRatingsDecodeToTheRawRatings() throws Exception {
+        String[] raw = {"carol,tt03,2.0", "alice,tt02,4.0", "bob,tt01,3.5", "alice,tt01,5.0", "bob,tt03,1.0"};
+        Configuration conf = TestFiles.localConf();
+        String input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), raw).getPath();
+        String dictionaryDir = new File(folder.getRoot(), "dictionary").getPath();
+        String encodedDir = new File(folder.getRoot(), "encoded").getPath();
+        assertTrue(IdDictionary.createBuildJob(conf, new String[] {input, dictionaryDir}).waitForCompletion(false));
+        assertTrue(IdDictionary.createEncodeJob(conf, new String[] {input, dictionaryDir, encodedDir})
+                .waitForCompletion(false));
+
+        IdDictionary dictionary = IdDictionary.load(conf, new Path(dictionaryDir));
+        // dense ids in sorted raw id order
+        assertEquals(0, dictionary.userId("alice"));
+        assertEquals(1, dictionary.userId("bob"));
+        assertEquals(2, dictionary.userId("carol"));
+        assertEquals(0, dictionary.movieId("tt01"));
+        assertEquals(2, dictionary.movieId("tt03"));
+        for (String user : new String[] {"alice", "bob", "carol"}) {
+            assertEquals(user, dictionary.user(String.valueOf(dictionary.userId(user))));
+        }
+        for (String movie : new String[] {"tt01", "tt02", "tt03"}) {
+            assertEquals(movie, dictionary.movie(String.valueOf(dictionary.movieId(movie))));
+        }
+
+        List<String> decoded = new ArrayList<String>();
+        for (String line : Pipelines.sortedLines(new File(encodedDir))) {
+            String[] user_movie_rating = line.split(",");
+            decoded.add(dictionary.decodeUserMovie(user_movie_rating[0] + ":" + user_movie_rating[1]).replace(':', ',')
+                    + "," + user_movie_rating[2]);
+        }
+        List<String> expected = new ArrayList<String>(Arrays.asList(raw));
+        Collections.sort(expected);
+        Collections.sort(decoded);
+        assertEquals(expected, decoded);
+    }
+
+    // Pipelines.ratings with ids that are no ints: u7,tt10003,4.5
+    private static String[] rawIds(String[] ratings) {
+        String[] lines = new String[ratings.length];
+        for (int i = 0; i < ratings.length; i++) {
+            lines[i] = "u" + ratings[i].replaceFirst(",", ",tt");
+        }
+        return lines;
+    }
+
+    // u7 -> [tt10003:4.5, ...] back to 7 -> [10003:4.5, ...]
+    private static Map<String, String[]> intIds(Map<String, String[]> recommendations) {
+        Map<String, String[]> lists = new HashMap<String, String[]>();
+        for (Map.Entry<String, String[]> list : recommendations.entrySet()) {
+            String[] cells = new String[list.getValue().length];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = list.getValue()[i].substring(2);
+            }
+            lists.put(list.getKey().substring(1), cells);
+        }
+        return lists;
+    }
+
+    private static Configuration dictionary(File dir) {
+        Configuration conf = TestFiles.localConf();
+        conf.set(IdDictionary.DICTIONARY, dir.getPath());
+        return conf;
+    }
+
+    @Test
+    public void encodedRunsGiveTheOutputOfTheRawRun() throws Exception {
+        String[] ratings = Pipelines.ratings(6, 40, 25, 8);
+        String input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), ratings).getPath();
+        File raw = Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "raw");
+        Map<String, Double> scores = Pipelines.scores(raw);
+        Map<String, String[]> recommendations = Pipelines.recommendations(raw);
+        assertEquals(40, recommendations.size());
+
+        // the last job prints raw ids; the aggregator output before it stays encoded
+        File dictionaryDir = new File(folder.getRoot(), "dictionary");
+        File encoded = Pipelines.run(dictionary(dictionaryDir), input, folder.getRoot(), "encoded");
+        Pipelines.assertSameRecommendations(recommendations, Pipelines.recommendations(encoded), scores);
+        IdDictionary dictionary = IdDictionary.load(TestFiles.localConf(),
+                new Path(new File(dictionaryDir, "dictionary").getPath()));
+        Map<String, Double> decoded = new HashMap<String, Double>();
+        for (Map.Entry<String, Double> score : Pipelines.scores(encoded).entrySet()) {
+            decoded.put(dictionary.decodeUserMovie(score.getKey()), score.getValue());
+        }
+        Pipelines.assertSameScores(scores, decoded);
+
+        // int ids make binary intermediates possible whatever the raw ids look like
+        String rawIdInput = TestFiles.write(new File(folder.getRoot(), "raw-ids.txt"), rawIds(ratings)).getPath();
+        Configuration binary = dictionary(new File(folder.getRoot(), "binary-dictionary"));
+        binary.set(IntermediateFormat.FORMAT, "binary");
+        File encodedBinary = Pipelines.run(binary, rawIdInput, folder.getRoot(), "encoded-binary");
+        Pipelines.assertSameRecommendations(recommendations, intIds(Pipelines.recommendations(encodedBinary)), scores);
+    }
+
+}
@@ -0,0 +1,137 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IncrementalCoOccurrenceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void historyIsTheRawInputMinusTheDelta() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        File rawInput = folder.newFolder("ratings");
+        File history = TestFiles.write(new File(rawInput, "history.txt"), "1,10001,5.0");
+        File delta = TestFiles.write(new File(rawInput, "delta.txt"), "1,10002,4.0");
+        TestFiles.write(new File(rawInput, "_SUCCESS"));
+
+        List<Path> files = IncrementalCoOccurrence.historyFiles(conf, rawInput.getPath(), delta.getPath());
+        assertEquals(1, files.size());
+        assertEquals(history.getName(), files.get(0).getName());
+    }
+
+    private static void assertRejected(Configuration conf, String rawInput, String delta) throws Exception {
+        try {
+            IncrementalCoOccurrence.historyFiles(conf, rawInput, delta);
+            fail(delta + " accepted as a delta of " + rawInput);
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains(IncrementalCoOccurrence.DELTA));
+        }
+    }
+
+    @Test
+    public void aDeltaMustBeSomeButNotAllOfTheRawInputFiles() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        File rawInput = folder.newFolder("ratings");
+        TestFiles.write(new File(rawInput, "history.txt"), "1,10001,5.0");
+        File delta = TestFiles.write(new File(rawInput, "delta.txt"), "1,10002,4.0");
+        File elsewhere = TestFiles.write(new File(folder.getRoot(), "other/delta.txt"), "1,10002,4.0");
+        File single = TestFiles.write(new File(folder.getRoot(), "single/ratings.txt"), "1,10002,4.0");
+
+        assertRejected(conf, rawInput.getPath(), elsewhere.getPath()); // not a rawInput file: its pairs would be counted twice
+        assertRejected(conf, rawInput.getPath(), rawInput.getPath()); // no history left
+        assertRejected(conf, single.getParent(), single.getPath());
+        assertRejected(conf, rawInput.getPath(), folder.newFolder("empty").getPath());
+        assertEquals(1, IncrementalCoOccurrence.historyFiles(conf, rawInput.getPath(), delta.getPath()).size());
+    }
+
+    // yesterday's run on history, today's full run on history + delta, and today's incremental update of yesterday
+    private void assertIncrementalEqualsFull(List<String> history, List<String> delta) throws Exception {
+        File yesterday = folder.newFolder("yesterday");
+        TestFiles.write(new File(yesterday, "history.txt"), history.toArray(new String[history.size()]));
+        File today = folder.newFolder("today");
+        TestFiles.write(new File(today, "history.txt"), history.toArray(new String[history.size()]));
+        File deltaFile = TestFiles.write(new File(today, "delta.txt"), delta.toArray(new String[delta.size()]));
+
+        File previous = Pipelines.run(TestFiles.localConf(), yesterday.getPath(), folder.getRoot(), "previous");
+        File full = Pipelines.run(TestFiles.localConf(), today.getPath(), folder.getRoot(), "full");
+
+        Configuration conf = TestFiles.localConf();
+        conf.set(IncrementalCoOccurrence.DELTA, deltaFile.getPath());
+        conf.setStrings(IncrementalCoOccurrence.PREVIOUS, new File(previous, "co").getPath(),
+                new File(previous, "norm").getPath());
+        File incremental = Pipelines.run(conf, today.getPath(), folder.getRoot(), "incremental");
+
+        assertEquals(TestFiles.readOutput(new File(full, "co")), TestFiles.readOutput(new File(incremental, "co")));
+        assertEquals(Pipelines.normalizedCells(new File(full, "norm")),
+                Pipelines.normalizedCells(new File(incremental, "norm")));
+        Map<String, Double> scores = Pipelines.scores(full);
+        Pipelines.assertSameScores(scores, Pipelines.scores(incremental));
+        Pipelines.assertSameRecommendations(Pipelines.recommendations(full), Pipelines.recommendations(incremental),
+                scores);
+    }
+
+    @Test
+    public void updatedMatricesEqualAFullRun() throws Exception {
+        // a delta of new users, new movies and more movies of known users
+        String[] all = Pipelines.ratings(11, 30, 20, 7);
+        List<String> history = new ArrayList<String>();
+        List<String> delta = new ArrayList<String>();
+        for (int i = 0; i < all.length; i++) {
+            (i % 4 == 0 ? delta : history).add(all[i]);
+        }
+        delta.add("31,10001,4.5");
+        delta.add("31,10099,3.0");
+        delta.add("7,10099,2.0");
+        assertIncrementalEqualsFull(history, delta);
+    }
+
+    @Test
+    public void duplicateLinesCountLikeInAFullRun() throws Exception {
+        // the full run counts every line: a movie rated twice in the history, twice in the delta, or again in the
+        // delta adds its pairs once more
+        String[] all = Pipelines.ratings(13, 30, 20, 7);
+        List<String> history = new ArrayList<String>();
+        List<String> delta = new ArrayList<String>();
+        for (int i = 0; i < all.length; i++) {
+            (i % 4 == 0 ? delta : history).add(all[i]);
+        }
+        history.add(history.get(0));
+        delta.add(delta.get(0));
+        delta.add(history.get(1));
+        delta.add(history.get(2).replaceFirst(",[^,]*$", ",1.0"));
+        assertIncrementalEqualsFull(history, delta);
+    }
+
+    @Test
+    public void skewHandlingIsRejected() throws Exception {
+        File ratings = folder.newFolder("ratings");
+        TestFiles.write(new File(ratings, "history.txt"), Pipelines.ratings(3, 10, 8, 4));
+        File delta = TestFiles.write(new File(ratings, "delta.txt"), "1,10001,4.0");
+        Configuration conf = TestFiles.localConf();
+        conf.set(IncrementalCoOccurrence.DELTA, delta.getPath());
+        conf.setStrings(IncrementalCoOccurrence.PREVIOUS, "previous/co", "previous/norm");
+        conf.setInt(Multiplier.SKEW_THRESHOLD, 5);
+        try {
+            Pipelines.run(conf, ratings.getPath(), folder.getRoot(), "skew");
+            fail("incremental mode accepted " + Multiplier.SKEW_THRESHOLD);
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains(Multiplier.SKEW_THRESHOLD));
+        }
+    }
+
+}
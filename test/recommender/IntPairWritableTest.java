@@ -0,0 +1,92 @@
+package recommender;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IntPairWritableTest {
+
+    private static final int[] EDGES = {Integer.MIN_VALUE, -65536, -1, 0, 1, 255, 256, 65536, Integer.MAX_VALUE};
+
+    private static byte[] serialize(IntPairWritable pair) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        pair.write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static void assertSameOrder(WritableComparator raw, IntPairWritable a, IntPairWritable b)
+            throws IOException {
+        byte[] x = serialize(a);
+        byte[] y = serialize(b);
+        assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+                Integer.signum(raw.compare(x, 0, x.length, y, 0, y.length)));
+    }
+
+    @Test
+    public void rawComparatorOrdersLikeCompareTo() throws IOException {
+        WritableComparator raw = new IntPairWritable.Comparator();
+        for (int a : EDGES) {
+            for (int b : EDGES) {
+                for (int c : EDGES) {
+                    assertSameOrder(raw, new IntPairWritable(a, b), new IntPairWritable(a, c));
+                    assertSameOrder(raw, new IntPairWritable(a, c), new IntPairWritable(b, c));
+                }
+            }
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            assertSameOrder(raw, new IntPairWritable(random.nextInt(), random.nextInt()),
+                    new IntPairWritable(random.nextInt(), random.nextInt()));
+            int first = random.nextInt(4);
+            assertSameOrder(raw, new IntPairWritable(first, random.nextInt()),
+                    new IntPairWritable(random.nextInt(4), random.nextInt()));
+        }
+    }
+
+    @Test
+    public void rawComparatorReadsAtAnOffset() throws IOException {
+        byte[] a = serialize(new IntPairWritable(3, -2));
+        byte[] b = serialize(new IntPairWritable(3, 5));
+        byte[] padded = new byte[b.length + 5];
+        System.arraycopy(b, 0, padded, 5, b.length);
+        assertTrue(new IntPairWritable.Comparator().compare(a, 0, a.length, padded, 5, b.length) < 0);
+    }
+
+    @Test
+    public void groupingComparatorOnlyLooksAtTheFirstInt() throws IOException {
+        WritableComparator grouping = new IntPairWritable.FirstGroupingComparator();
+        byte[] a = serialize(new IntPairWritable(-4, 1));
+        byte[] b = serialize(new IntPairWritable(-4, Integer.MIN_VALUE));
+        byte[] c = serialize(new IntPairWritable(9, 0));
+        assertEquals(0, grouping.compare(a, 0, a.length, b, 0, b.length));
+        assertTrue(grouping.compare(a, 0, a.length, c, 0, c.length) < 0);
+    }
+
+    @Test
+    public void rawComparatorIsTheRegisteredDefault() {
+        new IntPairWritable(); // runs the static registration
+        assertSame(IntPairWritable.Comparator.class, WritableComparator.get(IntPairWritable.class).getClass());
+    }
+
+    @Test
+    public void firstPartitionerKeepsARowTogether() {
+        IntPairWritable.FirstPartitioner<Object> partitioner = new IntPairWritable.FirstPartitioner<Object>();
+        for (int first : EDGES) {
+            int partition = partitioner.getPartition(new IntPairWritable(first, 0), null, 7);
+            assertTrue(partition >= 0 && partition < 7);
+            for (int second : EDGES) {
+                assertEquals(partition, partitioner.getPartition(new IntPairWritable(first, second), null, 7));
+            }
+        }
+    }
+
+}
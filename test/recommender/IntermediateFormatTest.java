@@ -0,0 +1,44 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/** Binary intermediates only change how jobs 1-4 hand their records over: the scores of a binary run and its top N
+ *  lists (extracted inside Aggregator) must be those of the text run */
+
+public class IntermediateFormatTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Configuration binary() {
+        Configuration conf = TestFiles.localConf();
+        conf.set(IntermediateFormat.FORMAT, "binary");
+        return conf;
+    }
+
+    @Test
+    public void binaryIntermediatesGiveTheScoresAndRecommendationsOfTheTextRun() throws Exception {
+        String input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(4, 40, 25, 8))
+                .getPath();
+        File text = Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "text");
+        Map<String, Double> scores = Pipelines.scores(text);
+        Map<String, String[]> recommendations = Pipelines.recommendations(text);
+        assertEquals(40, recommendations.size());
+
+        File binary = Pipelines.run(binary(), input, folder.getRoot(), "binary");
+        Pipelines.assertSameRecommendations(recommendations, Pipelines.recommendations(binary), scores);
+
+        File binaryScores = Pipelines.run(binary(), input, folder.getRoot(), "binary-scores", false);
+        Pipelines.assertSameScores(scores, Pipelines.scores(binaryScores));
+    }
+
+}
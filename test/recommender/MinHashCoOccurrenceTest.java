@@ -0,0 +1,98 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinHashCoOccurrenceTest {
+
+    private static final int HASHES = 200;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String input;
+    private static Map<String, String> exact;
+
+    @BeforeClass
+    public static void countExactly() throws Exception {
+        // two overlapping groups of users and movies: strongly related pairs inside a group, weaker ones across
+        Random random = new Random(23);
+        List<String> lines = new ArrayList<String>();
+        for (int user = 1; user <= 200; user++) {
+            for (int movie = 10001; movie <= 10010; movie++) {
+                boolean inGroup = movie <= 10005 ? user <= 120 : user > 80;
+                if (random.nextDouble() < (inGroup ? 0.7 : 0.05)) {
+                    lines.add(user + "," + movie + "," + (1 + random.nextInt(5)));
+                }
+            }
+        }
+        input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), lines.toArray(new String[lines.size()]))
+                .getPath();
+        exact = TestFiles.readOutput(new File(Pipelines.run(TestFiles.localConf(), input, folder.getRoot(), "exact"),
+                "co"));
+    }
+
+    private static Map<String, String> estimate(String name, long flushBytes) throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.set(CoOccurrenceMatrixGenerator.MODE, MinHashCoOccurrence.MODE);
+        conf.setInt(MinHashCoOccurrence.HASHES, HASHES);
+        conf.setInt(MinHashCoOccurrence.BANDS, HASHES); // one row per band: every pair with an equal entry
+        conf.setLong(MinHashCoOccurrence.FLUSH_BYTES, flushBytes);
+        return TestFiles.readOutput(new File(Pipelines.run(conf, input, folder.getRoot(), name), "co"));
+    }
+
+    private static int raters(String movie) {
+        return Integer.parseInt(exact.get(movie + ":" + movie));
+    }
+
+    @Test
+    public void estimatesStayWithinTheErrorBound() throws Exception {
+        Map<String, String> estimated = estimate("minhash", 64L << 20);
+        int checked = 0;
+        for (Map.Entry<String, String> cell : exact.entrySet()) {
+            String[] movies = cell.getKey().split(":");
+            int count = Integer.parseInt(cell.getValue());
+            if (movies[0].equals(movies[1])) { // the diagonal is exact
+                assertEquals(cell.getKey(), cell.getValue(), estimated.get(cell.getKey()));
+                continue;
+            }
+            // standard error of the count: (|A| + |B|) / (1 + J)^2 * sqrt(J * (1 - J) / k), see the class header
+            int sum = raters(movies[0]) + raters(movies[1]);
+            double similarity = (double) count / (sum - count);
+            double error = sum / Math.pow(1 + similarity, 2) * Math.sqrt(similarity * (1 - similarity) / HASHES);
+            String value = estimated.get(cell.getKey());
+            if (similarity >= 0.2) { // strongly related: always a candidate with k = b
+                assertTrue(cell.getKey() + " missing", value != null);
+            }
+            if (value != null) {
+                assertEquals(cell.getKey() + " J=" + similarity, count, Integer.parseInt(value), 4 * error + 1);
+                checked++;
+            }
+        }
+        assertTrue(checked > 40);
+        for (String key : estimated.keySet()) {
+            assertTrue(key + " not in the exact matrix", exact.containsKey(key));
+        }
+    }
+
+    @Test
+    public void theFixedSeedGivesTheSameOutputWhateverTheBuffering() throws Exception {
+        Map<String, String> first = estimate("first", 64L << 20);
+        assertEquals(first, estimate("second", 64L << 20));
+        assertEquals(first, estimate("flushed", 1)); // one signature buffered at a time
+    }
+
+}
@@ -0,0 +1,101 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Skew handling and the broadcast join only change how Multiplier joins the matrix with the ratings: both must
+ *  write the records of the plain reduce-side join */
+
+public class MultiplierTest {
+
+    private static final int SKEW_THRESHOLD = 5;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String input;
+    private static List<String> products;
+    private static Map<String, Double> scores;
+
+    @BeforeClass
+    public static void runReduceSideJoin() throws Exception {
+        input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(3, 40, 25, 8)).getPath();
+        File dir = Pipelines.run(reduceSideJoin(), input, folder.getRoot(), "reduce");
+        products = Pipelines.sortedLines(new File(dir, "mult"));
+        scores = Pipelines.scores(dir);
+        assertTrue(products.size() > 500);
+    }
+
+    private static Configuration reduceSideJoin() {
+        Configuration conf = TestFiles.localConf();
+        conf.setLong(Multiplier.BROADCAST_MAX_BYTES, 0);
+        return conf;
+    }
+
+    private static File assertSameAsReduceSideJoin(Configuration conf, String name) throws Exception {
+        File dir = Pipelines.run(conf, input, folder.getRoot(), name);
+        assertEquals(products, Pipelines.sortedLines(new File(dir, "mult")));
+        Pipelines.assertSameScores(scores, Pipelines.scores(dir));
+        return dir;
+    }
+
+    @Test
+    public void skewShardsGiveTheRecordsOfTheReduceSideJoin() throws Exception {
+        Configuration conf = reduceSideJoin();
+        conf.setInt(Multiplier.SKEW_THRESHOLD, SKEW_THRESHOLD);
+        File dir = assertSameAsReduceSideJoin(conf, "skew");
+
+        // movie\traters of the Normalizer's side output: some movie has more than one shard
+        int split = 0;
+        for (String line : Pipelines.sortedLines(new File(dir, "norm/" + Normalizer.RATERS_DIR))) {
+            if (Integer.parseInt(line.substring(line.indexOf('\t') + 1)) > SKEW_THRESHOLD) {
+                split++;
+            }
+        }
+        assertTrue(split > 0);
+    }
+
+    // part-m: written by a map-only job, part-r: by the reducers
+    private static boolean writtenBy(File dir, String prefix) {
+        boolean any = false;
+        for (File part : dir.listFiles()) {
+            if (part.getName().startsWith("part-")) {
+                if (!part.getName().startsWith(prefix)) {
+                    return false;
+                }
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    @Test
+    public void theBroadcastJoinGivesTheRecordsOfTheReduceSideJoin() throws Exception {
+        File dir = assertSameAsReduceSideJoin(TestFiles.localConf(), "broadcast"); // default limit: 64 MB
+        assertTrue(writtenBy(new File(dir, "mult"), "part-m-"));
+    }
+
+    @Test
+    public void aMatrixOverTheLimitFallsBackToTheReduceSideJoin() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.setLong(Multiplier.BROADCAST_MAX_BYTES, 100);
+        File dir = assertSameAsReduceSideJoin(conf, "over-limit");
+        assertTrue(writtenBy(new File(dir, "mult"), "part-r-"));
+        Path matrix = new Path(new File(dir, "norm").getPath());
+        assertTrue(Multiplier.broadcastBytes(TestFiles.localConf(), matrix) > 100);
+        assertEquals(-1, Multiplier.broadcastBytes(conf, matrix));
+    }
+
+}
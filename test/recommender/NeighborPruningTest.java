@@ -0,0 +1,61 @@
+package recommender;
+
+import common.IntList;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NeighborPruningTest {
+
+    // the text reducers prune String rows, the binary reducer int rows: both must keep the same cells
+    @Test
+    public void textAndBinaryRowsKeepTheSameCells() {
+        Configuration conf = new Configuration();
+        conf.setInt(NeighborPruning.TOP_K, 4);
+        conf.setInt(NeighborPruning.MIN_COUNT, 2);
+        conf.setBoolean(NeighborPruning.RENORMALIZE, true);
+        NeighborPruning pruning = new NeighborPruning(conf);
+        Random random = new Random(5);
+        for (int n = 0; n < 200; n++) {
+            int movie1 = 10000 + random.nextInt(20);
+            Map<String, Integer> row = new HashMap<String, Integer>();
+            IntList movies = new IntList();
+            IntList counts = new IntList();
+            long sum = 0;
+            for (int movie2 = 10000; movie2 < 10020; movie2++) {
+                if (random.nextInt(3) > 0) {
+                    int count = 1 + random.nextInt(4); // many ties
+                    row.put(String.valueOf(movie2), count);
+                    movies.add(movie2);
+                    counts.add(count);
+                    sum += count;
+                }
+            }
+
+            Map<String, Integer> kept = pruning.prune(String.valueOf(movie1), row, sum);
+            IntList keptMovies = new IntList();
+            IntList keptCounts = new IntList();
+            pruning.prune(movie1, movies, counts, sum, keptMovies, keptCounts);
+
+            Map<String, Integer> binary = new HashMap<String, Integer>();
+            int neighbors = 0;
+            for (int i = 0; i < keptMovies.size(); i++) {
+                binary.put(String.valueOf(keptMovies.get(i)), keptCounts.get(i));
+                if (keptMovies.get(i) != movie1) {
+                    neighbors++;
+                    assertTrue(keptCounts.get(i) >= 2);
+                }
+            }
+            assertEquals(kept, binary);
+            assertTrue(neighbors <= 4);
+            assertEquals(pruning.denominator(sum, kept.values()), pruning.denominator(sum, keptCounts));
+        }
+    }
+
+}
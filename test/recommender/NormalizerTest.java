@@ -0,0 +1,126 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NormalizerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // runs the Normalizer job on the co-occurrence matrix lines; movie1 -> {movie2 -> relation}
+    private Map<String, Map<String, Double>> normalize(Configuration conf, String... matrix) throws Exception {
+        File input = TestFiles.write(new File(folder.getRoot(), "co/part-r-00000"), matrix);
+        File output = new File(folder.getRoot(), "norm");
+        assertTrue(Normalizer.createJob(conf, new String[] {input.getParent(), output.getPath()})
+                .waitForCompletion(false));
+
+        Map<String, Map<String, Double>> rows = new HashMap<String, Map<String, Double>>();
+        for (String line : lines(output)) {
+            // movie2\tmovie1=relation
+            String movie2 = line.substring(0, line.indexOf('\t'));
+            String movie1 = line.substring(line.indexOf('\t') + 1, line.indexOf('='));
+            if (!rows.containsKey(movie1)) {
+                rows.put(movie1, new HashMap<String, Double>());
+            }
+            rows.get(movie1).put(movie2, Double.parseDouble(line.substring(line.indexOf('=') + 1)));
+        }
+        return rows;
+    }
+
+    private static List<String> lines(File dir) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (File part : dir.listFiles()) {
+            if (part.getName().startsWith("part-")) {
+                lines.addAll(Files.readAllLines(part.toPath(), StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    private static String[] cells(String movie1, int... counts) {
+        String[] lines = new String[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            lines[i] = movie1 + ":" + (10001 + i) + "\t" + counts[i];
+        }
+        return lines;
+    }
+
+    @Test
+    public void aRowMaySumPastIntegerMaxValue() throws Exception {
+        // activity weights make big counts: 4 cells of 2^30 sum to 2^32
+        int[] counts = new int[4];
+        Arrays.fill(counts, 1 << 30);
+        Map<String, Double> row = normalize(TestFiles.localConf(), cells("10001", counts)).get("10001");
+        assertEquals(4, row.size());
+        for (double relation : row.values()) {
+            assertEquals(0.25, relation, 0);
+        }
+    }
+
+    // row 10001: diagonal 10 (never pruned), then 10002..10006; 10003, 10004 and 10005 tie
+    private static final int[] ROW = {10, 5, 3, 3, 3, 1};
+
+    @Test
+    public void topKKeepsExactlyTheKStrongestNeighborsTiesToTheSmallerId() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.setInt(NeighborPruning.TOP_K, 2);
+        String[] matrix = cells("10001", ROW);
+        String[] small = {"10009:10009\t4", "10009:10001\t2"}; // fewer neighbors than K: all kept
+        String[] lines = Arrays.copyOf(matrix, matrix.length + small.length);
+        System.arraycopy(small, 0, lines, matrix.length, small.length);
+
+        Map<String, Map<String, Double>> rows = normalize(conf, lines);
+        Map<String, Double> row = rows.get("10001");
+        assertEquals(3, row.size());
+        assertEquals(10.0 / 25, row.get("10001"), 0); // the full row sum without renormalize
+        assertEquals(5.0 / 25, row.get("10002"), 0);
+        assertEquals(3.0 / 25, row.get("10003"), 0);
+        assertEquals(2, rows.get("10009").size());
+    }
+
+    @Test
+    public void cellsBelowMinCountAreDropped() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.setInt(NeighborPruning.MIN_COUNT, 3);
+        Map<String, Double> row = normalize(conf, cells("10001", ROW)).get("10001");
+        assertEquals(5, row.size());
+        assertFalse(row.containsKey("10006"));
+        assertEquals(3.0 / 25, row.get("10005"), 0);
+    }
+
+    @Test
+    public void renormalizedColumnsSumToOne() throws Exception {
+        Configuration conf = TestFiles.localConf();
+        conf.setInt(NeighborPruning.TOP_K, 2);
+        conf.setInt(NeighborPruning.MIN_COUNT, 2);
+        conf.setBoolean(NeighborPruning.RENORMALIZE, true);
+        Map<String, Double> row = normalize(conf, cells("10001", ROW)).get("10001");
+        assertEquals(3, row.size());
+        assertEquals(10.0 / 18, row.get("10001"), 0);
+        assertEquals(5.0 / 18, row.get("10002"), 0);
+        assertEquals(3.0 / 18, row.get("10003"), 0);
+        double sum = 0;
+        for (double relation : row.values()) {
+            sum += relation;
+        }
+        assertEquals(1, sum, 1e-15);
+    }
+
+}
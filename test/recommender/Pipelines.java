@@ -0,0 +1,136 @@
+package recommender;
+
+import common.RunReport;
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Helpers of the tests that run the whole recommender pipeline (Driver.run) with hadoop's LocalJobRunner
+ *  - ratings(): a small random user,movie,rating file
+ *  - run(): the seven Driver args under one dir, user/ co/ norm/ mult/ agg/ rec/
+ *  - sortedLines(), normalizedCells(): outputs that repeat keys (multiplier, normalizer) as sorted lines
+ *  - assertSameScores(), assertSameRecommendations(): engines sum in different orders, so scores are compared
+ *    with a tolerance, and a top N list only by its scores (ties between equal scores may be broken either way)
+ * */
+
+final class Pipelines {
+
+    static final double TOLERANCE = 1e-9;
+
+    private Pipelines() {
+    }
+
+    // users rate 2..maxPerUser of the movies, with whole and half ratings
+    static String[] ratings(long seed, int users, int movies, int maxPerUser) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<String>();
+        List<Integer> catalog = new ArrayList<Integer>();
+        for (int movie = 0; movie < movies; movie++) {
+            catalog.add(10001 + movie);
+        }
+        for (int user = 1; user <= users; user++) {
+            Collections.shuffle(catalog, random);
+            int count = 2 + random.nextInt(maxPerUser - 1);
+            for (int i = 0; i < count; i++) {
+                lines.add(user + "," + catalog.get(i) + "," + (1 + random.nextInt(9)) / 2.0);
+            }
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    // runs the pipeline on input into root/name, with a recommendation dir; returns root/name
+    static File run(Configuration conf, String input, File root, String name) throws Exception {
+        return run(conf, input, root, name, true);
+    }
+
+    // without a recommendation dir the aggregator output is the last job's output
+    static File run(Configuration conf, String input, File root, String name, boolean recommend) throws Exception {
+        File dir = new File(root, name);
+        String[] args = {input, new File(dir, "user").getPath(), new File(dir, "co").getPath(),
+                new File(dir, "norm").getPath(), new File(dir, "mult").getPath(), new File(dir, "agg").getPath(),
+                new File(dir, "rec").getPath()};
+        if (!recommend) {
+            args = Arrays.copyOf(args, 6);
+        }
+        Driver.run(conf, args, new RunReport("recommender", args));
+        return dir;
+    }
+
+    // the lines of the part (and unchanged-) files of dir, sorted: for outputs that repeat keys
+    static List<String> sortedLines(File dir) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (File part : dir.listFiles()) {
+            if (part.getName().startsWith("part-") || part.getName().startsWith("unchanged-")) {
+                lines.addAll(Files.readAllLines(part.toPath(), StandardCharsets.UTF_8));
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    // the normalizer writes several cells per column key
+    static List<String> normalizedCells(File dir) throws IOException {
+        List<String> cells = sortedLines(dir);
+        assertTrue(cells.size() > 20);
+        return cells;
+    }
+
+    static Map<String, Double> scores(File dir) throws IOException {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        for (Map.Entry<String, String> line : TestFiles.readOutput(new File(dir, "agg")).entrySet()) {
+            scores.put(line.getKey(), Double.parseDouble(line.getValue()));
+        }
+        return scores;
+    }
+
+    // user -> [movie:score, ...] best first
+    static Map<String, String[]> recommendations(File dir) throws IOException {
+        Map<String, String[]> lists = new HashMap<String, String[]>();
+        for (Map.Entry<String, String> line : TestFiles.readOutput(new File(dir, "rec")).entrySet()) {
+            lists.put(line.getKey(), line.getValue().split(","));
+        }
+        return lists;
+    }
+
+    static void assertSameScores(Map<String, Double> expected, Map<String, Double> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Double> score : expected.entrySet()) {
+            assertEquals(score.getKey(), score.getValue(), actual.get(score.getKey()), TOLERANCE);
+        }
+    }
+
+    // same length and scores position by position; every movie listed scores what scores says for the user
+    static void assertSameRecommendations(Map<String, String[]> expected, Map<String, String[]> actual,
+                                          Map<String, Double> scores) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, String[]> list : expected.entrySet()) {
+            String user = list.getKey();
+            String[] other = actual.get(user);
+            assertEquals(user, list.getValue().length, other.length);
+            for (int i = 0; i < other.length; i++) {
+                double score = Double.parseDouble(other[i].substring(other[i].indexOf(':') + 1));
+                String expectedCell = list.getValue()[i];
+                assertEquals(user + " #" + i, Double.parseDouble(expectedCell.substring(expectedCell.indexOf(':') + 1)),
+                        score, TOLERANCE);
+                String cell = user + ":" + other[i].substring(0, other[i].indexOf(':'));
+                assertTrue(cell + " not scored", scores.containsKey(cell));
+                assertEquals(cell, scores.get(cell), score, TOLERANCE);
+            }
+        }
+    }
+
+}
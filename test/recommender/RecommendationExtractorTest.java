@@ -0,0 +1,123 @@
+package recommender;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecommendationExtractorTest {
+
+    @Test
+    public void topNKeepsTheBestScoresBestFirst() {
+        RecommendationExtractor.TopN top = new RecommendationExtractor.TopN(3);
+        top.offer("m1", 1.0);
+        top.offer("m2", 5.0);
+        top.offer("m3", 3.0);
+        top.offer("m4", 4.0);
+        top.offer("m5", 0.5);
+        assertEquals("m2:5.0,m4:4.0,m3:3.0", top.drain(null));
+        assertTrue(top.isEmpty());
+    }
+
+    @Test
+    public void tiesGoToTheSmallerMovieIdWhateverTheOrder() {
+        List<String> movies = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            movies.add("m" + i);
+        }
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            Collections.shuffle(movies, random);
+            RecommendationExtractor.TopN top = new RecommendationExtractor.TopN(4);
+            for (String movie : movies) {
+                top.offer(movie, movie.equals("m9") ? 2.0 : 1.0);
+            }
+            assertEquals("m9:2.0,m0:1.0,m1:1.0,m2:1.0", top.drain(null));
+        }
+    }
+
+    @Test
+    public void fewerCandidatesThanN() {
+        RecommendationExtractor.TopN top = new RecommendationExtractor.TopN(10);
+        top.offer("b", -1.0);
+        top.offer("a", 2.0);
+        assertEquals("a:2.0,b:-1.0", top.drain(null));
+    }
+
+    @Test
+    public void acceptsSkipsOnlyScoresBelowTheWeakest() {
+        RecommendationExtractor.TopN top = new RecommendationExtractor.TopN(2);
+        assertTrue(top.accepts(-100));
+        top.offer("m1", 3.0);
+        top.offer("m2", 2.0);
+        assertFalse(top.accepts(1.9));
+        assertTrue(top.accepts(2.0)); // a tie can still win on the movie id
+        top.offer("m0", 2.0);
+        assertEquals("m1:3.0,m0:2.0", top.drain(null));
+
+        RecommendationExtractor.TopN none = new RecommendationExtractor.TopN(0);
+        assertFalse(none.accepts(10));
+        none.offer("m1", 10);
+        assertTrue(none.isEmpty());
+    }
+
+    @Test
+    public void topNMustNotBeNegative() {
+        Configuration conf = new Configuration(false);
+        assertEquals(10, RecommendationExtractor.topN(conf));
+        conf.setInt(RecommendationExtractor.TOP_N, 0);
+        assertEquals(0, RecommendationExtractor.topN(conf));
+        conf.setInt(RecommendationExtractor.TOP_N, -1);
+        try {
+            RecommendationExtractor.topN(conf);
+            fail("negative top N accepted");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains(RecommendationExtractor.TOP_N));
+        }
+    }
+
+    private static UserMarkerKey key(String user, byte tag) {
+        UserMarkerKey key = new UserMarkerKey();
+        key.set(new Text(user), tag);
+        return key;
+    }
+
+    @Test
+    public void watchedMarkersSortBeforeScoresOfTheSameUser() throws IOException {
+        List<UserMarkerKey> keys = new ArrayList<UserMarkerKey>();
+        keys.add(key("u2", UserMarkerKey.SCORE));
+        keys.add(key("u1", UserMarkerKey.SCORE));
+        keys.add(key("u2", UserMarkerKey.WATCHED));
+        keys.add(key("u1", UserMarkerKey.WATCHED));
+        Collections.sort(keys);
+        assertEquals("[u1#0, u1#1, u2#0, u2#1]", keys.toString());
+
+        UserMarkerKey.GroupingComparator grouping = new UserMarkerKey.GroupingComparator();
+        assertEquals(0, grouping.compare(keys.get(0), keys.get(1)));
+        assertTrue(grouping.compare(keys.get(1), keys.get(2)) < 0);
+
+        UserMarkerKey.UserPartitioner<Text> partitioner = new UserMarkerKey.UserPartitioner<Text>();
+        assertEquals(partitioner.getPartition(keys.get(2), null, 5), partitioner.getPartition(keys.get(3), null, 5));
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        keys.get(3).write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        UserMarkerKey copy = new UserMarkerKey();
+        copy.readFields(in);
+        assertEquals(keys.get(3), copy);
+    }
+
+}
@@ -0,0 +1,90 @@
+package recommender;
+
+import common.TestFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** An exported model must answer recommend(user, k) with the top k of RecommendationExtractor on the same run */
+
+public class RecommendationModelTest {
+
+    // relations and ratings are stored as floats: scores agree with the pipeline to ~1e-6
+    private static final double FLOAT_TOLERANCE = 1e-5;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static RecommendationModel model;
+    private static File dir;
+
+    @BeforeClass
+    public static void runAndExport() throws Exception {
+        String input = TestFiles.write(new File(folder.getRoot(), "ratings.txt"), Pipelines.ratings(9, 40, 25, 8))
+                .getPath();
+        Configuration conf = TestFiles.localConf();
+        File modelFile = new File(folder.getRoot(), "model.bin");
+        conf.set(ModelExporter.MODEL_FILE, modelFile.getPath());
+        conf.setInt(RecommendationExtractor.TOP_N, 100); // more than the 25 movies: every candidate
+        dir = Pipelines.run(conf, input, folder.getRoot(), "run");
+        model = RecommendationModel.open(modelFile);
+    }
+
+    // model top k against the first k entries of the extractor's lists
+    private static void assertSameTopK(int k) throws Exception {
+        Map<String, String[]> lists = Pipelines.recommendations(dir);
+        Map<String, Double> scores = Pipelines.scores(dir);
+        assertEquals(40, lists.size());
+        int[] movies = new int[k];
+        double[] values = new double[k];
+        for (Map.Entry<String, String[]> list : lists.entrySet()) {
+            String user = list.getKey();
+            int count = model.recommend(Integer.parseInt(user), k, movies, values);
+            assertEquals(user, Math.min(k, list.getValue().length), count);
+            for (int i = 0; i < count; i++) {
+                String cell = list.getValue()[i];
+                double expected = Double.parseDouble(cell.substring(cell.indexOf(':') + 1));
+                assertEquals(user + " #" + i, expected, values[i], FLOAT_TOLERANCE);
+                // ties may be broken either way once rounded to floats: the movie must score the same in the run
+                Double score = scores.get(user + ":" + movies[i]);
+                assertTrue(user + ":" + movies[i] + " not scored", score != null);
+                assertEquals(user + ":" + movies[i], score, values[i], FLOAT_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void topKIsTheTopOfTheExtractedList() throws Exception {
+        assertSameTopK(3);
+    }
+
+    @Test
+    public void kLargerThanTheCandidatesReturnsEveryCandidate() throws Exception {
+        assertSameTopK(60);
+    }
+
+    @Test
+    public void anUnknownUserGetsNothing() {
+        int[] movies = new int[5];
+        double[] values = new double[5];
+        assertEquals(0, model.recommend(999999, 5, movies, values));
+        assertEquals(0, model.recommend(0, 5, movies, values));
+    }
+
+    @Test
+    public void kIsCappedByTheResultArrays() {
+        int[] movies = new int[2];
+        double[] values = new double[2];
+        assertEquals(2, model.recommend(1, 10, movies, values));
+        assertTrue(values[0] >= values[1]);
+    }
+
+}